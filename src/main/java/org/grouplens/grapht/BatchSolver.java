@@ -0,0 +1,222 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.grouplens.grapht.BindingFunctionBuilder.RuleSet;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.graph.MergePool;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.solver.BindingFunction;
+import org.grouplens.grapht.solver.DefaultDesireBindingFunction;
+import org.grouplens.grapht.solver.DependencySolver;
+import org.grouplens.grapht.solver.DependencySolverBuilder;
+import org.grouplens.grapht.util.ClassLoaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+/**
+ * Solves the dependency graphs of many variants of a base configuration, sharing the work they
+ * have in common.  Each variant is the base configuration with a delta {@link Module} applied to
+ * it, and its graph is the one a separate solve of that configuration would produce.  A delta
+ * rule binding the same type with the same qualifier in the same context as a base rule replaces
+ * that rule, so the base can bind a default that deltas override; otherwise base and delta rules
+ * compete as usual, and a more specific base rule still wins over a delta rule.  The base
+ * graph is solved once; each variant's graph is then produced by
+ * {@linkplain DependencySolver#rewrite(DAGNode) rewriting} it with the variant's full rules,
+ * re-resolving only the dependencies matched by one of the delta's rules and keeping the rest of
+ * the base graph.  All graphs are merged into one {@link MergePool}, so identical subgraphs are
+ * the same nodes in every graph.
+ * <p>
+ * Provider injection is not supported, since rewriting does not handle deferred dependencies.
+ * The base configuration should not be modified while the batch solver is in use.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class BatchSolver {
+    private static final Logger logger = LoggerFactory.getLogger(BatchSolver.class);
+    private static final RuleSet[] RULE_SETS = {
+            RuleSet.EXPLICIT, RuleSet.INTERMEDIATE_TYPES, RuleSet.SUPER_TYPES
+    };
+
+    private final BindingFunctionBuilder base;
+    private final ClassLoader classLoader;
+    private final List<Desire> roots;
+    private final MergePool<Component,Dependency> mergePool;
+    private DiagnosticLevel diagnosticLevel;
+    private DAGNode<Component,Dependency> baseGraph;
+
+    private BatchSolver(ClassLoader loader, BindingFunctionBuilder config) {
+        classLoader = loader;
+        base = config;
+        roots = Lists.newArrayList();
+        mergePool = MergePool.create(Dependency.extractInitialDesire());
+        diagnosticLevel = DiagnosticLevel.FULL;
+    }
+
+    /**
+     * Create a batch solver with the default class loader.
+     * @param base The base configuration.
+     * @return The batch solver.
+     */
+    public static BatchSolver create(BindingFunctionBuilder base) {
+        return create(ClassLoaders.inferDefault(), base);
+    }
+
+    /**
+     * Create a batch solver.
+     * @param loader The class loader to use for default bindings.
+     * @param base The base configuration.
+     * @return The batch solver.
+     */
+    public static BatchSolver create(ClassLoader loader, BindingFunctionBuilder base) {
+        if (base == null) {
+            throw new NullPointerException("base configuration cannot be null");
+        }
+        return new BatchSolver(loader, base);
+    }
+
+    /**
+     * Add an unqualified root type to be resolved in every graph.
+     *
+     * @param type The type to resolve.
+     * @return This solver (for chaining).
+     */
+    public BatchSolver addRoot(Class<?> type) {
+        return addRoot(null, type);
+    }
+
+    /**
+     * Add a root type to be resolved in every graph.
+     *
+     * @param qualifier The qualifier (may be {@code null}).
+     * @param type The type to resolve.
+     * @return This solver (for chaining).
+     */
+    public BatchSolver addRoot(Annotation qualifier, Class<?> type) {
+        roots.add(Desires.create(qualifier, type, false));
+        baseGraph = null;
+        return this;
+    }
+
+    /**
+     * Set how much diagnostic information the solvers record.
+     * @param level The diagnostic level.
+     * @return This solver (for chaining).
+     */
+    public BatchSolver setDiagnosticLevel(DiagnosticLevel level) {
+        if (level == null) {
+            throw new NullPointerException("diagnostic level cannot be null");
+        }
+        diagnosticLevel = level;
+        return this;
+    }
+
+    /**
+     * Get the merge pool shared by all graphs this solver produces.  It can be used to solve
+     * further desires into nodes shared with these graphs.
+     *
+     * @return The merge pool.
+     */
+    public MergePool<Component,Dependency> getMergePool() {
+        return mergePool;
+    }
+
+    /**
+     * Get the graph of the base configuration, solving it if necessary.
+     *
+     * @return The base graph, with an edge from its root to each root type.
+     * @throws ResolutionException if the base configuration cannot be solved.
+     */
+    public DAGNode<Component,Dependency> getBaseGraph() throws ResolutionException {
+        if (baseGraph == null) {
+            DependencySolver solver = newSolver().addBindingFunctions(buildFunctions(base))
+                                                 .addBindingFunction(DefaultDesireBindingFunction.create(classLoader))
+                                                 .build();
+            for (Desire root: roots) {
+                solver.resolve(root);
+            }
+            baseGraph = solver.getGraph();
+        }
+        return baseGraph;
+    }
+
+    /**
+     * Solve the graphs of a list of variants.
+     *
+     * @param deltas The modules configuring each variant's bindings on top of the base.
+     * @return The graph of each variant, in the same order as {@code deltas}.
+     * @throws ResolutionException if a variant cannot be solved.
+     */
+    public List<DAGNode<Component,Dependency>> solve(List<? extends Module> deltas) throws ResolutionException {
+        DAGNode<Component,Dependency> graph = getBaseGraph();
+        BindingFunction defaults = DefaultDesireBindingFunction.create(classLoader);
+
+        ImmutableList.Builder<DAGNode<Component,Dependency>> graphs = ImmutableList.builder();
+        for (Module delta: deltas) {
+            // the delta's rules alone decide which desires to re-resolve
+            BindingFunctionBuilder changes = new BindingFunctionBuilder(base.getGenerateRules());
+            for (Class<?> type: base.getDefaultExclusions()) {
+                changes.addDefaultExclusion(type);
+            }
+            changes.applyModule(delta);
+
+            // the variant resolves with the base and delta rules together, so they compete as
+            // they would in a single configuration, except that delta rules replace the base
+            // rules they override
+            BindingFunctionBuilder variant = base.clone();
+            variant.overrideRules(changes);
+
+            DependencySolverBuilder bld = newSolver();
+            for (BindingFunction fn: buildFunctions(variant)) {
+                bld.addBindingFunction(fn, false);
+            }
+            bld.addBindingFunction(defaults, false);
+            for (BindingFunction fn: buildFunctions(changes)) {
+                bld.addTriggerFunction(fn);
+            }
+            graphs.add(bld.build().rewrite(graph));
+        }
+        List<DAGNode<Component,Dependency>> result = graphs.build();
+        logger.debug("solved {} variants", result.size());
+        return result;
+    }
+
+    private DependencySolverBuilder newSolver() {
+        return DependencySolver.newBuilder()
+                               .setMaxDepth(100)
+                               .setDiagnosticLevel(diagnosticLevel)
+                               .setMergePool(mergePool);
+    }
+
+    private static List<BindingFunction> buildFunctions(BindingFunctionBuilder config) {
+        List<BindingFunction> functions = Lists.newArrayListWithCapacity(RULE_SETS.length);
+        for (RuleSet set: RULE_SETS) {
+            functions.add(config.build(set));
+        }
+        return functions;
+    }
+}
@@ -21,16 +21,18 @@ package org.grouplens.grapht;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import org.apache.commons.lang3.tuple.Pair;
 import org.grouplens.grapht.context.ContextMatcher;
+import org.grouplens.grapht.reflect.QualifierMatcher;
 import org.grouplens.grapht.solver.BindRule;
+import org.grouplens.grapht.solver.BindRuleBuilder;
 import org.grouplens.grapht.solver.BindingFunction;
 import org.grouplens.grapht.solver.RuleBasedBindingFunction;
 
+import javax.annotation.Nullable;
 import java.io.Externalizable;
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * BindingFunctionBuilder provides a convenient access to the fluent API and
@@ -185,6 +187,47 @@ public class BindingFunctionBuilder implements Cloneable {
         map.put(context, rule);
     }
 
+    /**
+     * Add the rules of another builder, replacing this builder's rules that bind the same type
+     * with the same qualifier matcher in the same context.
+     *
+     * @param overrides The builder whose rules take precedence.
+     */
+    void overrideRules(BindingFunctionBuilder overrides) {
+        for (RuleSet set: RuleSet.values()) {
+            Multimap<ContextMatcher, BindRule> map = getMap(set);
+            Multimap<ContextMatcher, BindRule> replacements = overrides.getMap(set);
+            for (Map.Entry<ContextMatcher, BindRule> entry: replacements.entries()) {
+                Pair<Class<?>, QualifierMatcher> key = ruleKey(entry.getValue());
+                if (key == null) {
+                    continue;
+                }
+                Iterator<BindRule> iter = map.get(entry.getKey()).iterator();
+                while (iter.hasNext()) {
+                    if (key.equals(ruleKey(iter.next()))) {
+                        iter.remove();
+                    }
+                }
+            }
+            map.putAll(replacements);
+        }
+    }
+
+    /**
+     * Get the desires a rule binds, as its dependency type and qualifier matcher.
+     * @return The key, or {@code null} if the rule cannot be inspected.
+     */
+    @Nullable
+    private static Pair<Class<?>, QualifierMatcher> ruleKey(BindRule rule) {
+        BindRuleBuilder bld;
+        try {
+            bld = rule.newCopyBuilder();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        return Pair.<Class<?>, QualifierMatcher>of(bld.getDependencyType(), bld.getQualifierMatcher());
+    }
+
     Set<Class<?>> getDefaultExclusions() {
         return Collections.unmodifiableSet(defaultExcludes);
     }
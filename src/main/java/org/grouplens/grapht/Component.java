@@ -19,8 +19,8 @@
  */
 package org.grouplens.grapht;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.grouplens.grapht.reflect.Satisfaction;
 import org.grouplens.grapht.util.Preconditions;
 
@@ -29,14 +29,18 @@ import java.io.Serializable;
 /**
  * A component to be instantiated in the final dependency plan.  A component consists of a {@link
  * Satisfaction} and related information for instantiating it (such as the {@link CachePolicy}).
+ * <p>
+ * Components are interned, so equal components are usually the same object.
  *
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  */
 public class Component implements Serializable {
     private static final long serialVersionUID = 5L;
+    private static final Interner<Component> INTERNER = Interners.newWeakInterner();
     
     private final Satisfaction satisfaction;
     private final CachePolicy cachePolicy;
+    private transient int hash;
 
     private Component(Satisfaction satisfaction, CachePolicy policy) {
         Preconditions.notNull("satisfaction", satisfaction);
@@ -56,7 +60,7 @@ public class Component implements Serializable {
      * @throws NullPointerException the satisfaction or policy is null
      */
     public static Component create(Satisfaction satisfaction, CachePolicy policy) {
-        return new Component(satisfaction, policy);
+        return INTERNER.intern(new Component(satisfaction, policy));
     }
 
     /**
@@ -76,27 +80,34 @@ public class Component implements Serializable {
 
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof Component)) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Component)) {
             return false;
         }
             
         Component c = (Component) o;
-        EqualsBuilder eqb = new EqualsBuilder();
-        return eqb.append(satisfaction, c.satisfaction)
-                  .append(cachePolicy, c.cachePolicy)
-                  .isEquals();
+        return hashCode() == c.hashCode()
+               && cachePolicy == c.cachePolicy
+               && satisfaction.equals(c.satisfaction);
     }
     
     @Override
     public int hashCode() {
-        HashCodeBuilder hcb = new HashCodeBuilder();
-        return hcb.append(satisfaction)
-                  .append(cachePolicy)
-                  .toHashCode();
+        int h = hash;
+        if (h == 0) {
+            h = satisfaction.hashCode() * 31 + cachePolicy.hashCode();
+            hash = h;
+        }
+        return h;
     }
     
     @Override
     public String toString() {
         return "(" + satisfaction + ", " + cachePolicy + ")";
     }
+
+    private Object readResolve() {
+        return INTERNER.intern(this);
+    }
 }
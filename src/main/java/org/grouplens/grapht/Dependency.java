@@ -19,7 +19,10 @@
  */
 package org.grouplens.grapht;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.grouplens.grapht.reflect.Desire;
 import org.grouplens.grapht.solver.DesireChain;
 
@@ -28,15 +31,18 @@ import java.io.Serializable;
 import java.util.EnumSet;
 
 /**
- * Track information about a particular resolved dependency. Used as the edge of DI graph nodes
+ * Track information about a particular resolved dependency. Used as the edge of DI graph nodes.
+ * Dependencies are interned, so equal dependencies are usually the same object.
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class Dependency implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final Interner<Dependency> INTERNER = Interners.newWeakInterner();
 
     private final DesireChain desireChain;
     private final EnumSet<Flag> flags;
+    private transient int hash;
 
     private Dependency(DesireChain chain, EnumSet<Flag> flagSet) {
         desireChain = chain;
@@ -44,7 +50,7 @@ public class Dependency implements Serializable {
     }
 
     public static Dependency create(DesireChain desires, EnumSet<Flag> flags) {
-        return new Dependency(desires, flags);
+        return INTERNER.intern(new Dependency(desires, flags));
     }
 
     /**
@@ -65,10 +71,10 @@ public class Dependency implements Serializable {
 
     /**
      * Get the flags associated with this dependency.
-     * @return The flags associated with this dependency.
+     * @return A copy of the flags associated with this dependency.
      */
     public EnumSet<Flag> getFlags() {
-        return flags;
+        return flags.clone();
     }
 
     /**
@@ -93,6 +99,24 @@ public class Dependency implements Serializable {
         };
     }
 
+    /**
+     * Get a function extracting the initial desires of dependencies.  Nodes whose edges have the
+     * same initial desires and tails are wired identically, so this is the edge key for merge
+     * pools shared across configurations.
+     * @return A function returning the initial desire of a dependency.
+     * @see org.grouplens.grapht.graph.MergePool#create(Function)
+     * @since 0.11
+     */
+    public static Function<Dependency,Desire> extractInitialDesire() {
+        return new Function<Dependency, Desire>() {
+            @Nullable
+            @Override
+            public Desire apply(@Nullable Dependency input) {
+                return input == null ? null : input.getInitialDesire();
+            }
+        };
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -100,6 +124,7 @@ public class Dependency implements Serializable {
 
         Dependency that = (Dependency) o;
 
+        if (hashCode() != that.hashCode()) return false;
         if (!desireChain.equals(that.desireChain)) return false;
         if (!flags.equals(that.flags)) return false;
 
@@ -108,8 +133,12 @@ public class Dependency implements Serializable {
 
     @Override
     public int hashCode() {
-        int result = desireChain.hashCode();
-        result = 31 * result + flags.hashCode();
+        int result = hash;
+        if (result == 0) {
+            result = desireChain.hashCode();
+            result = 31 * result + flags.hashCode();
+            hash = result;
+        }
         return result;
     }
 
@@ -118,6 +147,10 @@ public class Dependency implements Serializable {
         return "Dependency(" + desireChain + ", " + flags + ")";
     }
 
+    private Object readResolve() {
+        return INTERNER.intern(this);
+    }
+
     /**
      * Flags associated with a dependency.
      */
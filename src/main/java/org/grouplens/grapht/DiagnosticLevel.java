@@ -0,0 +1,44 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+/**
+ * How much diagnostic information injectors record while resolving and instantiating
+ * components.  Diagnostics are recorded in the SLF4J {@link org.slf4j.MDC} and in log messages;
+ * at lower levels, the construction and resolution paths skip this work entirely.
+ *
+ * @since 0.11
+ */
+public enum DiagnosticLevel {
+    /**
+     * Record no diagnostic context, and do not log individual resolutions.
+     */
+    OFF,
+    /**
+     * Record the class or provider being instantiated in the MDC, and log individual
+     * resolutions at debug level.
+     */
+    BASIC,
+    /**
+     * Additionally record each injection point in the MDC, and log individual resolutions
+     * at info level.
+     */
+    FULL
+}
@@ -20,25 +20,39 @@
 package org.grouplens.grapht;
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.grouplens.grapht.graph.DAGEdge;
 import org.grouplens.grapht.graph.DAGNode;
 import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.util.MemoizedValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * Container for dependency-injected components.  A container is the scope of memoization, so
  * components with a cache policy of {@link CachePolicy#MEMOIZE} will share an instance so long
- * as they are instantiated by the same instantiator.
+ * as they are instantiated by the same instantiator.  Containers are thread-safe; instantiators
+ * they produce may be invoked concurrently.
  *
  * @since 0.9
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -47,7 +61,12 @@ public class InjectionContainer {
     private static final Logger logger = LoggerFactory.getLogger(InjectionContainer.class);
 
     private final CachePolicy defaultCachePolicy;
+    private final MemoizedValue.WaitPolicy waitPolicy;
+    private final DiagnosticLevel diagnosticLevel;
+    @Nullable
+    private final PersistentInstanceCache instanceCache;
     private final Map<DAGNode<Component, Dependency>, Instantiator> providerCache;
+    private final Map<DAGNode<Component, Dependency>, ListenableFuture<?>> futureCache;
 
     /**
      * Create a new instantiator with a default policy of {@code MEMOIZE}.
@@ -63,12 +82,57 @@ public class InjectionContainer {
      * @return The instantiator.
      */
     public static InjectionContainer create(CachePolicy dft) {
-        return new InjectionContainer(dft);
+        return create(dft, MemoizedValue.WaitPolicy.BLOCK);
     }
 
-    private InjectionContainer(CachePolicy dft) {
+    /**
+     * Create a new instantiator.
+     * @param dft The default cache policy.
+     * @param wait How to wait for a memoized component that another thread is instantiating.
+     * @return The instantiator.
+     * @since 0.11
+     */
+    public static InjectionContainer create(CachePolicy dft, MemoizedValue.WaitPolicy wait) {
+        return create(dft, wait, DiagnosticLevel.FULL);
+    }
+
+    /**
+     * Create a new instantiator.
+     * @param dft The default cache policy.
+     * @param wait How to wait for a memoized component that another thread is instantiating.
+     * @param diagnostics The diagnostic level at which to instantiate components.
+     * @return The instantiator.
+     * @since 0.11
+     */
+    public static InjectionContainer create(CachePolicy dft, MemoizedValue.WaitPolicy wait,
+                                            DiagnosticLevel diagnostics) {
+        return create(dft, wait, diagnostics, null);
+    }
+
+    /**
+     * Create a new instantiator that stores expensive memoized components in a persistent
+     * instance cache.
+     * @param dft The default cache policy.
+     * @param wait How to wait for a memoized component that another thread is instantiating.
+     * @param diagnostics The diagnostic level at which to instantiate components.
+     * @param instances The persistent instance cache, or {@code null} to build all components.
+     * @return The instantiator.
+     * @since 0.11
+     */
+    public static InjectionContainer create(CachePolicy dft, MemoizedValue.WaitPolicy wait,
+                                            DiagnosticLevel diagnostics,
+                                            @Nullable PersistentInstanceCache instances) {
+        return new InjectionContainer(dft, wait, diagnostics, instances);
+    }
+
+    private InjectionContainer(CachePolicy dft, MemoizedValue.WaitPolicy wait, DiagnosticLevel diagnostics,
+                               PersistentInstanceCache instances) {
         defaultCachePolicy = dft;
+        waitPolicy = wait;
+        diagnosticLevel = diagnostics;
+        instanceCache = instances;
         providerCache = new WeakHashMap<DAGNode<Component, Dependency>, Instantiator>();
+        futureCache = new WeakHashMap<DAGNode<Component, Dependency>, ListenableFuture<?>>();
     }
 
     /**
@@ -93,22 +157,25 @@ public class InjectionContainer {
      * @param backEdges A multimap of back edges for cyclic dependencies.
      * @return A provider to instantiate {@code graph}.
      */
-    public Instantiator makeInstantiator(DAGNode<Component, Dependency> node,
+    public synchronized Instantiator makeInstantiator(DAGNode<Component, Dependency> node,
                                          SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) {
         Instantiator cached = providerCache.get(node);
         if (cached == null) {
             logger.debug("Node has not been memoized, instantiating: {}", node.getLabel());
             Map<Desire, Instantiator> depMap = makeDependencyMap(node, backEdges);
 
-            Instantiator raw = node.getLabel().getSatisfaction().makeInstantiator(depMap);
+            // always set the level: the instantiator may be invoked from another container's
+            // instantiator running at a different level
+            Instantiator raw = Instantiators.withDiagnostics(node.getLabel().getSatisfaction().makeInstantiator(depMap),
+                                                             diagnosticLevel);
 
-            CachePolicy policy = node.getLabel().getCachePolicy();
-            if (policy.equals(CachePolicy.NO_PREFERENCE)) {
-                policy = defaultCachePolicy;
-            }
+            CachePolicy policy = getEffectivePolicy(node);
             if (policy.equals(CachePolicy.MEMOIZE)) {
+                if (instanceCache != null) {
+                    raw = instanceCache.wrap(node, backEdges, raw);
+                }
                 // enforce memoization on providers for MEMOIZE policy
-                cached = Instantiators.memoize(raw);
+                cached = Instantiators.memoize(raw, waitPolicy);
             } else {
                 // Satisfaction.makeInstantiator() returns providers that are expected
                 // to create new instances with each invocation
@@ -120,6 +187,180 @@ public class InjectionContainer {
         return cached;
     }
 
+    /**
+     * Asynchronously instantiate the component represented by a graph.  Construction runs on
+     * {@code executor}; memoized nodes the component depends on are built concurrently as soon
+     * as their own dependencies are available, and each memoized node is built by a single
+     * future shared by all callers of this container.  Non-memoized dependencies are built
+     * along with the component that uses them.  A failed future is not shared: the next call
+     * tries to build the failed node again.
+     *
+     * @param node The graph.
+     * @param backEdges A multimap of back edges for cyclic dependencies.
+     * @param executor The executor on which to run constructors.
+     * @return A future of the instance of {@code node}.  It fails with a
+     *         {@link ConstructionException} if the component cannot be instantiated.
+     * @since 0.11
+     */
+    public synchronized ListenableFuture<Object> instantiateAsync(DAGNode<Component, Dependency> node,
+                                                                  SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                                                                  Executor executor) {
+        Map<DAGNode<Component, Dependency>, ListenableFuture<?>> scheduled = Maps.newHashMap();
+        ListenableFuture<?> ready = schedule(node, backEdges, executor, scheduled);
+        if (getEffectivePolicy(node).equals(CachePolicy.MEMOIZE)) {
+            @SuppressWarnings("unchecked")
+            ListenableFuture<Object> result = (ListenableFuture<Object>) ready;
+            return result;
+        } else {
+            return Futures.transform(ready, new InstantiateFunction(makeInstantiator(node, backEdges)),
+                                     executor);
+        }
+    }
+
+    /**
+     * Asynchronously instantiate the component represented by a graph without back edges.
+     *
+     * @param node The graph.
+     * @param executor The executor on which to run constructors.
+     * @return A future of the instance of {@code node}.
+     * @see #instantiateAsync(DAGNode, SetMultimap, Executor)
+     * @since 0.11
+     */
+    public ListenableFuture<Object> instantiateAsync(DAGNode<Component, Dependency> node,
+                                                     Executor executor) {
+        return instantiateAsync(node, ImmutableSetMultimap.<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>>of(),
+                                executor);
+    }
+
+    /**
+     * Eagerly instantiate all memoized components in a graph, using an executor to build
+     * independent components concurrently.  Each {@link CachePolicy#MEMOIZE} node is submitted to
+     * the executor as soon as all memoized nodes it depends on have been built, so the time taken
+     * approaches that of the longest chain of dependent constructions rather than the sum of all
+     * construction times.  Instantiators subsequently obtained from this container for nodes in
+     * the graph return the instances built here.
+     *
+     * <p>Back edges are not waited on; they are only used to satisfy provider injection, which
+     * defers instantiation anyway.
+     *
+     * @param graph The graph whose memoized nodes should be instantiated.
+     * @param backEdges A multimap of back edges for cyclic dependencies.
+     * @param executor The executor on which to run constructors.
+     * @throws ConstructionException if any component fails to instantiate.
+     * @since 0.11
+     */
+    public void instantiateEagerly(DAGNode<Component, Dependency> graph,
+                                   SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                                   Executor executor) throws ConstructionException {
+        ListenableFuture<?> done;
+        synchronized (this) {
+            Map<DAGNode<Component, Dependency>, ListenableFuture<?>> scheduled = Maps.newHashMap();
+            done = schedule(graph, backEdges, executor, scheduled);
+        }
+
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConstructionException("interrupted while instantiating graph", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), ConstructionException.class);
+            throw new ConstructionException("error instantiating graph", e.getCause());
+        }
+    }
+
+    /**
+     * Eagerly instantiate all memoized components in a graph without back edges.
+     *
+     * @param graph The graph whose memoized nodes should be instantiated.
+     * @param executor The executor on which to run constructors.
+     * @throws ConstructionException if any component fails to instantiate.
+     * @see #instantiateEagerly(DAGNode, SetMultimap, Executor)
+     * @since 0.11
+     */
+    public void instantiateEagerly(DAGNode<Component, Dependency> graph,
+                                   Executor executor) throws ConstructionException {
+        instantiateEagerly(graph, ImmutableSetMultimap.<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>>of(),
+                           executor);
+    }
+
+    /**
+     * Schedule the memoized nodes of a graph for construction.  Must be called while holding the
+     * lock on this container.
+     *
+     * @param node The node to schedule.
+     * @param backEdges The back edges (to pass to {@link #makeInstantiator(DAGNode,SetMultimap)}).
+     * @param executor The executor on which to run constructors.
+     * @param scheduled The futures already computed in this scheduling pass.
+     * @return A future that completes when {@code node} is ready: for a memoized node, when it is
+     *         built (with its instance as value); for other nodes, when all memoized nodes they
+     *         depend on are built.
+     */
+    private ListenableFuture<?> schedule(DAGNode<Component, Dependency> node,
+                                         SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                                         Executor executor,
+                                         Map<DAGNode<Component, Dependency>, ListenableFuture<?>> scheduled) {
+        ListenableFuture<?> future = scheduled.get(node);
+        if (future != null) {
+            return future;
+        }
+        boolean memoize = getEffectivePolicy(node).equals(CachePolicy.MEMOIZE);
+        if (memoize) {
+            future = futureCache.get(node);
+            if (future != null && hasFailed(future)) {
+                // failures are not memoized, so try again
+                futureCache.remove(node);
+                future = null;
+            }
+        }
+        if (future == null) {
+            List<ListenableFuture<?>> deps = Lists.newArrayList();
+            for (DAGNode<Component, Dependency> dep: node.getAdjacentNodes()) {
+                deps.add(schedule(dep, backEdges, executor, scheduled));
+            }
+            ListenableFuture<?> ready = Futures.allAsList(deps);
+            if (memoize) {
+                future = Futures.transform(ready, new InstantiateFunction(makeInstantiator(node, backEdges)),
+                                           executor);
+                futureCache.put(node, future);
+            } else {
+                // nothing to build ahead of time; dependents only wait on our dependencies
+                future = ready;
+            }
+        }
+        scheduled.put(node, future);
+        return future;
+    }
+
+    private static boolean hasFailed(ListenableFuture<?> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (CancellationException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the cache policy that will be used for a node, taking this container's default
+     * into account.
+     *
+     * @param node The node.
+     * @return The node's cache policy ({@link CachePolicy#MEMOIZE} or {@link CachePolicy#NEW_INSTANCE}).
+     */
+    private CachePolicy getEffectivePolicy(DAGNode<Component, Dependency> node) {
+        CachePolicy policy = node.getLabel().getCachePolicy();
+        if (policy.equals(CachePolicy.NO_PREFERENCE)) {
+            policy = defaultCachePolicy;
+        }
+        return policy;
+    }
+
     private Map<Desire, Instantiator> makeDependencyMap(DAGNode<Component, Dependency> node, SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) {
         Set<DAGEdge<Component,Dependency>> edges = node.getOutgoingEdges();
         if (backEdges.containsKey(node)) {
@@ -138,11 +379,29 @@ public class InjectionContainer {
     }
 
     /**
-     * Function to look up a desire in a set of dependency edges.
+     * Function to invoke an instantiator once a future completes.
+     */
+    private static class InstantiateFunction implements AsyncFunction<Object, Object> {
+        private final Instantiator instantiator;
+
+        public InstantiateFunction(Instantiator itor) {
+            instantiator = itor;
+        }
+
+        @Override
+        public ListenableFuture<Object> apply(@Nullable Object input) throws ConstructionException {
+            return Futures.immediateFuture(instantiator.instantiate());
+        }
+    }
+
+    /**
+     * Function to look up a desire in a set of dependency edges.  Lookups are remembered, so
+     * repeated instantiation does not re-scan the edges or go back through the container.
      */
     private class DepLookup implements Function<Desire,Instantiator> {
         private final Set<DAGEdge<Component, Dependency>> edges;
         private final SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges;
+        private final ConcurrentMap<Desire, Instantiator> resolved = new ConcurrentHashMap<Desire, Instantiator>();
 
         /**
          * Construct a depenency lookup funciton.
@@ -158,9 +417,18 @@ public class InjectionContainer {
         @Nullable
         @Override
         public Instantiator apply(@Nullable Desire input) {
+            if (input == null) {
+                return null;
+            }
+            Instantiator itor = resolved.get(input);
+            if (itor != null) {
+                return itor;
+            }
             for (DAGEdge<Component,Dependency> edge: edges) {
                 if (edge.getLabel().getInitialDesire().equals(input)) {
-                    return makeInstantiator(edge.getTail(), backEdges);
+                    itor = makeInstantiator(edge.getTail(), backEdges);
+                    resolved.putIfAbsent(input, itor);
+                    return itor;
                 }
             }
             return null;
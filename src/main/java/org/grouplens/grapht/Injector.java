@@ -19,8 +19,12 @@
  */
 package org.grouplens.grapht;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import org.grouplens.grapht.util.TypedProvider;
+
 import javax.inject.Qualifier;
 import java.lang.annotation.Annotation;
+import java.util.concurrent.Executor;
 
 /**
  * <p>
@@ -71,4 +75,65 @@ public interface Injector {
      * @throws ConstructionException if type cannot be instantiated
      */
     <T> T getInstance(Annotation qualifier, Class<T> type) throws InjectionException;
+
+    /**
+     * <p>
+     * Get a provider of T based on the bindings that this Injector was
+     * configured with.  The dependency is resolved once, when this method is
+     * called; each call to {@link TypedProvider#get()} then only instantiates
+     * the component (or returns the memoized instance, depending on its cache
+     * policy).
+     *
+     * @param <T> The object type being provided
+     * @param type The class type
+     * @return A provider of instances of type T
+     * @throws ResolutionException if type cannot be resolved
+     * @since 0.11
+     */
+    <T> TypedProvider<T> getProvider(Class<T> type) throws InjectionException;
+
+    /**
+     * <p>
+     * Get a provider of T with the given {@link Qualifier} annotation.
+     *
+     * @param <T> The object type being provided
+     * @param qualifier The qualifier on the provided instances
+     * @param type The class type
+     * @return A provider of instances of type T
+     * @throws ResolutionException if type cannot be resolved
+     * @see #getProvider(Class)
+     * @since 0.11
+     */
+    <T> TypedProvider<T> getProvider(Annotation qualifier, Class<T> type) throws InjectionException;
+
+    /**
+     * <p>
+     * Asynchronously get an instance of T.  The dependency is resolved on the calling thread;
+     * the components are then constructed on {@code executor}, with independent dependencies
+     * constructed concurrently.
+     *
+     * @param <T> The object type being created
+     * @param type The class type
+     * @param executor The executor on which to construct components
+     * @return A future of an instance of type T; it fails with a {@link ConstructionException}
+     *         if the instance cannot be constructed.
+     * @throws ResolutionException if type cannot be resolved
+     * @since 0.11
+     */
+    <T> ListenableFuture<T> getInstanceAsync(Class<T> type, Executor executor) throws InjectionException;
+
+    /**
+     * <p>
+     * Asynchronously get an instance of T with the given {@link Qualifier} annotation.
+     *
+     * @param <T> The object type being created
+     * @param qualifier The qualifier on of the returned instance
+     * @param type The class type
+     * @param executor The executor on which to construct components
+     * @return A future of an instance of type T
+     * @throws ResolutionException if type cannot be resolved
+     * @see #getInstanceAsync(Class, Executor)
+     * @since 0.11
+     */
+    <T> ListenableFuture<T> getInstanceAsync(Annotation qualifier, Class<T> type, Executor executor) throws InjectionException;
 }
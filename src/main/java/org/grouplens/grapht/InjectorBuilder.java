@@ -23,11 +23,14 @@ import org.grouplens.grapht.BindingFunctionBuilder.RuleSet;
 import org.grouplens.grapht.solver.BindingFunction;
 import org.grouplens.grapht.solver.DefaultDesireBindingFunction;
 import org.grouplens.grapht.solver.DefaultInjector;
+import org.grouplens.grapht.solver.DependencySolver;
 import org.grouplens.grapht.solver.ProviderBindingFunction;
+import org.grouplens.grapht.solver.SolutionCache;
 import org.grouplens.grapht.context.ContextPattern;
 import org.grouplens.grapht.util.ClassLoaders;
 import org.grouplens.grapht.util.Types;
 
+import java.io.File;
 import java.lang.annotation.Annotation;
 
 /**
@@ -48,6 +51,9 @@ public class InjectorBuilder extends AbstractContext {
     private final BindingFunctionBuilder builder;
     private CachePolicy cachePolicy;
     private boolean enableProviderInjection;
+    private DiagnosticLevel diagnosticLevel;
+    private File solutionCacheDirectory;
+    private InjectorGroup injectorGroup;
 
     /**
      * Create a new injector builder.
@@ -58,6 +64,7 @@ public class InjectorBuilder extends AbstractContext {
         builder = bld;
         cachePolicy = CachePolicy.MEMOIZE;
         enableProviderInjection = false;
+        diagnosticLevel = DiagnosticLevel.FULL;
     }
 
     /**
@@ -129,6 +136,55 @@ public class InjectorBuilder extends AbstractContext {
         return this;
     }
     
+    /**
+     * Set how much diagnostic information the built injectors record while resolving and
+     * instantiating components.  The default is {@link DiagnosticLevel#FULL}; use
+     * {@link DiagnosticLevel#OFF} to avoid all MDC and per-resolution logging overhead.
+     *
+     * @param level The diagnostic level
+     * @return This builder
+     * @since 0.11
+     */
+    public InjectorBuilder setDiagnosticLevel(DiagnosticLevel level) {
+        if (level == null) {
+            throw new NullPointerException("diagnostic level cannot be null");
+        }
+        diagnosticLevel = level;
+        return this;
+    }
+
+    /**
+     * Set a directory in which built injectors cache their solved dependency graphs.  Injectors
+     * built from the same configuration load the cached graph instead of solving it again; if
+     * the configuration or the classes in the graph have changed, they solve as usual.  See
+     * {@link SolutionCache} for what is checked.  An injector writes its solution when
+     * {@link org.grouplens.grapht.solver.DefaultInjector#saveSolution()} is called.  Caching is
+     * disabled by default.
+     *
+     * @param dir The cache directory, or {@code null} to disable solution caching.
+     * @return This builder
+     * @since 0.11
+     */
+    public InjectorBuilder setSolutionCacheDirectory(File dir) {
+        solutionCacheDirectory = dir;
+        return this;
+    }
+
+    /**
+     * Build injectors that share solved nodes and memoized instances with the other injectors of
+     * a group.  The group's default cache policy and diagnostic level are used to instantiate
+     * components, in place of this builder's.  Provider injection cannot be used with a group:
+     * its deferred nodes would be shared between variants whose back edges differ.
+     *
+     * @param group The injector group, or {@code null} to build standalone injectors.
+     * @return This builder
+     * @since 0.11
+     */
+    public InjectorBuilder setInjectorGroup(InjectorGroup group) {
+        injectorGroup = group;
+        return this;
+    }
+
     @Override
     public <T> Binding<T> bind(Class<T> type) {
         return builder.getRootContext().bind(type);
@@ -186,7 +242,16 @@ public class InjectorBuilder extends AbstractContext {
         return this;
     }
 
+    /**
+     * Build an injector.
+     *
+     * @return The new injector.
+     * @throws IllegalStateException if provider injection is enabled with an injector group.
+     */
     public Injector build() {
+        if (injectorGroup != null && enableProviderInjection) {
+            throw new IllegalStateException("provider injection is not supported in injector groups");
+        }
         BindingFunction[] functions;
         if (enableProviderInjection) {
             functions = new BindingFunction[] { 
@@ -205,6 +270,21 @@ public class InjectorBuilder extends AbstractContext {
             };
         }
         
-        return new DefaultInjector(cachePolicy, 100, functions);
+        CachePolicy policy = injectorGroup == null ? cachePolicy : injectorGroup.getDefaultCachePolicy();
+        SolutionCache cache = null;
+        if (solutionCacheDirectory != null) {
+            cache = SolutionCache.create(solutionCacheDirectory, policy, 100, functions);
+        }
+        if (injectorGroup == null) {
+            return new DefaultInjector(cachePolicy, 100, diagnosticLevel, cache, functions);
+        } else {
+            DependencySolver solver = DependencySolver.newBuilder()
+                                                      .addBindingFunctions(functions)
+                                                      .setMaxDepth(100)
+                                                      .setDiagnosticLevel(diagnosticLevel)
+                                                      .setMergePool(injectorGroup.getMergePool())
+                                                      .build();
+            return new DefaultInjector(solver, injectorGroup.getContainer(), diagnosticLevel, cache);
+        }
     }
 }
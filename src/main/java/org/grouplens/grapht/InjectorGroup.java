@@ -0,0 +1,113 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import org.grouplens.grapht.graph.MergePool;
+import org.grouplens.grapht.util.MemoizedValue;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A group of injectors for variants of a configuration, such as the points of a parameter sweep,
+ * that share solved nodes and memoized instances.  All injectors built with the group (see
+ * {@link InjectorBuilder#setInjectorGroup(InjectorGroup)}) merge their dependency graphs into one
+ * {@link MergePool}, so a component whose subgraph is the same in several variants is the same
+ * node in each of their graphs.  They also instantiate components in one
+ * {@link InjectionContainer}, so a {@link CachePolicy#MEMOIZE} component of such a node, like a
+ * common data index or model, is built once for the whole group.
+ * <p>
+ * Since the container is shared, its default cache policy and diagnostic level apply to every
+ * injector in the group.  The group holds on to every node it has seen, so it should be
+ * discarded with the injectors that use it.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class InjectorGroup {
+    private final CachePolicy defaultCachePolicy;
+    private final DiagnosticLevel diagnosticLevel;
+    private final MergePool<Component,Dependency> mergePool;
+    private final InjectionContainer container;
+
+    private InjectorGroup(CachePolicy policy, DiagnosticLevel diagnostics) {
+        defaultCachePolicy = policy;
+        diagnosticLevel = diagnostics;
+        mergePool = MergePool.create(Dependency.extractInitialDesire());
+        container = InjectionContainer.create(policy, MemoizedValue.WaitPolicy.BLOCK, diagnostics);
+    }
+
+    /**
+     * Create an injector group that memoizes components by default.
+     * @return The injector group.
+     */
+    public static InjectorGroup create() {
+        return create(CachePolicy.MEMOIZE, DiagnosticLevel.FULL);
+    }
+
+    /**
+     * Create an injector group.
+     * @param policy The default cache policy of the group's container.
+     * @param diagnostics The diagnostic level at which the group's container instantiates components.
+     * @return The injector group.
+     * @throws IllegalArgumentException if policy is NO_PREFERENCE
+     */
+    public static InjectorGroup create(CachePolicy policy, DiagnosticLevel diagnostics) {
+        if (policy.equals(CachePolicy.NO_PREFERENCE)) {
+            throw new IllegalArgumentException("Cannot be NO_PREFERENCE");
+        }
+        if (diagnostics == null) {
+            throw new NullPointerException("diagnostic level cannot be null");
+        }
+        return new InjectorGroup(policy, diagnostics);
+    }
+
+    /**
+     * Get the default cache policy of the group's container.
+     * @return The default cache policy.
+     */
+    public CachePolicy getDefaultCachePolicy() {
+        return defaultCachePolicy;
+    }
+
+    /**
+     * Get the diagnostic level of the group's container.
+     * @return The diagnostic level.
+     */
+    public DiagnosticLevel getDiagnosticLevel() {
+        return diagnosticLevel;
+    }
+
+    /**
+     * Get the merge pool shared by the group's solvers.
+     * @return The merge pool.
+     */
+    public MergePool<Component,Dependency> getMergePool() {
+        return mergePool;
+    }
+
+    /**
+     * Get the container shared by the group's injectors.
+     * @return The injection container.
+     */
+    public InjectionContainer getContainer() {
+        return container;
+    }
+}
@@ -22,12 +22,16 @@ package org.grouplens.grapht;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import org.grouplens.grapht.util.LogContext;
+import org.grouplens.grapht.util.MemoizedValue;
 import org.grouplens.grapht.util.TypedProvider;
 import org.grouplens.grapht.util.Types;
 import javax.inject.Provider;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
-import org.grouplens.grapht.util.LogContext;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Utilities and methods for building and working with {@link org.grouplens.grapht.Instantiator}s.
@@ -96,23 +100,81 @@ public final class Instantiators {
         if (instantiator instanceof ProviderInstantiator) {
             Instantiator itor = ((ProviderInstantiator) instantiator).providerInstantiator;
             if (itor instanceof InstanceInstantiator) {
-                return (Provider) ((InstanceInstantiator) itor).instance;
+                return (Provider<?>) ((InstanceInstantiator) itor).instance;
             }
         }
         // Otherwise, wrap it.
+        return toProvider(instantiator, typeOf(instantiator));
+    }
+
+    /**
+     * Get an instantiator's type as a wildcard type, so it can be captured without unchecked
+     * conversions.
+     */
+    private static Class<?> typeOf(Instantiator instantiator) {
+        return instantiator.getType();
+    }
 
-        return new InstantiatorProvider(instantiator);
+    /**
+     * Convert an instantiator to a typed provider.  The provider does no lookup of its own; each
+     * call to {@link javax.inject.Provider#get()} invokes the instantiator and casts the result.
+     *
+     * @param instantiator The instantiator to convert.
+     * @param type The type of object provided.
+     * @param <T> The type of object provided.
+     * @return A provider whose {@link javax.inject.Provider#get()} method invokes the instantiator.
+     * @since 0.11
+     */
+    public static <T> TypedProvider<T> toProvider(Instantiator instantiator, Class<T> type) {
+        Preconditions.checkNotNull(instantiator, "instantiator");
+        Preconditions.checkNotNull(type, "type");
+        return new InstantiatorProvider<T>(instantiator, type);
     }
 
     /**
-     * Memoize an instantiator.
+     * Memoize an instantiator.  Failures are not memoized: if the instantiator fails, the next
+     * call invokes it again.
      * @param instantiator The instantiator to memoize.
      * @return An instantiator that memoizes {@code instantiator}.
      */
     public static Instantiator memoize(Instantiator instantiator) {
+        return memoize(instantiator, MemoizedValue.WaitPolicy.BLOCK);
+    }
+
+    /**
+     * Memoize an instantiator, controlling how concurrent callers wait for the first
+     * instantiation.  The memoized instantiator takes no lock once its instance is available.
+     * Failures are not memoized.
+     *
+     * @param instantiator The instantiator to memoize.
+     * @param policy What to do when the instance is requested while another thread is
+     *               instantiating it.  Callers that give up waiting get a {@link ConstructionException}.
+     * @return An instantiator that memoizes {@code instantiator}.
+     * @since 0.11
+     */
+    public static Instantiator memoize(Instantiator instantiator, MemoizedValue.WaitPolicy policy) {
         Preconditions.checkNotNull(instantiator, "instantiator");
-        return new MemoizingInstantiator(instantiator);
+        Preconditions.checkNotNull(policy, "wait policy");
+        return new MemoizingInstantiator(instantiator, policy);
     }
+
+    /**
+     * Run an instantiator at a particular diagnostic level.  While the instantiator (and any
+     * dependency instantiators it invokes) runs, the current thread's diagnostic level is
+     * {@code level}.
+     *
+     * @param instantiator The instantiator.
+     * @param level The diagnostic level.
+     * @return An instantiator that runs {@code instantiator} at {@code level}.
+     * @see LogContext#setLevel(DiagnosticLevel)
+     * @since 0.11
+     */
+    public static Instantiator withDiagnostics(Instantiator instantiator, DiagnosticLevel level) {
+        Preconditions.checkNotNull(instantiator, "instantiator");
+        Preconditions.checkNotNull(level, "diagnostic level");
+        return new DiagnosticInstantiator(instantiator, level);
+    }
+
     private static final class InstanceInstantiator implements Instantiator {
         private final Object instance;
         private final Class<?> type;
@@ -149,7 +211,9 @@ public final class Instantiators {
             LogContext mdcContextProvider = LogContext.create();
             logger.trace("invoking provider {}",provider);
             try {
-                mdcContextProvider.put("org.grouplens.grapht.currentProvider", provider.toString());
+                if (mdcContextProvider.isActive()) {
+                    mdcContextProvider.put("org.grouplens.grapht.currentProvider", provider.toString());
+                }
                 return provider.get();
             } catch (Throwable th) {
                 throw new ConstructionException(getType(), "Error invoking provider " + providerInstantiator, th);
@@ -165,37 +229,55 @@ public final class Instantiators {
     }
 
 
-    private static class MemoizingInstantiator implements Instantiator {
+    private static class DiagnosticInstantiator implements Instantiator {
         private final Instantiator delegate;
-        private volatile boolean instantiated = false;
-        private Object instance = null;
-        private Throwable error = null;
+        private final DiagnosticLevel level;
 
-        public MemoizingInstantiator(Instantiator inst) {
+        public DiagnosticInstantiator(Instantiator inst, DiagnosticLevel lvl) {
             delegate = inst;
+            level = lvl;
         }
 
         @Override
         public Object instantiate() throws ConstructionException {
-            if (!instantiated) {
-                synchronized (this) {
-                    if (!instantiated) {
-                        try {
-                            instance = delegate.instantiate();
-                        } catch (Throwable th) {
-                            error = th;
-                        }
-                        instantiated = true;
-                    }
-                }
+            DiagnosticLevel prev = LogContext.setLevel(level);
+            try {
+                return delegate.instantiate();
+            } finally {
+                LogContext.setLevel(prev);
             }
+        }
+
+        @Override
+        public Class getType() {
+            return delegate.getType();
+        }
+    }
 
-            if (error != null) {
-                Throwables.propagateIfPossible(error, ConstructionException.class);
+    private static class MemoizingInstantiator implements Instantiator {
+        private final Instantiator delegate;
+        private final MemoizedValue<Object> value;
+
+        public MemoizingInstantiator(final Instantiator inst, MemoizedValue.WaitPolicy policy) {
+            delegate = inst;
+            value = MemoizedValue.create(new Callable<Object>() {
+                @Override
+                public Object call() throws ConstructionException {
+                    return inst.instantiate();
+                }
+            }, policy, true);
+        }
+
+        @Override
+        public Object instantiate() throws ConstructionException {
+            try {
+                return value.get();
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), ConstructionException.class);
                 // shouldn't happen, but hey.
-                throw new RuntimeException("Unexpected instantiation exception", error);
-            } else {
-                return instance;
+                throw new RuntimeException("Unexpected instantiation exception", e.getCause());
+            } catch (TimeoutException e) {
+                throw new ConstructionException(getType(), "Timed out waiting for concurrent instantiation", e);
             }
         }
 
@@ -205,11 +287,13 @@ public final class Instantiators {
         }
     }
 
-    private static class InstantiatorProvider implements TypedProvider {
+    private static class InstantiatorProvider<T> implements TypedProvider<T> {
         private final Instantiator instantiator;
+        private final Class<T> type;
 
-        public InstantiatorProvider(Instantiator itor) {
+        public InstantiatorProvider(Instantiator itor, Class<T> typ) {
             instantiator = itor;
+            type = typ;
         }
 
         @Override
@@ -218,10 +302,10 @@ public final class Instantiators {
         }
 
         @Override
-        public Object get() {
+        public T get() {
             try {
                 logger.trace("invoking instantiator {}", instantiator);
-                return getProvidedType().cast(instantiator.instantiate());
+                return type.cast(instantiator.instantiate());
             } catch (ConstructionException ex) {
                 throw new RuntimeException(ex);
             }
@@ -36,6 +36,8 @@ public class Names {
      * Get a Named annotation instance whose value equals the provided String.
      * The returned annotation is equal to annotations created by a declaration
      * matching: <code>@Named(name)</code>, where name is the input String.
+     * Like all annotations built by {@link AnnotationBuilder}, it is interned,
+     * so repeated calls with the same name return the same instance.
      * 
      * @param name The name value for the returned annotation
      * @return A Named instance wrapping the given name
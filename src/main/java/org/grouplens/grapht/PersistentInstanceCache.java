@@ -0,0 +1,398 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.util.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.util.*;
+
+/**
+ * An on-disk cache of expensive memoized components, shared across processes and injector
+ * configurations.  A component is keyed by a structural hash of the subgraph it heads: the
+ * labels of its node and all nodes it depends on (whose classes serialize with their
+ * {@linkplain org.grouplens.grapht.util.ClassProxy fingerprints}), and the desires connecting
+ * them.  Any configuration that resolves a cacheable component to the same subgraph therefore
+ * reuses the stored instance instead of building it.
+ * <p>
+ * Only components accepted by the cacheability predicate are cached, and only when they are
+ * memoized, their subgraph has no back edges, and every label in the subgraph is serializable.
+ * Instances that are not {@link Serializable} are built as usual but not stored.  A component
+ * loaded from the cache does not share its dependencies with other components in its container,
+ * so this is meant for self-contained results such as trained models.
+ * <p>
+ * The cache keeps the total size of its files within a bound, evicting the least recently used
+ * instances first.  Instances are written to uniquely-named temporary files and then renamed into
+ * place, so several threads, caches, or processes may share a directory; within a cache, file
+ * replacement, deletion, and eviction are serialized so that eviction never races a store.  Reading
+ * and writing instances is not serialized, so large instances do not block each other.
+ *
+ * @see InjectionContainer#create(CachePolicy, org.grouplens.grapht.util.MemoizedValue.WaitPolicy, DiagnosticLevel, PersistentInstanceCache)
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class PersistentInstanceCache {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentInstanceCache.class);
+    /**
+     * The version of the key computation; change it when the key contents change.
+     */
+    private static final int KEY_VERSION = 1;
+    private static final String SUFFIX = ".instance";
+    private static final HashFunction HASH = Hashing.sha1();
+    /**
+     * Memoized key for nodes that cannot be cached.
+     */
+    private static final String UNCACHEABLE = "";
+
+    private final File directory;
+    private final long maxSize;
+    private final Predicate<? super Component> cacheable;
+    private final Map<DAGNode<Component, Dependency>, String> keys =
+            new WeakHashMap<DAGNode<Component, Dependency>, String>();
+
+    private PersistentInstanceCache(File dir, long max, Predicate<? super Component> pred) {
+        directory = dir;
+        maxSize = max;
+        cacheable = pred;
+    }
+
+    /**
+     * Create a persistent instance cache.
+     *
+     * @param directory The cache directory.  It is created when an instance is first stored.
+     * @param maxSize   The maximum total size, in bytes, of the cached instances.
+     * @param cacheable A predicate selecting the components to cache.
+     * @return The instance cache.
+     */
+    public static PersistentInstanceCache create(File directory, long maxSize,
+                                                 Predicate<? super Component> cacheable) {
+        if (directory == null) {
+            throw new NullPointerException("cache directory cannot be null");
+        }
+        if (cacheable == null) {
+            throw new NullPointerException("cacheability predicate cannot be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+        return new PersistentInstanceCache(directory, maxSize, cacheable);
+    }
+
+    /**
+     * Get the cache directory.
+     * @return The directory holding cached instances.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the maximum size of the cache.
+     * @return The maximum total size of cached instances, in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the structural key of a node's subgraph.
+     *
+     * @param node      The node.
+     * @param backEdges The back edges of the graph containing the node.
+     * @return The node's key, or {@code null} if the node cannot be cached.
+     */
+    @Nullable
+    public synchronized String getKey(DAGNode<Component, Dependency> node,
+                                      SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) {
+        String key = computeKey(node, backEdges);
+        return key == UNCACHEABLE ? null : key;
+    }
+
+    /**
+     * Wrap a memoized node's instantiator so that it uses this cache.  Must be called only
+     * for nodes whose instances are memoized.
+     *
+     * @param node      The node.
+     * @param backEdges The back edges of the graph containing the node.
+     * @param raw       The instantiator that builds the node's component.
+     * @return An instantiator that loads the component from the cache if possible, and otherwise
+     *         builds it with {@code raw} and stores it.  If the node is not cacheable, {@code raw}
+     *         itself is returned.
+     */
+    Instantiator wrap(DAGNode<Component, Dependency> node,
+                      SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                      Instantiator raw) {
+        if (!cacheable.apply(node.getLabel())) {
+            return raw;
+        }
+        String key = getKey(node, backEdges);
+        if (key == null) {
+            logger.debug("cannot cache instances of {}", node.getLabel());
+            return raw;
+        }
+        return new CachingInstantiator(new File(directory, key + SUFFIX), raw);
+    }
+
+    /**
+     * Compute a node's key, memoizing the keys of it and its dependencies.  Must be called
+     * while holding the lock on this cache.
+     */
+    private String computeKey(DAGNode<Component, Dependency> node,
+                              SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) {
+        String key = keys.get(node);
+        if (key != null) {
+            return key;
+        }
+
+        key = UNCACHEABLE;
+        byte[] label = serialize(node.getLabel());
+        if (label != null && !backEdges.containsKey(node)) {
+            // sort dependencies by desire and key so the hash does not depend on edge order
+            List<String> deps = Lists.newArrayListWithCapacity(node.getOutgoingEdges().size());
+            for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                byte[] desire = serialize(edge.getLabel().getInitialDesire());
+                String tail = computeKey(edge.getTail(), backEdges);
+                if (desire == null || tail == UNCACHEABLE) {
+                    deps = null;
+                    break;
+                }
+                deps.add(HASH.hashBytes(desire) + ":" + tail);
+            }
+            if (deps != null) {
+                Collections.sort(deps);
+                Hasher hasher = HASH.newHasher()
+                                    .putInt(KEY_VERSION)
+                                    .putInt(label.length)
+                                    .putBytes(label);
+                for (String dep: deps) {
+                    hasher.putUnencodedChars(dep).putChar('\n');
+                }
+                key = hasher.hash().toString();
+            }
+        }
+        keys.put(node, key);
+        return key;
+    }
+
+    /**
+     * Serialize an object for hashing.
+     * @return The serialized bytes, or {@code null} if the object is not serializable.
+     */
+    @Nullable
+    private static byte[] serialize(Object obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(obj);
+            out.close();
+        } catch (NotSerializableException e) {
+            logger.debug("cannot serialize {}: {}", obj, e.getMessage());
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("error serializing in memory", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    private Object load(File file, Class<?> type) {
+        type = Types.box(type);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                Object obj = new LoaderObjectInputStream(in, type.getClassLoader()).readObject();
+                if (!type.isInstance(obj)) {
+                    throw new InvalidObjectException(obj.getClass() + " is not a " + type);
+                }
+                // mark the file as recently used for eviction
+                file.setLastModified(System.currentTimeMillis());
+                logger.info("loaded cached instance of {} from {}", type, file);
+                return obj;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // evicted by another process
+            return null;
+        } catch (IOException e) {
+            logger.warn("cannot read cached instance {}: {}", file, e.toString());
+        } catch (ClassNotFoundException e) {
+            logger.info("cached instance {} is stale: {}", file, e.getMessage());
+        }
+        synchronized (this) {
+            file.delete();
+        }
+        return null;
+    }
+
+    private void store(File file, Object obj) {
+        if (!(obj instanceof Serializable)) {
+            logger.debug("{} is not serializable, not caching", obj);
+            return;
+        }
+        File tmp = null;
+        try {
+            if (!directory.exists() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("cannot create directory " + directory);
+            }
+            // a unique temporary file, so concurrent stores of the same key do not collide
+            String name = file.getName();
+            tmp = File.createTempFile(name.substring(0, name.length() - SUFFIX.length()), ".tmp", directory);
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeObject(obj);
+            } finally {
+                out.close();
+            }
+            if (tmp.length() > maxSize) {
+                logger.debug("instance {} is larger than the cache, not caching", obj);
+                tmp.delete();
+                return;
+            }
+            synchronized (this) {
+                if (!tmp.renameTo(file)) {
+                    // rename-over fails on some platforms
+                    if (!file.delete() || !tmp.renameTo(file)) {
+                        throw new IOException("cannot replace " + file);
+                    }
+                }
+                logger.debug("cached instance {} in {}", obj, file);
+                evict(file);
+            }
+        } catch (IOException e) {
+            logger.warn("cannot write cached instance {}: {}", file, e.toString());
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Evict least recently used instances until the cache fits within its size bound.  Must be
+     * called while holding the lock on this cache.
+     * @param keep A file not to evict.
+     */
+    private void evict(File keep) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File f: files) {
+            size += f.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 > m2 ? 1 : 0);
+            }
+        });
+        for (File f: files) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (!f.equals(keep)) {
+                long len = f.length();
+                if (f.delete()) {
+                    logger.debug("evicted cached instance {}", f);
+                    size -= len;
+                }
+            }
+        }
+    }
+
+    /**
+     * Instantiator that goes through the cache.
+     */
+    private class CachingInstantiator implements Instantiator {
+        private final File file;
+        private final Instantiator delegate;
+
+        public CachingInstantiator(File f, Instantiator raw) {
+            file = f;
+            delegate = raw;
+        }
+
+        @Override
+        public Object instantiate() throws ConstructionException {
+            Object obj = load(file, delegate.getType());
+            if (obj == null) {
+                obj = delegate.instantiate();
+                store(file, obj);
+            }
+            return obj;
+        }
+
+        @Override
+        public Class getType() {
+            return delegate.getType();
+        }
+    }
+
+    /**
+     * Object input stream that resolves classes with a specific class loader.
+     */
+    private static class LoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader loader;
+
+        LoaderObjectInputStream(InputStream in, ClassLoader cl) throws IOException {
+            super(in);
+            loader = cl;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (loader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                } catch (ClassNotFoundException e) {
+                    /* fall back to the default resolution */
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
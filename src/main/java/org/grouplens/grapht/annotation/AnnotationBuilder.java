@@ -19,6 +19,9 @@
  */
 package org.grouplens.grapht.annotation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import javax.inject.Named;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
@@ -49,12 +52,19 @@ import java.util.Map;
  * forced to provide an actual annotation implementation that can be used to
  * create instances.
  * <p>The proxies returned by this builder are immutable and serializable, like
- * those returned by {@link java.lang.reflect.AnnotatedElement}.
+ * those returned by {@link java.lang.reflect.AnnotatedElement}.  They are also interned: as long
+ * as a built annotation is in use, building an equal annotation returns the same instance.
  * 
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  * @param <T> The annotation type created
  */
 public final class AnnotationBuilder<T extends Annotation> {
+    /**
+     * Weak canonicalization table of built annotations.  Proxies are equal when they have the same
+     * type and attribute values, so this is effectively keyed by type and attribute map.
+     */
+    private static final Interner<Annotation> builtAnnotations = Interners.newWeakInterner();
+
     private final Map<String, Object> attributes;
     private final Class<T> type;
     
@@ -593,6 +603,10 @@ public final class AnnotationBuilder<T extends Annotation> {
      * the builder's configuration, then the default will be returned by the
      * annotation instance.
      * 
+     * <p>
+     * The returned instance is interned, so equal annotations built while it
+     * is still reachable are the same object.
+     * 
      * @return An instance of T with the attribute values specified on this
      *         builder
      * @throws IllegalStateException if there are attributes with no default
@@ -608,7 +622,8 @@ public final class AnnotationBuilder<T extends Annotation> {
                 }
             }
         }
-        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, 
-                                                new AnnotationProxy<T>(type, attributes)));
+        T annot = type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type },
+                                                   new AnnotationProxy<T>(type, attributes)));
+        return type.cast(builtAnnotations.intern(annot));
     }
 }
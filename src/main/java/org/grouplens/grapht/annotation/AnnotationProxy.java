@@ -19,16 +19,20 @@
  */
 package org.grouplens.grapht.annotation;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.AnnotationUtils;
 import org.apache.commons.lang3.ClassUtils;
+import org.grouplens.grapht.util.ClassCache;
 import org.grouplens.grapht.util.ClassProxy;
 
 import java.io.*;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -36,18 +40,52 @@ import java.util.Map;
  * contract by delegating to a map of named attribute values.  A new AnnotationProxy instance
  * should be created for each proxy annotation.
  *
+ * <p>Methods are dispatched through a table of handlers computed once per annotation type.  The
+ * hash code and string form are computed once per proxy, and equality with another proxy
+ * annotation compares attribute values directly.
+ *
  * @see AnnotationBuilder
  */
 class AnnotationProxy<T extends Annotation> implements InvocationHandler, Serializable {
     private static final long serialVersionUID = 1L;
+    private static final ClassCache<Map<Method, MethodHandler>> handlerTables =
+            ClassCache.create(new Function<Class<?>, Map<Method, MethodHandler>>() {
+                @Override
+                public Map<Method, MethodHandler> apply(Class<?> type) {
+                    return makeHandlerTable(type);
+                }
+            });
+
     private final ClassProxy annotationType;
     private final Map<String, Object> attributes;
     private transient Class<T> cachedType;
+    private transient Map<Method, MethodHandler> handlers;
+    // attribute values, including defaults
+    private transient Map<String, Object> values;
+    // racy single-check caches; 0 and null mean not yet computed
+    private transient int cachedHashCode;
+    private transient String cachedString;
 
     public AnnotationProxy(Class<T> type, Map<String, Object> attrs) {
         annotationType = ClassProxy.of(type);
         cachedType = type;
         attributes = ImmutableMap.copyOf(attrs);
+        initialize();
+    }
+
+    private void initialize() {
+        handlers = handlerTables.get(cachedType);
+        ImmutableMap.Builder<String, Object> bld = ImmutableMap.builder();
+        for (Method m: cachedType.getDeclaredMethods()) {
+            Object value = attributes.get(m.getName());
+            if (value == null) {
+                value = m.getDefaultValue();
+            }
+            if (value != null) {
+                bld.put(m.getName(), value);
+            }
+        }
+        values = bld.build();
     }
 
     /**
@@ -61,6 +99,7 @@ class AnnotationProxy<T extends Annotation> implements InvocationHandler, Serial
         try {
             in.defaultReadObject();
             cachedType = (Class<T>) annotationType.resolve();
+            initialize();
         } catch (IOException e) {
             ObjectStreamException ex = new StreamCorruptedException("IO exception");
             ex.initCause(e);
@@ -74,16 +113,9 @@ class AnnotationProxy<T extends Annotation> implements InvocationHandler, Serial
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        if (isHashCode(method)) {
-            return proxyHashCode(proxy);
-        } else if (isEquals(method)) {
-            return proxyEquals(proxy, args[0]);
-        } else if (isAnnotationType(method)) {
-            return proxyAnnotationType();
-        } else if (isToString(method)) {
-            return proxyToString(proxy);
-        } else if (attributes.containsKey(method.getName()) && method.getParameterTypes().length == 0) {
-            return copyAnnotationValue(attributes.get(method.getName()));
+        MethodHandler handler = handlers.get(method);
+        if (handler != null) {
+            return handler.invoke(this, proxy, args);
         } else {
             // fall back to the default
             return copyAnnotationValue(method.getDefaultValue());
@@ -92,24 +124,30 @@ class AnnotationProxy<T extends Annotation> implements InvocationHandler, Serial
         // so we don't have any other cases
     }
 
-    private boolean isEquals(Method m) {
-        return m.getName().equals("equals") && m.getReturnType().equals(boolean.class)
-            && m.getParameterTypes().length == 1 && m.getParameterTypes()[0].equals(Object.class);
-    }
-
-    private boolean isHashCode(Method m) {
-        return m.getName().equals("hashCode") && m.getReturnType().equals(int.class)
-            && m.getParameterTypes().length == 0;
-    }
-
-    private boolean isAnnotationType(Method m) {
-        return m.getName().equals("annotationType") && m.getReturnType().equals(Class.class)
-            && m.getParameterTypes().length == 0;
-    }
-
-    private boolean isToString(Method m) {
-        return m.getName().equals("toString") && m.getReturnType().equals(String.class)
-            && m.getParameterTypes().length == 0;
+    /**
+     * Build the handler table for an annotation type.
+     * @param type The annotation type.
+     * @return A map from each method a proxy of {@code type} can receive to its handler.
+     */
+    private static Map<Method, MethodHandler> makeHandlerTable(Class<?> type) {
+        Map<Method, MethodHandler> table = new HashMap<Method, MethodHandler>();
+        try {
+            // proxies report these as methods of Object, but be safe about Annotation's versions
+            for (Class<?> decl: new Class<?>[]{Object.class, Annotation.class}) {
+                table.put(decl.getMethod("equals", Object.class), EQUALS);
+                table.put(decl.getMethod("hashCode"), HASH_CODE);
+                table.put(decl.getMethod("toString"), TO_STRING);
+            }
+            table.put(Annotation.class.getMethod("annotationType"), ANNOTATION_TYPE);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("missing annotation method", e);
+        }
+        for (Method m: type.getDeclaredMethods()) {
+            if (m.getParameterTypes().length == 0) {
+                table.put(m, new AttributeHandler(m.getName()));
+            }
+        }
+        return table;
     }
 
     private Class<? extends Annotation> proxyAnnotationType() {
@@ -117,17 +155,112 @@ class AnnotationProxy<T extends Annotation> implements InvocationHandler, Serial
     }
 
     private String proxyToString(Object o) {
-        return AnnotationUtils.toString((Annotation) o);
+        String str = cachedString;
+        if (str == null) {
+            str = AnnotationUtils.toString((Annotation) o);
+            cachedString = str;
+        }
+        return str;
     }
 
     private int proxyHashCode(Object proxy) {
-        return AnnotationUtils.hashCode((Annotation) proxy);
+        int hash = cachedHashCode;
+        if (hash == 0) {
+            hash = AnnotationUtils.hashCode((Annotation) proxy);
+            cachedHashCode = hash;
+        }
+        return hash;
     }
 
     private boolean proxyEquals(Object o1, Object o2) {
+        if (o1 == o2) {
+            return true;
+        } else if (o2 == null) {
+            return false;
+        }
+        if (Proxy.isProxyClass(o2.getClass())) {
+            InvocationHandler h = Proxy.getInvocationHandler(o2);
+            if (h instanceof AnnotationProxy) {
+                return attributesEqual((AnnotationProxy<?>) h);
+            }
+        }
         return AnnotationUtils.equals((Annotation) o1, (Annotation) o2);
     }
 
+    /**
+     * Compare this proxy's attribute values with those of another proxy.
+     * @param other The other proxy.
+     * @return {@code true} if the two proxies implement equal annotations.
+     */
+    private boolean attributesEqual(AnnotationProxy<?> other) {
+        if (other == this) {
+            return true;
+        } else if (!cachedType.equals(other.cachedType)) {
+            return false;
+        } else if (cachedHashCode != 0 && other.cachedHashCode != 0
+                   && cachedHashCode != other.cachedHashCode) {
+            return false;
+        }
+        for (Map.Entry<String, Object> e: values.entrySet()) {
+            Object ov = other.values.get(e.getKey());
+            // wrap the values so deepEquals handles arrays of primitives
+            if (ov == null || !Arrays.deepEquals(new Object[]{e.getValue()}, new Object[]{ov})) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Handler for a method invoked on a proxy annotation.
+     */
+    private abstract static class MethodHandler {
+        abstract Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args);
+    }
+
+    private static final MethodHandler EQUALS = new MethodHandler() {
+        @Override
+        Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args) {
+            return self.proxyEquals(proxy, args[0]);
+        }
+    };
+
+    private static final MethodHandler HASH_CODE = new MethodHandler() {
+        @Override
+        Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args) {
+            return self.proxyHashCode(proxy);
+        }
+    };
+
+    private static final MethodHandler TO_STRING = new MethodHandler() {
+        @Override
+        Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args) {
+            return self.proxyToString(proxy);
+        }
+    };
+
+    private static final MethodHandler ANNOTATION_TYPE = new MethodHandler() {
+        @Override
+        Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args) {
+            return self.proxyAnnotationType();
+        }
+    };
+
+    private static class AttributeHandler extends MethodHandler {
+        private final String name;
+
+        AttributeHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object invoke(AnnotationProxy<?> self, Object proxy, Object[] args) {
+            Object value = self.values.get(name);
+            // only arrays are mutable, so only they need copying
+            return value.getClass().isArray() ? copyAnnotationValue(value) : value;
+        }
+    }
+
     /**
      * Safe clone of an object.  If the object is an array, it is copied; otherwise, it is
      * returned as-is.  This object is only applicable to valid annotation value types, which
@@ -0,0 +1,253 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.annotation;
+
+import org.grouplens.grapht.util.InjectionIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.inject.Inject;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Annotation processor that writes an {@linkplain InjectionIndex injection index} for the classes
+ * being compiled, so Grapht can avoid scanning them by reflection at runtime.
+ * <p>
+ * The indexer is registered as a service, so it is discovered by every compilation with Grapht
+ * on the processor path, but it only indexes classes when enabled with the
+ * {@value #ENABLE_OPTION} option ({@code -Agrapht.index=true}).  A module should only enable it
+ * when the index is rebuilt with every compile of the module; Grapht checks index entries
+ * against the classes it loads, but cannot detect every kind of staleness cheaply.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class InjectionIndexer extends AbstractProcessor {
+    /**
+     * The processor option that enables indexing.
+     */
+    public static final String ENABLE_OPTION = "grapht.index";
+    private static final String DEFAULT_ANNOT_PREFIX = "org.grouplens.grapht.annotation.Default";
+
+    private final Map<String, InjectionIndex.Entry> entries = new TreeMap<String, InjectionIndex.Entry>();
+    private boolean enabled;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment env) {
+        super.init(env);
+        enabled = Boolean.parseBoolean(env.getOptions().get(ENABLE_OPTION));
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(ENABLE_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        // see AnnotationValidator: we support up through Java 8
+        SourceVersion[] versions = SourceVersion.values();
+        SourceVersion v6 = SourceVersion.RELEASE_6;
+        return versions[Math.min(v6.ordinal() + 2, versions.length - 1)];
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        if (!enabled) {
+            return Collections.emptySet();
+        }
+        // we index every class, annotated or not
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!enabled) {
+            return false;
+        } else if (roundEnv.processingOver()) {
+            writeIndex();
+        } else {
+            for (TypeElement type: ElementFilter.typesIn(roundEnv.getRootElements())) {
+                indexType(type);
+            }
+        }
+        return false; // let other processors work too
+    }
+
+    private void indexType(TypeElement type) {
+        String name = processingEnv.getElementUtils().getBinaryName(type).toString();
+        StringBuilder flags = new StringBuilder();
+        List<String> ctorParams = new ArrayList<String>();
+        List<String> fields = new ArrayList<String>();
+
+        boolean complete = type.getKind() == ElementKind.CLASS
+                           && (type.getNestingKind() == NestingKind.TOP_LEVEL
+                               || type.getModifiers().contains(Modifier.STATIC));
+
+        int injectCtors = 0;
+        int publicCtors = 0;
+        boolean publicNoArgCtor = false;
+        for (ExecutableElement ctor: ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (ctor.getAnnotation(Inject.class) != null) {
+                injectCtors += 1;
+                for (VariableElement param: ctor.getParameters()) {
+                    ctorParams.add(binaryName(param.asType()));
+                }
+            }
+            if (ctor.getModifiers().contains(Modifier.PUBLIC)) {
+                publicCtors += 1;
+                publicNoArgCtor = ctor.getParameters().isEmpty();
+            }
+        }
+        if (injectCtors > 1) {
+            // let runtime reflection report the error
+            complete = false;
+            ctorParams.clear();
+        }
+
+        boolean injectMethods = false;
+        for (ExecutableElement method: ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getAnnotation(Inject.class) != null
+                && !method.getModifiers().contains(Modifier.STATIC)) {
+                injectMethods = true;
+            }
+        }
+        for (VariableElement field: ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getAnnotation(Inject.class) != null
+                && !field.getModifiers().contains(Modifier.STATIC)) {
+                fields.add(field.getSimpleName().toString());
+            }
+        }
+
+        boolean instantiable = !type.getModifiers().contains(Modifier.ABSTRACT)
+                               && (injectCtors > 0 || (publicCtors == 1 && publicNoArgCtor));
+
+        if (complete) {
+            flags.append('c');
+        }
+        if (complete && instantiable) {
+            flags.append('i');
+        }
+        if (injectCtors > 0) {
+            flags.append('k');
+        }
+        if (injectMethods) {
+            flags.append('m');
+        }
+        if (hasDefaults(type)) {
+            flags.append('d');
+        }
+        entries.put(name, new InjectionIndex.Entry(name, flags.toString(), ctorParams, fields));
+
+        for (TypeElement nested: ElementFilter.typesIn(type.getEnclosedElements())) {
+            indexType(nested);
+        }
+    }
+
+    private boolean hasDefaults(TypeElement type) {
+        for (AnnotationMirror mirror: type.getAnnotationMirrors()) {
+            Element elt = mirror.getAnnotationType().asElement();
+            if (elt instanceof TypeElement
+                && ((TypeElement) elt).getQualifiedName().toString().startsWith(DEFAULT_ANNOT_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute the name {@link Class#getName()} would return for the erasure of a type.
+     */
+    private String binaryName(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind().isPrimitive()) {
+            return erased.getKind().name().toLowerCase(Locale.ROOT);
+        } else if (erased.getKind() == TypeKind.ARRAY) {
+            return "[" + descriptor(((ArrayType) erased).getComponentType());
+        } else {
+            return declaredName(erased);
+        }
+    }
+
+    private String descriptor(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        switch (erased.getKind()) {
+        case BOOLEAN: return "Z";
+        case BYTE: return "B";
+        case SHORT: return "S";
+        case CHAR: return "C";
+        case INT: return "I";
+        case LONG: return "J";
+        case FLOAT: return "F";
+        case DOUBLE: return "D";
+        case ARRAY: return "[" + descriptor(((ArrayType) erased).getComponentType());
+        default: return "L" + declaredName(erased) + ";";
+        }
+    }
+
+    private String declaredName(TypeMirror type) {
+        if (type instanceof DeclaredType) {
+            TypeElement elt = (TypeElement) ((DeclaredType) type).asElement();
+            return processingEnv.getElementUtils().getBinaryName(elt).toString();
+        } else {
+            return type.toString();
+        }
+    }
+
+    private void writeIndex() {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Filer filer = processingEnv.getFiler();
+        try {
+            FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                                                   InjectionIndex.INDEX_RESOURCE);
+            Writer out = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+            try {
+                out.write(InjectionIndex.INDEX_HEADER);
+                out.write('\n');
+                for (InjectionIndex.Entry e: entries.values()) {
+                    out.write(e.format());
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                     "cannot write injection index: " + e);
+        }
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.grouplens.grapht.graph;
 
+import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Maps;
@@ -27,6 +28,8 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,21 +37,36 @@ import java.util.Set;
 /**
  * Merges graphs to remove redundant nodes.  This takes graphs and merges them, pruning redundant
  * nodes within the graphs and between graphs previously merged.  It remembers graphs it has
- * previously seen to allow nodes to be reused across multiple graphs.
+ * previously seen to allow nodes to be reused across multiple graphs.  A pool is thread-safe, so
+ * it can be shared by several solvers to reuse nodes across configurations.
+ * <p>
+ * By default, edge labels are ignored: two nodes with equal labels and the same tail nodes are
+ * merged even if their edges to those tails are labeled differently.  This is safe within one
+ * graph, but graphs from different configurations can wire the same tails differently (for
+ * example, by swapping two qualified values).  Pools that merge such graphs should be created
+ * with {@link #create(Function)}, so that nodes are only merged if their edges have equal keys.
  *
  * @param <V> The vertex type of graphs to merge.
  * @param <E> The edge type of graphs to merge.
  * @since 0.7
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  */
+@ThreadSafe
 public class MergePool<V,E> {
     // TODO Allow arbitrary equivalence relations over graph nodes so this class is less specialized.
     private static final Logger logger = LoggerFactory.getLogger(MergePool.class);
 
-    private final Set<DAGNode<V,E>> pool;
+    /**
+     * The nodes seen so far, keyed by their labels and adjacent nodes (or edge keys and adjacent
+     * nodes, if edges are keyed).
+     */
+    private final Map<Pair<V,Set<?>>, DAGNode<V,E>> nodeTable;
+    @Nullable
+    private final Function<? super E, ?> edgeKey;
 
-    private MergePool() {
-        pool = Sets.newLinkedHashSet();
+    private MergePool(@Nullable Function<? super E, ?> key) {
+        nodeTable = Maps.newHashMap();
+        edgeKey = key;
     }
 
     /**
@@ -59,7 +77,34 @@ public class MergePool<V,E> {
      * @return A new merge pool.
      */
     public static <V,E> MergePool<V,E> create() {
-        return new MergePool<V, E>();
+        return new MergePool<V, E>(null);
+    }
+
+    /**
+     * Create a merge pool that checks node labels and edge keys for equality.  Two nodes are only
+     * merged if they have equal labels and the same set of (edge key, merged tail) pairs.
+     *
+     * @param edgeKey A function computing the key of an edge label.  The keys of edge labels
+     *                must be equal if and only if the edges are interchangeable.
+     * @param <V> The node label type.
+     * @param <E> The edge label type.
+     * @return A new merge pool.
+     * @since 0.11
+     */
+    public static <V,E> MergePool<V,E> create(Function<? super E, ?> edgeKey) {
+        if (edgeKey == null) {
+            throw new NullPointerException("edge key function");
+        }
+        return new MergePool<V, E>(edgeKey);
+    }
+
+    /**
+     * Query whether this pool distinguishes edges by key when merging nodes.
+     * @return {@code true} if the pool was created with {@link #create(Function)}.
+     * @since 0.11
+     */
+    public boolean isEdgeKeyed() {
+        return edgeKey != null;
     }
 
     /**
@@ -67,22 +112,15 @@ public class MergePool<V,E> {
      * outgoing edge destinations), and will prefer to use nodes from graphs seen previously.
      * This allows deduplication across multiple graphs.
      *
-     * <p><strong>Noteo:</strong> edge labels are ignored for the purpose of merging.</p>
+     * <p><strong>Note:</strong> unless the pool was created with {@link #create(Function)}, edge
+     * labels are ignored for the purpose of merging.</p>
      *
      * @param graph The graph to simplify.
      * @return The new simplified, merged graph.
      */
-    public DAGNode<V,E> merge(DAGNode<V, E> graph) {
+    public synchronized DAGNode<V,E> merge(DAGNode<V, E> graph) {
         List<DAGNode<V, E>> sorted = graph.getSortedNodes();
 
-        Map<Pair<V,Set<DAGNode<V,E>>>, DAGNode<V,E>> nodeTable = Maps.newHashMap();
-        for (DAGNode<V, E> node: pool) {
-            Pair<V, Set<DAGNode<V, E>>> key =
-                    Pair.of(node.getLabel(), node.getAdjacentNodes());
-            assert !nodeTable.containsKey(key);
-            nodeTable.put(key, node);
-        }
-
         // We want to map nodes to their previous merged versions
         Map<DAGNode<V,E>, DAGNode<V,E>> mergedMap = Maps.newHashMap();
         // Now start processing nodes
@@ -90,14 +128,23 @@ public class MergePool<V,E> {
             V sat = toMerge.getLabel();
             // Resolve the merged neighbors of this node.  They have already been
             // merged, since we are going in topological order.
-            Set<DAGNode<V, E>> neighbors =
-                    FluentIterable.from(toMerge.getOutgoingEdges())
-                                  .transform(DAGEdge.<V,E>extractTail())
-                                  .transform(Functions.forMap(mergedMap))
-                                  .toSet();
+            Set<?> neighbors;
+            if (edgeKey == null) {
+                neighbors = FluentIterable.from(toMerge.getOutgoingEdges())
+                                          .transform(DAGEdge.<V,E>extractTail())
+                                          .transform(Functions.forMap(mergedMap))
+                                          .toSet();
+            } else {
+                Set<Pair<Object, DAGNode<V,E>>> keyed = Sets.newHashSet();
+                for (DAGEdge<V, E> edge: toMerge.getOutgoingEdges()) {
+                    keyed.add(Pair.<Object, DAGNode<V,E>>of(edgeKey.apply(edge.getLabel()),
+                                                           mergedMap.get(edge.getTail())));
+                }
+                neighbors = keyed;
+            }
 
             // See if we have already created an equivalent to this node
-            DAGNode<V, E> newNode = nodeTable.get(Pair.of(sat, neighbors));
+            DAGNode<V, E> newNode = nodeTable.get(Pair.<V,Set<?>>of(sat, neighbors));
             if (newNode == null) {
                 // No, let's start building one
                 DAGNodeBuilder<V,E> bld = DAGNode.newBuilder();
@@ -122,7 +169,8 @@ public class MergePool<V,E> {
                     // no edges were changed, leave the node unmodified
                     newNode = toMerge;
                 }
-                nodeTable.put(Pair.of(sat, neighbors), newNode);
+                // remember it for future merge operations
+                nodeTable.put(Pair.<V,Set<?>>of(sat, neighbors), newNode);
             } else {
                 logger.debug("Node already in merged graph for satisfaction: {}", toMerge.getLabel());
             }
@@ -132,10 +180,6 @@ public class MergePool<V,E> {
         }
 
         // now let's find our return value - what did we merge the graph root to?
-        DAGNode<V, E> newRoot = mergedMap.get(graph);
-        // remember all its nodes for future merge operations
-        pool.addAll(newRoot.getReachableNodes());
-        // and we're done
-        return newRoot;
+        return mergedMap.get(graph);
     }
 }
@@ -36,10 +36,11 @@ public final class Desires {
      * @param qualifier The qualifier applied to the type.
      * @param type The desired type.
      * @param nullable Whether this injection is nullable.
-     * @return The desire.
+     * @return The desire.  Desires are interned, so equal desires are usually the same object.
      */
     public static Desire create(@Nullable Annotation qualifier, Class<?> type, boolean nullable) {
-        return new ReflectionDesire(createInjectionPoint(qualifier, type, nullable));
+        InjectionPoint ip = createInjectionPoint(qualifier, type, nullable);
+        return ReflectionDesire.create(ip.getErasedType(), ip, null);
     }
 
     public static InjectionPoint createInjectionPoint(@Nullable Annotation qualifier, Class<?> type, boolean nullable) {
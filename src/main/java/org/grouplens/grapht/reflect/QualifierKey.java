@@ -0,0 +1,207 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.reflect;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.grouplens.grapht.annotation.AllowUnqualifiedMatch;
+import org.grouplens.grapht.util.ClassCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Canonical form of a qualifier annotation, used by the qualifier matchers.  A key holds the
+ * annotation's type, its alias-resolved type and its attribute values, and caches its hash code.
+ * Keys are interned, so keys of equal annotations are usually identical and can be compared by
+ * identity; {@link #equals(Object)} is a cheap field comparison that does not go through
+ * {@link Annotation#equals(Object)}.
+ *
+ * <p>Keys do not refer to the annotations they were made from, and the annotation-to-key cache
+ * holds annotations weakly.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@Immutable
+final class QualifierKey {
+    private static final Interner<QualifierKey> interner = Interners.newWeakInterner();
+
+    private static final LoadingCache<Annotation, QualifierKey> keyCache =
+            CacheBuilder.newBuilder()
+                        .weakKeys()
+                        .build(new CacheLoader<Annotation, QualifierKey>() {
+                            @Override
+                            public QualifierKey load(@Nonnull Annotation annot) {
+                                return interner.intern(new QualifierKey(annot));
+                            }
+                        });
+
+    private static final ClassCache<Class<? extends Annotation>> resolvedTypes =
+            ClassCache.create(new Function<Class<?>, Class<? extends Annotation>>() {
+                @Override
+                public Class<? extends Annotation> apply(Class<?> type) {
+                    return Qualifiers.resolveAliases(type.asSubclass(Annotation.class));
+                }
+            });
+
+    private static final ClassCache<Method[]> attributeMethods =
+            ClassCache.create(new Function<Class<?>, Method[]>() {
+                @Override
+                public Method[] apply(Class<?> type) {
+                    Method[] methods = type.getDeclaredMethods();
+                    Arrays.sort(methods, new Comparator<Method>() {
+                        @Override
+                        public int compare(Method m1, Method m2) {
+                            return m1.getName().compareTo(m2.getName());
+                        }
+                    });
+                    for (Method m: methods) {
+                        m.setAccessible(true);
+                    }
+                    return methods;
+                }
+            });
+
+    private final Class<? extends Annotation> type;
+    private final Class<? extends Annotation> resolvedType;
+    private final Object[] values;
+    private final boolean allowUnqualifiedMatch;
+    private final int hash;
+
+    private QualifierKey(Annotation annot) {
+        type = annot.annotationType();
+        Class<? extends Annotation> resolved;
+        try {
+            resolved = resolvedTypes.get(type);
+        } catch (IllegalArgumentException e) {
+            // defer the error until someone needs the resolved type
+            resolved = null;
+        }
+        resolvedType = resolved;
+        Method[] methods = attributeMethods.get(type);
+        values = new Object[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            try {
+                values[i] = methods[i].invoke(annot);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("cannot read attribute " + methods[i].getName(), e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("cannot read attribute " + methods[i].getName(),
+                                                   e.getCause());
+            }
+        }
+        allowUnqualifiedMatch = type.isAnnotationPresent(AllowUnqualifiedMatch.class);
+        hash = type.hashCode() * 31 + Arrays.deepHashCode(values);
+    }
+
+    /**
+     * Get the key for an annotation.
+     *
+     * @param annot The qualifier annotation.
+     * @return The (interned) key for {@code annot}.
+     * @throws IllegalArgumentException if the annotation's aliases cannot be resolved.
+     */
+    @Nonnull
+    public static QualifierKey of(@Nonnull Annotation annot) {
+        try {
+            return keyCache.getUnchecked(annot);
+        } catch (UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Get the alias-resolved type of a qualifier type.
+     *
+     * @param type The qualifier type.
+     * @return The result of {@link Qualifiers#resolveAliases(Class)}, cached per type.
+     */
+    @Nonnull
+    public static Class<? extends Annotation> resolveType(@Nonnull Class<? extends Annotation> type) {
+        return resolvedTypes.get(type);
+    }
+
+    /**
+     * @return The annotation type of the qualifier.
+     */
+    public Class<? extends Annotation> getType() {
+        return type;
+    }
+
+    /**
+     * @return The qualifier's annotation type, with aliases resolved.
+     * @throws IllegalArgumentException if the type's aliases cannot be resolved.
+     */
+    public Class<? extends Annotation> getResolvedType() {
+        if (resolvedType == null) {
+            // throws the resolution error
+            return resolvedTypes.get(type);
+        }
+        return resolvedType;
+    }
+
+    /**
+     * @return {@code true} if the qualifier type allows unqualified matches.
+     * @see AllowUnqualifiedMatch
+     */
+    public boolean allowsUnqualifiedMatch() {
+        return allowUnqualifiedMatch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof QualifierKey) {
+            QualifierKey ok = (QualifierKey) o;
+            return hash == ok.hash
+                   && type.equals(ok.type)
+                   && Arrays.deepEquals(values, ok.values);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "QualifierKey(" + type.getName() + Arrays.deepToString(values) + ")";
+    }
+}
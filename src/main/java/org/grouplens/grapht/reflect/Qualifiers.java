@@ -21,7 +21,6 @@ package org.grouplens.grapht.reflect;
 
 import com.google.common.collect.Sets;
 import org.grouplens.grapht.annotation.AliasFor;
-import org.grouplens.grapht.annotation.AllowUnqualifiedMatch;
 import org.grouplens.grapht.util.ClassProxy;
 import org.grouplens.grapht.util.Preconditions;
 import org.slf4j.Logger;
@@ -194,8 +193,7 @@ public final class Qualifiers {
             if (q == null) {
                 return true;
             } else {
-                Class<? extends Annotation> atype = q.annotationType();
-                return atype.isAnnotationPresent(AllowUnqualifiedMatch.class);
+                return QualifierKey.of(q).allowsUnqualifiedMatch();
             }
         }
 
@@ -287,19 +285,13 @@ public final class Qualifiers {
             Preconditions.isQualifier(type);
             this.type = type;
             // find the actual type to match (resolving aliases)
-            actual = resolveAliases(type);
+            actual = QualifierKey.resolveType(type);
         }
         
         @Override
         public boolean apply(Annotation q) {
             // We test if the alias-resolved types match.
-            Class<? extends Annotation> qtype = (q == null ? null : q.annotationType());
-            if (qtype == null) {
-                return false;
-            } else {
-                Class<? extends Annotation> qact = resolveAliases(qtype);
-                return actual.equals(qact);
-            }
+            return q != null && actual.equals(QualifierKey.of(q).getResolvedType());
         }
         
         @Override
@@ -361,33 +353,45 @@ public final class Qualifiers {
         private static final long serialVersionUID = 1L;
 
         private final Annotation annotation;
+        // transient because it is recomputed by readResolve
+        private final transient QualifierKey key;
         
         public AnnotationMatcher(Annotation annot) {
             super(DefaultMatcherPriority.MATCH_VALUE);
             Preconditions.notNull("annotation", annot);
             Preconditions.isQualifier(annot.annotationType());
             annotation = annot;
+            key = QualifierKey.of(annot);
         }
         
         @Override
         public boolean apply(Annotation q) {
-            return annotation.equals(q);
+            if (q == null) {
+                return false;
+            }
+            QualifierKey qk = QualifierKey.of(q);
+            // keys are interned, so the identity test almost always decides
+            return qk == key || qk.equals(key);
         }
         
         @Override
         public boolean equals(Object o) {
             return (o instanceof AnnotationMatcher)
-                   && ((AnnotationMatcher) o).annotation.equals(annotation);
+                   && ((AnnotationMatcher) o).key.equals(key);
         }
         
         @Override
         public int hashCode() {
-            return annotation.hashCode();
+            return key.hashCode();
         }
         
         @Override
         public String toString() {
             return annotation.toString();
         }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new AnnotationMatcher(annotation);
+        }
     }
 }
@@ -35,6 +35,7 @@ import java.util.Map;
  */
 class AnnotationHelper {
     private final Map<Class<? extends Annotation>, Annotation> attrs;
+    private final Collection<Annotation> attrValues;
     private final Annotation qualifier;
     
     public AnnotationHelper(Annotation... annots) {
@@ -52,6 +53,7 @@ class AnnotationHelper {
         }
         
         qualifier = foundQualifier;
+        attrValues = Collections.unmodifiableCollection(attrs.values());
     }
     
     public Annotation getQualifier() {
@@ -63,6 +65,6 @@ class AnnotationHelper {
     }
     
     public Collection<Annotation> getAttributes() {
-        return Collections.unmodifiableCollection(attrs.values());
+        return attrValues;
     }
 }
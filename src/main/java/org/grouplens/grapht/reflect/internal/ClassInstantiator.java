@@ -20,6 +20,7 @@
 package org.grouplens.grapht.reflect.internal;
 
 import org.grouplens.grapht.ConstructionException;
+import org.grouplens.grapht.DiagnosticLevel;
 import org.grouplens.grapht.Instantiator;
 import org.grouplens.grapht.NullDependencyException;
 import org.grouplens.grapht.reflect.Desire;
@@ -80,23 +81,28 @@ public class ClassInstantiator implements Instantiator {
 
         Constructor<?> ctor = getConstructor();
         LogContext globalLogContext = LogContext.create();
+        boolean detailed = LogContext.isEnabled(DiagnosticLevel.FULL);
         Object instance = null;
         try {
             // create the instance that we are injecting
             try {
-                globalLogContext.put("org.grouplens.grapht.class", ctor.getClass().toString());
+                if (globalLogContext.isActive()) {
+                    globalLogContext.put("org.grouplens.grapht.class", ctor.getClass().toString());
+                }
                 Object[] ctorArgs = new Object[ctor.getParameterTypes().length];
                 for (Desire d : desires) {
-                    LogContext ipContext = LogContext.create();
                     if (d.getInjectionPoint() instanceof ConstructorParameterInjectionPoint) {
                         // this desire is a constructor argument so create it now
                         Instantiator provider = providers.get(d);
                         ConstructorParameterInjectionPoint cd = (ConstructorParameterInjectionPoint) d.getInjectionPoint();
                         logger.trace("Injection point satisfactions in progress {}", cd);
-                        try {
-                            ipContext.put("org.grouplens.grapht.injectionPoint", cd.toString());
-                        } finally {
-                            ipContext.finish();
+                        if (detailed) {
+                            LogContext ipContext = LogContext.create(DiagnosticLevel.FULL);
+                            try {
+                                ipContext.put("org.grouplens.grapht.injectionPoint", cd.toString());
+                            } finally {
+                                ipContext.finish();
+                            }
                         }
                         ctorArgs[cd.getParameterIndex()] = checkNull(cd, provider.instantiate());
                     }
@@ -116,13 +122,17 @@ public class ClassInstantiator implements Instantiator {
             // prepared to comply with JSR 330
             Map<Method, InjectionArgs> settersAndArguments = new HashMap<Method, InjectionArgs>();
             for (Desire d : desires) {
-                LogContext ipContext = LogContext.create();
+                LogContext ipContext = detailed ? LogContext.create(DiagnosticLevel.FULL) : null;
                 try {
                     final InjectionStrategy injectionStrategy = InjectionStrategy.forInjectionPoint(d.getInjectionPoint());
-                    ipContext.put("org.grouplens.grapht.injectionPoint", d.getInjectionPoint().toString());
+                    if (detailed) {
+                        ipContext.put("org.grouplens.grapht.injectionPoint", d.getInjectionPoint().toString());
+                    }
                     injectionStrategy.inject(d.getInjectionPoint(), instance, providers.get(d), settersAndArguments);
                 } finally {
-                    ipContext.finish();
+                    if (detailed) {
+                        ipContext.finish();
+                    }
                 }
             }
         } finally {
@@ -22,7 +22,6 @@ package org.grouplens.grapht.reflect.internal;
 import org.grouplens.grapht.reflect.InjectionPoint;
 import org.grouplens.grapht.util.ConstructorProxy;
 import org.grouplens.grapht.util.Preconditions;
-import org.grouplens.grapht.util.Types;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,6 +45,7 @@ public class ConstructorParameterInjectionPoint implements InjectionPoint, Seria
     // transient because of serialization proxy
     private final transient Constructor<?> constructor;
     private final transient int paramIndex;
+    private final transient InjectionPointMetadata metadata;
     private final transient AnnotationHelper annotations;
 
     /**
@@ -64,7 +64,8 @@ public class ConstructorParameterInjectionPoint implements InjectionPoint, Seria
 
         constructor = ctor;
         paramIndex = pIndex;
-        annotations = new AnnotationHelper(ctor.getParameterAnnotations()[pIndex]);
+        metadata = InjectionPointMetadata.forParameter(ctor, pIndex);
+        annotations = metadata.getAnnotations();
     }
 
     /**
@@ -85,17 +86,17 @@ public class ConstructorParameterInjectionPoint implements InjectionPoint, Seria
 
     @Override
     public boolean isNullable() {
-        return Types.hasNullableAnnotation(constructor.getParameterAnnotations()[paramIndex]);
+        return metadata.isNullable();
     }
 
     @Override
     public Type getType() {
-        return Types.box(constructor.getGenericParameterTypes()[paramIndex]);
+        return metadata.getType();
     }
 
     @Override
     public Class<?> getErasedType() {
-        return Types.box(constructor.getParameterTypes()[paramIndex]);
+        return metadata.getErasedType();
     }
 
     @Nullable
@@ -22,7 +22,6 @@ package org.grouplens.grapht.reflect.internal;
 import org.grouplens.grapht.reflect.InjectionPoint;
 import org.grouplens.grapht.util.FieldProxy;
 import org.grouplens.grapht.util.Preconditions;
-import org.grouplens.grapht.util.Types;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -43,6 +42,7 @@ public final class FieldInjectionPoint implements InjectionPoint, Serializable {
     private static final long serialVersionUID = -1L;
     // transient because we use a serialization proxy
     private final transient Field field;
+    private final transient InjectionPointMetadata metadata;
     private final transient AnnotationHelper annotations;
 
     /**
@@ -54,17 +54,18 @@ public final class FieldInjectionPoint implements InjectionPoint, Serializable {
     public FieldInjectionPoint(@Nonnull Field field) {
         Preconditions.notNull("field", field);
         this.field = field;
-        annotations = new AnnotationHelper(field.getAnnotations());
+        metadata = InjectionPointMetadata.forField(field);
+        annotations = metadata.getAnnotations();
     }
 
     @Override
     public Type getType() {
-        return Types.box(field.getGenericType());
+        return metadata.getType();
     }
 
     @Override
     public Class<?> getErasedType() {
-        return Types.box(field.getType());
+        return metadata.getErasedType();
     }
 
     @Nullable
@@ -92,7 +93,7 @@ public final class FieldInjectionPoint implements InjectionPoint, Serializable {
 
     @Override
     public boolean isNullable() {
-        return Types.hasNullableAnnotation(field.getAnnotations());
+        return metadata.isNullable();
     }
 
     @Override
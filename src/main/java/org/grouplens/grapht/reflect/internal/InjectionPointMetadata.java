@@ -0,0 +1,166 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.reflect.internal;
+
+import com.google.common.base.Function;
+import org.apache.commons.lang3.tuple.Pair;
+import org.grouplens.grapht.util.ClassCache;
+import org.grouplens.grapht.util.Types;
+
+import javax.annotation.concurrent.Immutable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reflective metadata of an injection point: its boxed types, nullability, and annotations.
+ * The metadata is computed once per member and parameter, and shared by all equal injection
+ * points, so that the injection points need not rescan annotations or re-box types each time
+ * they are queried.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@Immutable
+final class InjectionPointMetadata {
+    private static final ClassCache<ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata>> cache =
+            ClassCache.create(new Function<Class<?>, ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata>>() {
+                @Override
+                public ConcurrentMap<Pair<Member, Integer>, InjectionPointMetadata> apply(Class<?> input) {
+                    return new ConcurrentHashMap<Pair<Member, Integer>, InjectionPointMetadata>();
+                }
+            });
+
+    private final Type type;
+    private final Class<?> erasedType;
+    private final boolean nullable;
+    private final AnnotationHelper annotations;
+
+    private InjectionPointMetadata(Type type, Class<?> erased, boolean nullable,
+                                   AnnotationHelper annotations) {
+        this.type = Types.box(type);
+        erasedType = Types.box(erased);
+        this.nullable = nullable;
+        this.annotations = annotations;
+    }
+
+    /**
+     * Get the metadata for a constructor parameter.
+     * @param ctor The constructor.
+     * @param idx The parameter index.
+     * @return The parameter's metadata.
+     */
+    public static InjectionPointMetadata forParameter(Constructor<?> ctor, int idx) {
+        Pair<Member,Integer> key = Pair.<Member,Integer>of(ctor, idx);
+        ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata> map = cache.get(ctor.getDeclaringClass());
+        InjectionPointMetadata md = map.get(key);
+        if (md == null) {
+            Annotation[] annots = ctor.getParameterAnnotations()[idx];
+            md = new InjectionPointMetadata(ctor.getGenericParameterTypes()[idx],
+                                            ctor.getParameterTypes()[idx],
+                                            Types.hasNullableAnnotation(annots),
+                                            new AnnotationHelper(annots));
+            md = intern(map, key, md);
+        }
+        return md;
+    }
+
+    /**
+     * Get the metadata for a method (setter) parameter.  The parameter is nullable if either
+     * the method or the parameter is annotated as nullable.
+     * @param method The method.
+     * @param idx The parameter index.
+     * @return The parameter's metadata.
+     */
+    public static InjectionPointMetadata forParameter(Method method, int idx) {
+        Pair<Member,Integer> key = Pair.<Member,Integer>of(method, idx);
+        ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata> map = cache.get(method.getDeclaringClass());
+        InjectionPointMetadata md = map.get(key);
+        if (md == null) {
+            Annotation[] annots = method.getParameterAnnotations()[idx];
+            boolean nullable = Types.hasNullableAnnotation(method.getAnnotations())
+                               || Types.hasNullableAnnotation(annots);
+            md = new InjectionPointMetadata(method.getGenericParameterTypes()[idx],
+                                            method.getParameterTypes()[idx],
+                                            nullable, new AnnotationHelper(annots));
+            md = intern(map, key, md);
+        }
+        return md;
+    }
+
+    /**
+     * Get the metadata for a field.
+     * @param field The field.
+     * @return The field's metadata.
+     */
+    public static InjectionPointMetadata forField(Field field) {
+        Pair<Member,Integer> key = Pair.<Member,Integer>of(field, -1);
+        ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata> map = cache.get(field.getDeclaringClass());
+        InjectionPointMetadata md = map.get(key);
+        if (md == null) {
+            Annotation[] annots = field.getAnnotations();
+            md = new InjectionPointMetadata(field.getGenericType(), field.getType(),
+                                            Types.hasNullableAnnotation(annots),
+                                            new AnnotationHelper(annots));
+            md = intern(map, key, md);
+        }
+        return md;
+    }
+
+    private static InjectionPointMetadata intern(ConcurrentMap<Pair<Member,Integer>, InjectionPointMetadata> map,
+                                                 Pair<Member,Integer> key,
+                                                 InjectionPointMetadata md) {
+        InjectionPointMetadata existing = map.putIfAbsent(key, md);
+        return existing != null ? existing : md;
+    }
+
+    /**
+     * @return The boxed type of the injection point.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The boxed erased type of the injection point.
+     */
+    public Class<?> getErasedType() {
+        return erasedType;
+    }
+
+    /**
+     * @return Whether the injection point is nullable.
+     */
+    public boolean isNullable() {
+        return nullable;
+    }
+
+    /**
+     * @return The injection point's qualifier and attributes.
+     */
+    public AnnotationHelper getAnnotations() {
+        return annotations;
+    }
+}
@@ -94,7 +94,8 @@ public class ProviderClassSatisfaction implements Satisfaction, Serializable {
 
     @Override
     public Class<?> getErasedType() {
-        return Types.erase(getType());
+        // the provided type is a class, so it needs no erasure
+        return Types.getProvidedType(providerType);
     }
 
     @Override
@@ -19,15 +19,22 @@
  */
 package org.grouplens.grapht.reflect.internal;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import org.grouplens.grapht.InvalidBindingException;
 import org.grouplens.grapht.reflect.Desire;
 import org.grouplens.grapht.reflect.InjectionPoint;
 import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.util.ClassCache;
 import org.grouplens.grapht.util.ClassProxy;
+import org.grouplens.grapht.util.InjectionIndex;
 import org.grouplens.grapht.util.Preconditions;
 import org.grouplens.grapht.util.Types;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
@@ -45,16 +52,114 @@ import java.util.*;
  */
 public class ReflectionDesire implements Desire, Serializable {
     private static final long serialVersionUID = -1L;
+    /**
+     * Interner for restricted and deserialized desires, so that equal desires produced during
+     * resolution usually share one instance.
+     */
+    private static final Interner<ReflectionDesire> INTERNER = Interners.newWeakInterner();
+
+    private static final ClassCache<List<Desire>> desireCache =
+            ClassCache.create(new Function<Class<?>, List<Desire>>() {
+                @Override
+                public List<Desire> apply(Class<?> type) {
+                    return scanDesires(type);
+                }
+            });
 
     /**
      * Return a list of desires that must satisfied in order to instantiate the
-     * given type.
+     * given type.  The desires are discovered once per class and cached.
      *
      * @param type The class type whose dependencies will be queried
-     * @return The dependency desires for the given type
+     * @return The dependency desires for the given type (an immutable list)
      * @throws NullPointerException if the type is null
      */
     public static List<Desire> getDesires(Class<?> type) {
+        Preconditions.notNull("type", type);
+        return desireCache.get(type);
+    }
+
+    /**
+     * Find the desires of a type, from the injection index if possible and by reflection
+     * otherwise.
+     * @param type The type to scan.
+     * @return The dependency desires for the type.
+     * @see #getDesires(Class)
+     */
+    private static List<Desire> scanDesires(Class<?> type) {
+        List<Desire> desires = indexedDesires(type);
+        if (desires == null) {
+            desires = reflectDesires(type);
+        }
+        // intern the desires, so graphs read back from encoded files share them
+        ImmutableList.Builder<Desire> interned = ImmutableList.builder();
+        for (Desire desire: desires) {
+            interned.add(INTERNER.intern((ReflectionDesire) desire));
+        }
+        return interned.build();
+    }
+
+    /**
+     * Find the desires of a type using the {@linkplain InjectionIndex injection index}.  This
+     * only works if the type and all its superclasses (other than system classes) are indexed and
+     * none of them have injectable methods, since method overriding needs a reflective scan.
+     *
+     * @param type The type.
+     * @return The dependency desires for the type, or {@code null} if they cannot be determined
+     * from the index.
+     */
+    @Nullable
+    private static List<Desire> indexedDesires(Class<?> type) {
+        InjectionIndex.Entry entry = InjectionIndex.lookup(type);
+        if (entry == null || !entry.isComplete()) {
+            return null;
+        }
+
+        List<Desire> desires = Lists.newArrayList();
+        if (entry.hasInjectConstructor()) {
+            Constructor<?> ctor = entry.findInjectConstructor(type);
+            if (ctor == null) {
+                // index is out of date
+                return null;
+            }
+            for (int i = 0; i < ctor.getParameterTypes().length; i++) {
+                desires.add(new ReflectionDesire(new ConstructorParameterInjectionPoint(ctor, i)));
+            }
+        }
+
+        // see reflectDesires for the ordering of field desires
+        List<Desire> groupDesires = Lists.newArrayList();
+        for (Class<?> cur = type; cur != null; cur = cur.getSuperclass()) {
+            InjectionIndex.Entry e = cur == type ? entry : InjectionIndex.lookup(cur);
+            if (e == null) {
+                if (cur.getClassLoader() == null) {
+                    // system classes have no injection points
+                    continue;
+                }
+                return null;
+            } else if (!e.isComplete() || e.hasInjectMethods()) {
+                return null;
+            }
+            for (String name: e.getInjectFields()) {
+                try {
+                    groupDesires.add(new ReflectionDesire(new FieldInjectionPoint(cur.getDeclaredField(name))));
+                } catch (NoSuchFieldException ex) {
+                    return null;
+                }
+            }
+        }
+        Collections.reverse(groupDesires);
+        desires.addAll(groupDesires);
+
+        return ImmutableList.copyOf(desires);
+    }
+
+    /**
+     * Scan a type by reflection to find its desires.
+     * @param type The type to scan.
+     * @return The dependency desires for the type.
+     */
+    private static List<Desire> reflectDesires(Class<?> type) {
         List<Desire> desires = Lists.newArrayList();
 
         boolean ctorFound = false;
@@ -113,12 +218,13 @@ public class ReflectionDesire implements Desire, Serializable {
         Collections.reverse(groupDesires);
         desires.addAll(groupDesires);
         
-        return Collections.unmodifiableList(desires);
+        return ImmutableList.copyOf(desires);
     }
     
     private final transient Class<?> desiredType;
     private final transient InjectionPoint injectPoint;
     private final transient Satisfaction satisfaction;
+    private final transient int hash;
 
     /**
      * Create a ReflectionDesire that immediately wraps the given
@@ -176,6 +282,20 @@ public class ReflectionDesire implements Desire, Serializable {
         this.desiredType = desiredType;
         this.injectPoint = injectPoint;
         this.satisfaction = satisfaction;
+        hash = desiredType.hashCode() ^ injectPoint.hashCode() ^ (satisfaction == null ? 0 : satisfaction.hashCode());
+    }
+
+    /**
+     * Create an interned ReflectionDesire, such as one read back from an encoded graph.  The
+     * arguments are as for {@link #ReflectionDesire(Class, InjectionPoint, Satisfaction)}.
+     *
+     * @return A desire equal to a new desire with these arguments, shared with other equal
+     *         desires that have been interned.
+     * @since 0.11
+     */
+    public static ReflectionDesire create(Class<?> desiredType, InjectionPoint injectPoint,
+                                          @Nullable Satisfaction satisfaction) {
+        return INTERNER.intern(new ReflectionDesire(desiredType, injectPoint, satisfaction));
     }
 
     @Override
@@ -200,28 +320,31 @@ public class ReflectionDesire implements Desire, Serializable {
     
     @Override
     public Desire restrict(Class<?> type) {
-        return new ReflectionDesire(type, injectPoint, null);
+        return INTERNER.intern(new ReflectionDesire(type, injectPoint, null));
     }
     
     @Override
     public Desire restrict(Satisfaction satis) {
-        return new ReflectionDesire(satis.getErasedType(), injectPoint, satis);
+        return INTERNER.intern(new ReflectionDesire(satis.getErasedType(), injectPoint, satis));
     }
 
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof ReflectionDesire)) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof ReflectionDesire)) {
             return false;
         }
         ReflectionDesire r = (ReflectionDesire) o;
-        return (r.desiredType.equals(desiredType) && 
+        return (r.hash == hash &&
+                r.desiredType.equals(desiredType) && 
                 r.injectPoint.equals(injectPoint) && 
                 (r.satisfaction == null ? satisfaction == null : r.satisfaction.equals(satisfaction)));
     }
 
     @Override
     public int hashCode() {
-        return desiredType.hashCode() ^ injectPoint.hashCode() ^ (satisfaction == null ? 0 : satisfaction.hashCode());
+        return hash;
     }
 
     @Override
@@ -253,9 +376,9 @@ public class ReflectionDesire implements Desire, Serializable {
         @SuppressWarnings("unchecked")
         private Object readResolve() throws ObjectStreamException {
             try {
-                return new ReflectionDesire(desiredType.resolve(),
-                                            injectionPoint,
-                                            satisfaction);
+                return INTERNER.intern(new ReflectionDesire(desiredType.resolve(),
+                                                            injectionPoint,
+                                                            satisfaction));
             } catch (ClassNotFoundException e) {
                 InvalidObjectException ex = new InvalidObjectException("cannot resolve " + desiredType);
                 ex.initCause(e);
@@ -22,7 +22,6 @@ package org.grouplens.grapht.reflect.internal;
 import org.grouplens.grapht.reflect.InjectionPoint;
 import org.grouplens.grapht.util.MethodProxy;
 import org.grouplens.grapht.util.Preconditions;
-import org.grouplens.grapht.util.Types;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -45,6 +44,7 @@ public class SetterInjectionPoint implements InjectionPoint, Serializable {
     // transient because we use a serialization proxy
     private final transient Method setter;
     private final transient int parameter;
+    private final transient InjectionPointMetadata metadata;
     private final transient AnnotationHelper annotations;
 
     /**
@@ -57,7 +57,8 @@ public class SetterInjectionPoint implements InjectionPoint, Serializable {
         Preconditions.notNull("setter method", setter);
         Preconditions.inRange(parameter, 0, setter.getParameterTypes().length);
 
-        this.annotations = new AnnotationHelper(setter.getParameterAnnotations()[parameter]);
+        metadata = InjectionPointMetadata.forParameter(setter, parameter);
+        this.annotations = metadata.getAnnotations();
         this.setter = setter;
         this.parameter = parameter;
     }
@@ -80,19 +81,18 @@ public class SetterInjectionPoint implements InjectionPoint, Serializable {
 
     @Override
     public boolean isNullable() {
-        // we'll check both setter and parameter annotations
-        return Types.hasNullableAnnotation(setter.getAnnotations()) ||
-               Types.hasNullableAnnotation(setter.getParameterAnnotations()[parameter]);
+        // checks both setter and parameter annotations
+        return metadata.isNullable();
     }
 
     @Override
     public Type getType() {
-        return Types.box(setter.getGenericParameterTypes()[parameter]);
+        return metadata.getType();
     }
 
     @Override
     public Class<?> getErasedType() {
-        return Types.box(setter.getParameterTypes()[parameter]);
+        return metadata.getErasedType();
     }
 
     @Nullable
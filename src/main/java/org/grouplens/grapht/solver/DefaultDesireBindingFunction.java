@@ -19,6 +19,8 @@
  */
 package org.grouplens.grapht.solver;
 
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import org.grouplens.grapht.CachePolicy;
 import org.grouplens.grapht.ResolutionException;
 import org.grouplens.grapht.annotation.*;
@@ -26,36 +28,71 @@ import org.grouplens.grapht.reflect.Desire;
 import org.grouplens.grapht.reflect.Qualifiers;
 import org.grouplens.grapht.reflect.Satisfaction;
 import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.util.ClassCache;
+import org.grouplens.grapht.util.InjectionIndex;
 import org.grouplens.grapht.util.Preconditions;
 import org.grouplens.grapht.util.Types;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.inject.Provider;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
-import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
 
 /**
  * A binding function that looks for {@link DefaultImplementation} or
  * {@link DefaultProvider} on the desired type or the qualifier. For constants,
  * it will also check for {@link DefaultDouble}, {@link DefaultInteger},
  * {@link DefaultBoolean}, and {@link DefaultString}.
+ * <p>
+ * The default binding of each qualifier and type is resolved once into a template and cached,
+ * so repeated resolution of the same types does not re-examine their annotations.
  * 
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  */
 public class DefaultDesireBindingFunction implements BindingFunction {
-    private static final String META_INF_DEFAULTS = "META-INF/grapht/defaults/";
     private final Logger logger = LoggerFactory.getLogger(DefaultDesireBindingFunction.class);
     private final ClassLoader classLoader;
 
-    private final Map<Class<?>, BindingResult> metaInfCache =
-            new HashMap<Class<?>, BindingResult>();
-    
+    /**
+     * Default templates of qualifier types.  Templates depend only on annotations, so they are
+     * shared by all binding functions.
+     */
+    private static final ClassCache<QualifierDefaults> qualifierDefaults =
+            ClassCache.create(new Function<Class<?>, QualifierDefaults>() {
+                @Override
+                public QualifierDefaults apply(Class<?> type) {
+                    return new QualifierDefaults(type.asSubclass(Annotation.class));
+                }
+            });
+    /**
+     * Default templates from annotations on desired types.
+     */
+    private static final ClassCache<Optional<DefaultTemplate>> typeDefaults =
+            ClassCache.create(new Function<Class<?>, Optional<DefaultTemplate>>() {
+                @Override
+                public Optional<DefaultTemplate> apply(Class<?> type) {
+                    return Optional.fromNullable(makeAnnotatedTemplate(type));
+                }
+            });
+    /**
+     * Default templates from META-INF, which depend on this function's class loader.
+     */
+    private final ClassCache<Optional<DefaultTemplate>> metaInfDefaults =
+            ClassCache.create(new Function<Class<?>, Optional<DefaultTemplate>>() {
+                @Override
+                public Optional<DefaultTemplate> apply(Class<?> type) {
+                    try {
+                        return Optional.fromNullable(makeMetaInfTemplate(type));
+                    } catch (ResolutionException e) {
+                        throw new MetaInfException(e);
+                    }
+                }
+            });
+
     DefaultDesireBindingFunction(ClassLoader loader) {
         Preconditions.notNull("spi", loader);
         classLoader = loader;
@@ -74,6 +111,13 @@ public class DefaultDesireBindingFunction implements BindingFunction {
     public static DefaultDesireBindingFunction create() {
         return create(null);
     }
+
+    /**
+     * @return The class loader from which {@code META-INF} defaults are read.
+     */
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
     
     @Override
     public BindingResult bind(InjectionContext context, DesireChain dchain) throws ResolutionException {
@@ -86,16 +130,13 @@ public class DefaultDesireBindingFunction implements BindingFunction {
         // (i.e. the desire that declared any qualifier)
         // REVIEW If it is not the first desire, can a qualifier exist?
         if (dchain.getPreviousDesires().isEmpty() && qualifier != null) {
-            Class<? extends Annotation> annotType = qualifier.annotationType();
-            annotType = Qualifiers.resolveAliases(annotType);
-
-            result = getDefaultValue(desire, annotType);
-            if (result == null) {
-                result = getAnnotatedDefault(desire, annotType);
+            QualifierDefaults qdefaults = qualifierDefaults.get(qualifier.annotationType());
+            if (qdefaults.template != null) {
+                result = qdefaults.template.apply(desire);
             }
 
             // if the qualifier does not allow fall-through, we're done
-            if (!annotType.isAnnotationPresent(AllowUnqualifiedMatch.class)) {
+            if (!qdefaults.allowUnqualifiedMatch) {
                 return result;
             }
         }
@@ -103,12 +144,16 @@ public class DefaultDesireBindingFunction implements BindingFunction {
         // Now check the desired type for @DefaultImplementation or @DefaultProvider if the type
         // source has not been disabled.
         if (result == null) {
-            result = getAnnotatedDefault(desire, desire.getDesiredType());
+            result = apply(typeDefaults.get(desire.getDesiredType()), desire);
         }
 
         // Last-ditch, try to get a default from META-INF
         if (result == null) {
-            result = getMetaInfDefault(desire, desire.getDesiredType());
+            try {
+                result = apply(metaInfDefaults.get(desire.getDesiredType()), desire);
+            } catch (MetaInfException e) {
+                throw e.getCause();
+            }
         }
         
         // There are no annotations on the {@link Qualifier} or the type that indicate a
@@ -117,160 +162,229 @@ public class DefaultDesireBindingFunction implements BindingFunction {
         return result;
     }
 
+    private static BindingResult apply(Optional<DefaultTemplate> template, Desire desire) {
+        return template.isPresent() ? template.get().apply(desire) : null;
+    }
+
     /**
-     * Get a default value (double, integer, string, etc.).
-     * @param desire The desire to satisfy.
+     * Get the template for a default value (double, integer, string, etc.).
      * @param type The class to scan for annotations.
-     * @return The binding result, or {@code null} if there are no relevant annotations.
+     * @return The binding template, or {@code null} if there are no relevant annotations.
      */
-    private BindingResult getDefaultValue(Desire desire, Class<?> type) {
+    @Nullable
+    private static DefaultTemplate makeValueTemplate(Class<?> type) {
+        if (!mayHaveDefaults(type)) {
+            return null;
+        }
         // FIXME Check whether the annotation type is actually relevant for the desire
-        BindingResult.Builder bld = null;
+        Satisfaction sat = null;
         DefaultDouble dfltDouble = type.getAnnotation(DefaultDouble.class);
         if (dfltDouble != null) {
-            bld = BindingResult.newBuilder()
-                               .setDesire(desire.restrict(Satisfactions.instance(dfltDouble.value())));
+            sat = Satisfactions.instance(dfltDouble.value());
         }
         DefaultInteger dfltInt = type.getAnnotation(DefaultInteger.class);
         if (dfltInt != null) {
-            bld = BindingResult.newBuilder().setDesire(desire.restrict(Satisfactions.instance(dfltInt.value())));
+            sat = Satisfactions.instance(dfltInt.value());
         }
         DefaultBoolean dfltBool = type.getAnnotation(DefaultBoolean.class);
         if (dfltBool != null) {
-            bld = BindingResult.newBuilder().setDesire(desire.restrict(Satisfactions.instance(dfltBool.value())));
+            sat = Satisfactions.instance(dfltBool.value());
         }
         DefaultString dfltStr = type.getAnnotation(DefaultString.class);
         if (dfltStr != null) {
-            bld = BindingResult.newBuilder().setDesire(desire.restrict(Satisfactions.instance(dfltStr.value())));
+            sat = Satisfactions.instance(dfltStr.value());
         }
-        if (bld != null) {
-            return bld.setCachePolicy(CachePolicy.NO_PREFERENCE)
-                      .addFlag(BindingFlag.TERMINAL)
-                      .build();
+        if (sat != null) {
+            return DefaultTemplate.satisfaction(sat, CachePolicy.NO_PREFERENCE, true);
         } else {
             return null;
         }
     }
 
     /**
-     * Get the default from annotations on the class, if present.
+     * Get the template for the default from annotations on the class, if present.
      *
      * @param type The type to scan for annotations.
-     * @return A binding result, or {@code null} if no usable annotations are present.
+     * @return A binding template, or {@code null} if no usable annotations are present.
      */
-    private BindingResult getAnnotatedDefault(Desire desire, Class<?> type) {
+    @Nullable
+    private static DefaultTemplate makeAnnotatedTemplate(Class<?> type) {
+        if (!mayHaveDefaults(type)) {
+            return null;
+        }
         DefaultProvider provider = type.getAnnotation(DefaultProvider.class);
         if (provider != null) {
-            return BindingResult.newBuilder()
-                                .setDesire(desire.restrict(Satisfactions.providerType(provider.value())))
-                                .setCachePolicy(provider.cachePolicy())
-                                .addFlag(BindingFlag.TERMINAL)
-                                .build();
+            return DefaultTemplate.satisfaction(Satisfactions.providerType(provider.value()),
+                                                provider.cachePolicy(), true);
         }
 
         DefaultImplementation impl = type.getAnnotation(DefaultImplementation.class);
         if (impl != null) {
             if (Types.isInstantiable(impl.value())) {
-                return BindingResult.newBuilder()
-                                    .setDesire(desire.restrict(Satisfactions.type(impl.value())))
-                                    .setCachePolicy(impl.cachePolicy())
-                                    .build();
+                return DefaultTemplate.satisfaction(Satisfactions.type(impl.value()),
+                                                    impl.cachePolicy(), false);
             } else {
-                return BindingResult.newBuilder()
-                                    .setDesire(desire.restrict(impl.value()))
-                                    .setCachePolicy(impl.cachePolicy())
-                                    .build();
+                return DefaultTemplate.type(impl.value(), impl.cachePolicy());
             }
         }
 
         DefaultNull dnull = type.getAnnotation(DefaultNull.class);
         if (dnull != null) {
-            return BindingResult.newBuilder()
-                                .setDesire(desire.restrict(Satisfactions.nullOfType(desire.getDesiredType())))
-                                .setCachePolicy(CachePolicy.NO_PREFERENCE)
-                                .addFlag(BindingFlag.TERMINAL)
-                                .build();
+            return DefaultTemplate.nullDefault();
         }
 
         return null;
     }
 
+    /**
+     * Query the injection index to see if a type may have default annotations.
+     * @param type The type.
+     * @return {@code false} if the type is indexed and has no default annotations, so its
+     * annotations need not be examined.
+     */
+    private static boolean mayHaveDefaults(Class<?> type) {
+        InjectionIndex.Entry entry = InjectionIndex.lookup(type);
+        return entry == null || entry.hasDefaults();
+    }
+
     @SuppressWarnings("unchecked")
-    private BindingResult getMetaInfDefault(Desire desire, Class<?> type) throws ResolutionException {
-        synchronized (metaInfCache) {
-            if (metaInfCache.containsKey(type)) {
-                return metaInfCache.get(type);
-            }
+    @Nullable
+    private DefaultTemplate makeMetaInfTemplate(Class<?> type) throws ResolutionException {
+        Map<String, String> props;
+        try {
+            props = DefaultsIndex.forClassLoader(classLoader).getDefaults(type.getCanonicalName());
+        } catch (IOException e) {
+            throw new ResolutionException("error reading defaults for " + type, e);
+        }
+        if (props == null) {
+            return null;
         }
 
-        BindingResult.Builder builder = BindingResult.newBuilder();
-        boolean found = false;
-        String resourceName = META_INF_DEFAULTS + type.getCanonicalName() + ".properties";
-        logger.debug("searching for defaults in {}", resourceName);
-        URL url = classLoader.getResource(resourceName);
-
-        if (url != null) {
-            Properties props;
-            InputStream istr = null;
+        Satisfaction sat = null;
+        boolean terminal = false;
+        String providerName = props.get("provider");
+        if (providerName != null) {
             try {
-                istr = url.openStream();
-                props = new Properties();
-                props.load(istr);
-            } catch (IOException e) {
-                throw new ResolutionException("error reading " + resourceName, e);
-            } finally {
-                try {
-                    if (istr != null) {
-                        istr.close();
-                    }
-                } catch (IOException e) {
-                    logger.error("error closing {}: {}", resourceName, e);
+                logger.debug("found provider {} for {}", providerName, type);
+                Class<?> clazz = classLoader.loadClass(providerName);
+                sat = Satisfactions.providerType((Class<Provider<?>>) clazz.asSubclass(Provider.class));
+                if (!type.isAssignableFrom(sat.getErasedType())) {
+                    throw new ResolutionException(providerName + " does not provide " + type);
                 }
+                terminal = true;
+            } catch (ClassNotFoundException e) {
+                throw new ResolutionException("cannot find default provider for " + type, e);
             }
+        }
 
-            String providerName = props.getProperty("provider");
-            if (providerName != null) {
-                try {
-                    logger.debug("found provider {} for {}", providerName, type);
-                    Class<?> clazz = classLoader.loadClass(providerName);
-                    Satisfaction sat = Satisfactions.providerType((Class<Provider<?>>) clazz.asSubclass(Provider.class));
-                    if (!type.isAssignableFrom(sat.getErasedType())) {
-                        throw new ResolutionException(providerName + " does not provide " + type);
-                    }
-                    builder.setDesire(desire.restrict(sat))
-                           .addFlag(BindingFlag.TERMINAL);
-                    found = true;
-                } catch (ClassNotFoundException e) {
-                    throw new ResolutionException("cannot find default provider for " + type, e);
+        String implName = props.get("implementation");
+        if (implName != null) {
+            try {
+                logger.debug("found implementation {} for {}", implName, type);
+                Class<?> clazz = classLoader.loadClass(implName);
+                sat = Satisfactions.type(clazz);
+                if (!type.isAssignableFrom(sat.getErasedType())) {
+                    throw new ResolutionException(providerName + " not compatible with " + type);
                 }
+            } catch (ClassNotFoundException e) {
+                throw new ResolutionException("cannot find default implementation for " + type, e);
             }
+        }
 
-            String implName = props.getProperty("implementation");
-            if (implName != null) {
-                try {
-                    logger.debug("found implementation {} for {}", implName, type);
-                    Class<?> clazz = classLoader.loadClass(implName);
-                    Satisfaction sat = Satisfactions.type(clazz);
-                    if (!type.isAssignableFrom(sat.getErasedType())) {
-                        throw new ResolutionException(providerName + " not compatible with " + type);
-                    }
-                    builder.setDesire(desire.restrict(sat));
-                    found = true;
-                } catch (ClassNotFoundException e) {
-                    throw new ResolutionException("cannot find default implementation for " + type, e);
-                }
+        if (sat == null) {
+            return null;
+        }
+        String policy = props.get("cachePolicy");
+        return DefaultTemplate.satisfaction(sat,
+                                            policy == null ? CachePolicy.NO_PREFERENCE : CachePolicy.valueOf(policy),
+                                            terminal);
+    }
+
+    /**
+     * A resolved default binding, ready to be applied to desires.
+     */
+    @Immutable
+    private static final class DefaultTemplate {
+        @Nullable
+        private final Satisfaction satisfaction;
+        @Nullable
+        private final Class<?> type;
+        private final CachePolicy policy;
+        private final boolean terminal;
+
+        private DefaultTemplate(@Nullable Satisfaction sat, @Nullable Class<?> type,
+                                CachePolicy policy, boolean terminal) {
+            satisfaction = sat;
+            this.type = type;
+            this.policy = policy;
+            this.terminal = terminal;
+        }
+
+        static DefaultTemplate satisfaction(Satisfaction sat, CachePolicy policy, boolean terminal) {
+            return new DefaultTemplate(sat, null, policy, terminal);
+        }
+
+        static DefaultTemplate type(Class<?> type, CachePolicy policy) {
+            return new DefaultTemplate(null, type, policy, false);
+        }
+
+        static DefaultTemplate nullDefault() {
+            // the null satisfaction depends on the desired type, so it is made in apply()
+            return new DefaultTemplate(null, null, CachePolicy.NO_PREFERENCE, true);
+        }
+
+        BindingResult apply(Desire desire) {
+            Desire restricted;
+            if (satisfaction != null) {
+                restricted = desire.restrict(satisfaction);
+            } else if (type != null) {
+                restricted = desire.restrict(type);
+            } else {
+                restricted = desire.restrict(Satisfactions.nullOfType(desire.getDesiredType()));
+            }
+            BindingResult.Builder bld = BindingResult.newBuilder()
+                                                     .setDesire(restricted)
+                                                     .setCachePolicy(policy);
+            if (terminal) {
+                bld.addFlag(BindingFlag.TERMINAL);
             }
+            return bld.build();
+        }
+    }
 
-            if (found) {
-                String policy = props.getProperty("cachePolicy", "NO_PREFERENCE");
-                builder.setCachePolicy(CachePolicy.valueOf(policy));
+    /**
+     * The defaults of a qualifier type.
+     */
+    @Immutable
+    private static final class QualifierDefaults {
+        @Nullable
+        final DefaultTemplate template;
+        final boolean allowUnqualifiedMatch;
+
+        QualifierDefaults(Class<? extends Annotation> qualifier) {
+            Class<? extends Annotation> annotType = Qualifiers.resolveAliases(qualifier);
+            DefaultTemplate tmpl = makeValueTemplate(annotType);
+            if (tmpl == null) {
+                tmpl = makeAnnotatedTemplate(annotType);
             }
+            template = tmpl;
+            allowUnqualifiedMatch = annotType.isAnnotationPresent(AllowUnqualifiedMatch.class);
+        }
+    }
+
+    /**
+     * Wrapper to carry resolution exceptions out of the META-INF template cache.
+     */
+    private static final class MetaInfException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MetaInfException(ResolutionException cause) {
+            super(cause);
         }
 
-        BindingResult result = found ? builder.build() : null;
-        synchronized (metaInfCache) {
-            metaInfCache.put(type, result);
+        @Override
+        public synchronized ResolutionException getCause() {
+            return (ResolutionException) super.getCause();
         }
-        return result;
     }
 }
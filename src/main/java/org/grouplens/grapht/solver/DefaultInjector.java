@@ -19,17 +19,24 @@
  */
 package org.grouplens.grapht.solver;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.grouplens.grapht.*;
 import org.grouplens.grapht.graph.DAGEdge;
 import org.grouplens.grapht.graph.DAGNode;
 import org.grouplens.grapht.reflect.Desire;
 import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.util.MemoizedValue;
+import org.grouplens.grapht.util.TypedProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.annotation.Annotation;
+import java.util.concurrent.Executor;
 
 /**
  * <p>
@@ -47,6 +54,9 @@ public class DefaultInjector implements Injector {
     
     private final DependencySolver solver;
     private final InjectionContainer instantiator;
+    private final DiagnosticLevel diagnosticLevel;
+    @Nullable
+    private final SolutionCache solutionCache;
 
     /**
      * <p>
@@ -100,17 +110,104 @@ public class DefaultInjector implements Injector {
      * @throws NullPointerException if spi or functions are null
      */
     public DefaultInjector(CachePolicy defaultPolicy, int maxDepth, BindingFunction... functions) {
+        this(defaultPolicy, maxDepth, DiagnosticLevel.FULL, functions);
+    }
+
+    /**
+     * <p>
+     * Create a new DefaultInjector with a specified diagnostic level.  The level controls how much
+     * diagnostic context is recorded while resolving and instantiating components.
+     *
+     * @param defaultPolicy The CachePolicy used in place of NO_PREFERENCE
+     * @param maxDepth The maximum depth of the dependency hierarchy
+     * @param diagnostics The diagnostic level
+     * @param functions The BindingFunctions to use, ordered with highest
+     *            priority functions first
+     * @throws IllegalArgumentException if maxDepth is less than 1, or if
+     *             defaultPolicy is NO_PREFERENCE
+     * @throws NullPointerException if spi or functions are null
+     * @since 0.11
+     */
+    public DefaultInjector(CachePolicy defaultPolicy, int maxDepth, DiagnosticLevel diagnostics,
+                           BindingFunction... functions) {
+        this(defaultPolicy, maxDepth, diagnostics, null, functions);
+    }
+
+    /**
+     * <p>
+     * Create a new DefaultInjector backed by a solution cache.  The cached solution, if usable,
+     * is loaded when the injector is created.  The solution is saved back to the cache by
+     * {@link #saveSolution()}.  The cache should have been created with the same policy, depth and
+     * functions.
+     *
+     * @param defaultPolicy The CachePolicy used in place of NO_PREFERENCE
+     * @param maxDepth The maximum depth of the dependency hierarchy
+     * @param diagnostics The diagnostic level
+     * @param cache The solution cache, or {@code null} to always solve
+     * @param functions The BindingFunctions to use, ordered with highest
+     *            priority functions first
+     * @throws IllegalArgumentException if maxDepth is less than 1, or if
+     *             defaultPolicy is NO_PREFERENCE
+     * @throws NullPointerException if spi or functions are null
+     * @since 0.11
+     */
+    public DefaultInjector(CachePolicy defaultPolicy, int maxDepth, DiagnosticLevel diagnostics,
+                           @Nullable SolutionCache cache, BindingFunction... functions) {
+        this(DependencySolver.newBuilder()
+                             .addBindingFunctions(functions)
+                             .setMaxDepth(maxDepth)
+                             .setDiagnosticLevel(diagnostics)
+                             .build(),
+             makeContainer(defaultPolicy, diagnostics),
+             diagnostics, cache);
+    }
+
+    /**
+     * <p>
+     * Create a new DefaultInjector from a solver and a container.  Injectors whose solvers share
+     * a {@link org.grouplens.grapht.graph.MergePool} and which share a container also share the
+     * memoized instances of identical components.
+     *
+     * @param solver The dependency solver, which should not have resolved any desires yet
+     * @param container The container in which to instantiate components
+     * @param diagnostics The diagnostic level
+     * @param cache The solution cache, or {@code null} to always solve
+     * @see DependencySolverBuilder#setMergePool(org.grouplens.grapht.graph.MergePool)
+     * @since 0.11
+     */
+    public DefaultInjector(DependencySolver solver, InjectionContainer container,
+                           DiagnosticLevel diagnostics, @Nullable SolutionCache cache) {
+        this.solver = solver;
+        instantiator = container;
+        diagnosticLevel = diagnostics;
+        solutionCache = cache;
+        if (cache != null) {
+            cache.load(solver);
+        }
+    }
+    
+    private static InjectionContainer makeContainer(CachePolicy defaultPolicy, DiagnosticLevel diagnostics) {
         if (defaultPolicy.equals(CachePolicy.NO_PREFERENCE)) {
             throw new IllegalArgumentException("Default CachePolicy cannot be NO_PREFERENCE");
         }
+        return InjectionContainer.create(defaultPolicy, MemoizedValue.WaitPolicy.BLOCK, diagnostics);
+    }
 
-        solver = DependencySolver.newBuilder()
-                                 .addBindingFunctions(functions)
-                                 .setMaxDepth(maxDepth)
-                                 .build();
-        instantiator = InjectionContainer.create(defaultPolicy);
+    /**
+     * Save this injector's solution to its solution cache, so injectors built later from the same
+     * configuration can load it instead of solving again.  Each save writes the whole graph, so
+     * call this once the application has requested its components rather than after each
+     * request.  It does nothing if the injector has no solution cache or the solution has not
+     * changed since it was loaded or last saved; failures are logged and otherwise ignored.
+     *
+     * @since 0.11
+     */
+    public synchronized void saveSolution() {
+        if (solutionCache != null) {
+            solutionCache.save(solver);
+        }
     }
-    
+
     /**
      * @return The DependencySolver backing this injector
      */
@@ -124,32 +221,94 @@ public class DefaultInjector implements Injector {
     }
     
     @Override
-    @SuppressWarnings("unchecked")
     public <T> T getInstance(Annotation qualifier, Class<T> type) throws InjectionException {
         // All Provider cache access, graph resolution, etc. occur
         // within this exclusive lock so we know everything is thread safe
         // albeit in a non-optimal way.
         synchronized(this) {
-            Desire desire = Desires.create(qualifier, type, false);
+            return type.cast(resolveInstantiator(qualifier, type).instantiate());
+        }
+    }
 
-            Predicate<Dependency> pred = Dependency.hasInitialDesire(desire);
+    @Override
+    public <T> TypedProvider<T> getProvider(Class<T> type) throws InjectionException {
+        return getProvider(null, type);
+    }
 
-            // check if the desire is already in the graph
-            DAGEdge<Component, Dependency> resolved =
-                    solver.getGraph().getOutgoingEdgeWithLabel(pred);
+    @Override
+    public <T> TypedProvider<T> getProvider(Annotation qualifier, Class<T> type) throws InjectionException {
+        Instantiator itor;
+        synchronized (this) {
+            itor = resolveInstantiator(qualifier, type);
+        }
+        return Instantiators.toProvider(itor, type);
+    }
 
-            // The edge is only non-null if instantiate() has been called before,
-            // it may be present in the graph at a deeper node. If that's the case
-            // it will be properly merged after regenerating the graph at the root context.
-            if (resolved == null) {
-                logger.info("Must resolve desire: {}", desire);
-                solver.resolve(desire);
-                resolved = solver.getGraph().getOutgoingEdgeWithLabel(pred);
+    @Override
+    public <T> ListenableFuture<T> getInstanceAsync(Class<T> type, Executor executor) throws InjectionException {
+        return getInstanceAsync(null, type, executor);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> getInstanceAsync(Annotation qualifier, final Class<T> type,
+                                                    Executor executor) throws InjectionException {
+        ListenableFuture<Object> result;
+        synchronized (this) {
+            result = instantiator.instantiateAsync(resolveNode(qualifier, type), solver.getBackEdges(),
+                                                   executor);
+        }
+        return Futures.transform(result, new Function<Object, T>() {
+            @Override
+            public T apply(@Nullable Object input) {
+                return type.cast(input);
             }
+        });
+    }
+
+    /**
+     * Resolve a desire and look up the instantiator for its node.  Must be called while holding
+     * the lock on this injector.
+     *
+     * @param qualifier The qualifier (may be {@code null}).
+     * @param type The desired type.
+     * @return The instantiator for the resolved node.
+     * @throws ResolutionException if the desire cannot be resolved.
+     */
+    private Instantiator resolveInstantiator(Annotation qualifier, Class<?> type) throws ResolutionException {
+        return instantiator.makeInstantiator(resolveNode(qualifier, type), solver.getBackEdges());
+    }
 
-            // Check if the provider for the resolved node is in our cache
-            DAGNode<Component, Dependency> resolvedNode = resolved.getTail();
-            return type.cast(instantiator.makeInstantiator(resolvedNode, solver.getBackEdges()).instantiate());
+    /**
+     * Resolve a desire to its node in the graph.  Must be called while holding the lock on this
+     * injector.
+     *
+     * @param qualifier The qualifier (may be {@code null}).
+     * @param type The desired type.
+     * @return The node satisfying the desire.
+     * @throws ResolutionException if the desire cannot be resolved.
+     */
+    private DAGNode<Component, Dependency> resolveNode(Annotation qualifier, Class<?> type) throws ResolutionException {
+        Desire desire = Desires.create(qualifier, type, false);
+
+        Predicate<Dependency> pred = Dependency.hasInitialDesire(desire);
+
+        // check if the desire is already in the graph
+        DAGEdge<Component, Dependency> resolved =
+                solver.getGraph().getOutgoingEdgeWithLabel(pred);
+
+        // The edge is only non-null if instantiate() has been called before,
+        // it may be present in the graph at a deeper node. If that's the case
+        // it will be properly merged after regenerating the graph at the root context.
+        if (resolved == null) {
+            if (diagnosticLevel == DiagnosticLevel.FULL) {
+                logger.info("Must resolve desire: {}", desire);
+            } else if (diagnosticLevel == DiagnosticLevel.BASIC) {
+                logger.debug("Must resolve desire: {}", desire);
+            }
+            solver.resolve(desire);
+            resolved = solver.getGraph().getOutgoingEdgeWithLabel(pred);
         }
+
+        return resolved.getTail();
     }
 }
@@ -0,0 +1,268 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The META-INF default bindings visible to a class loader.  Defaults are read from two places:
+ * <ul>
+ * <li>Aggregated indexes at {@value #INDEX_RESOURCE}, holding the defaults for many types.  Each
+ * key is a type's canonical name followed by {@code .implementation}, {@code .provider}, or
+ * {@code .cachePolicy}.  All indexes on the class path are loaded once per class loader and
+ * merged into an immutable map; when several define defaults for the same type, the first
+ * one wins.</li>
+ * <li>Per-type resources at {@value #PER_TYPE_PREFIX}<i>type</i>{@code .properties}, holding the
+ * same properties without the type name.  These are only probed for types that are not in any
+ * index, and the results (including misses) are cached per class loader.</li>
+ * </ul>
+ * <p>{@link #writeIndex(File, File)} aggregates a directory of per-type resources into an index;
+ * build tools can call it directly, or run this class's {@link #main(String[])} method.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class DefaultsIndex {
+    private static final Logger logger = LoggerFactory.getLogger(DefaultsIndex.class);
+    /**
+     * The name of aggregated default index resources.
+     */
+    public static final String INDEX_RESOURCE = "META-INF/grapht/defaults.properties";
+    /**
+     * The prefix of per-type default resources.
+     */
+    public static final String PER_TYPE_PREFIX = "META-INF/grapht/defaults/";
+    private static final String PER_TYPE_SUFFIX = ".properties";
+
+    private static final LoadingCache<ClassLoader, DefaultsIndex> indexes =
+            CacheBuilder.newBuilder()
+                        .weakKeys()
+                        .build(new CacheLoader<ClassLoader, DefaultsIndex>() {
+                            @Override
+                            public DefaultsIndex load(@Nonnull ClassLoader loader) {
+                                return new DefaultsIndex(loader, loadIndexes(loader));
+                            }
+                        });
+
+    // the loader is held weakly, so the index does not pin it in the cache
+    private final WeakReference<ClassLoader> loaderRef;
+    private final Map<String, Map<String, String>> indexed;
+    private final Map<String, Optional<Map<String, String>>> perType =
+            new ConcurrentHashMap<String, Optional<Map<String, String>>>();
+
+    private DefaultsIndex(ClassLoader loader, Map<String, Map<String, String>> idx) {
+        loaderRef = new WeakReference<ClassLoader>(loader);
+        indexed = idx;
+    }
+
+    /**
+     * Get the defaults index for a class loader.
+     * @param loader The class loader.
+     * @return The defaults visible to {@code loader}.
+     */
+    static DefaultsIndex forClassLoader(@Nonnull ClassLoader loader) {
+        return indexes.getUnchecked(loader);
+    }
+
+    /**
+     * Get the default-binding properties of a type.
+     *
+     * @param typeName The type's canonical name (may be {@code null}).
+     * @return The type's default properties ({@code implementation}, {@code provider}, and
+     * {@code cachePolicy}), or {@code null} if it has no META-INF defaults.
+     * @throws IOException if there is an error reading a per-type resource.
+     */
+    @Nullable
+    Map<String, String> getDefaults(@Nullable String typeName) throws IOException {
+        if (typeName == null) {
+            // anonymous and local classes have no canonical name
+            return null;
+        }
+        Map<String, String> props = indexed.get(typeName);
+        if (props != null) {
+            return props;
+        }
+        Optional<Map<String, String>> cached = perType.get(typeName);
+        if (cached == null) {
+            cached = Optional.fromNullable(readPerType(typeName));
+            perType.put(typeName, cached);
+        }
+        return cached.orNull();
+    }
+
+    /**
+     * @return The number of types with indexed defaults.
+     */
+    int getIndexedTypeCount() {
+        return indexed.size();
+    }
+
+    @Nullable
+    private Map<String, String> readPerType(String typeName) throws IOException {
+        ClassLoader loader = loaderRef.get();
+        if (loader == null) {
+            return null;
+        }
+        String resourceName = PER_TYPE_PREFIX + typeName + PER_TYPE_SUFFIX;
+        logger.debug("searching for defaults in {}", resourceName);
+        URL url = loader.getResource(resourceName);
+        if (url == null) {
+            return null;
+        }
+        Properties props = readProperties(url);
+        return ImmutableMap.copyOf(Maps.fromProperties(props));
+    }
+
+    private static Map<String, Map<String, String>> loadIndexes(ClassLoader loader) {
+        Map<String, Map<String, String>> defaults = new HashMap<String, Map<String, String>>();
+        Enumeration<URL> urls;
+        try {
+            urls = loader.getResources(INDEX_RESOURCE);
+        } catch (IOException e) {
+            logger.warn("cannot list default indexes: {}", e.toString());
+            return ImmutableMap.of();
+        }
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            Map<String, Map<String, String>> single;
+            try {
+                single = parseIndex(readProperties(url));
+            } catch (IOException e) {
+                logger.warn("cannot read default index {}: {}", url, e.toString());
+                continue;
+            }
+            for (Map.Entry<String, Map<String, String>> e: single.entrySet()) {
+                if (!defaults.containsKey(e.getKey())) {
+                    defaults.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        logger.debug("loaded indexed defaults for {} types", defaults.size());
+        return ImmutableMap.copyOf(defaults);
+    }
+
+    /**
+     * Split the flat properties of an index into per-type properties.
+     */
+    private static Map<String, Map<String, String>> parseIndex(Properties props) {
+        Map<String, Map<String, String>> types = new HashMap<String, Map<String, String>>();
+        for (String key: props.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (dot <= 0) {
+                logger.debug("ignoring malformed default index key {}", key);
+                continue;
+            }
+            String type = key.substring(0, dot);
+            Map<String, String> tprops = types.get(type);
+            if (tprops == null) {
+                tprops = new HashMap<String, String>();
+                types.put(type, tprops);
+            }
+            tprops.put(key.substring(dot + 1), props.getProperty(key));
+        }
+        Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+        for (Map.Entry<String, Map<String, String>> e: types.entrySet()) {
+            result.put(e.getKey(), ImmutableMap.copyOf(e.getValue()));
+        }
+        return result;
+    }
+
+    private static Properties readProperties(URL url) throws IOException {
+        Properties props = new Properties();
+        InputStream istr = url.openStream();
+        try {
+            props.load(istr);
+        } finally {
+            istr.close();
+        }
+        return props;
+    }
+
+    /**
+     * Aggregate a directory of per-type default resources into an index.
+     *
+     * @param args Two arguments: the directory of per-type resources (usually a
+     *             {@code META-INF/grapht/defaults} directory), and the index file to write.
+     * @throws IllegalArgumentException if the wrong number of arguments is given.
+     * @throws IOException if there is an error reading the resources or writing the index.
+     * @see #writeIndex(File, File)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: DefaultsIndex DEFAULTS-DIR INDEX-FILE");
+        }
+        writeIndex(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Aggregate a directory of per-type default resources into an index.
+     *
+     * @param dir The directory of per-type resources (usually a {@code META-INF/grapht/defaults}
+     *            directory).
+     * @param out The index file to write.  Its parent directory is created if necessary.
+     * @throws IOException if there is an error reading the resources or writing the index.
+     */
+    public static void writeIndex(File dir, File out) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new FileNotFoundException(dir.toString());
+        }
+        Arrays.sort(files);
+        Properties index = new Properties();
+        for (File file: files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(PER_TYPE_SUFFIX)) {
+                continue;
+            }
+            String type = name.substring(0, name.length() - PER_TYPE_SUFFIX.length());
+            Properties props = readProperties(file.toURI().toURL());
+            for (String key: props.stringPropertyNames()) {
+                index.setProperty(type + "." + key, props.getProperty(key));
+            }
+        }
+        File parent = out.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create " + parent);
+        }
+        OutputStream ostr = new FileOutputStream(out);
+        try {
+            index.store(ostr, "grapht default bindings");
+        } finally {
+            ostr.close();
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.grouplens.grapht.CachePolicy;
 import org.grouplens.grapht.Component;
 import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.DiagnosticLevel;
 import org.grouplens.grapht.ResolutionException;
 import org.grouplens.grapht.graph.DAGEdge;
 import org.grouplens.grapht.graph.DAGNode;
@@ -82,13 +83,16 @@ public class DependencySolver {
 
     private final int maxDepth;
     private final CachePolicy defaultPolicy;
+    private final DiagnosticLevel diagnosticLevel;
+    private final boolean leanGraph;
 
     private final List<BindingFunction> functions;
     private final List<BindingFunction> triggerFunctions;
     
     private DAGNode<Component,Dependency> graph;
     private SetMultimap<DAGNode<Component,Dependency>, DAGEdge<Component,Dependency>> backEdges;
-    private MergePool<Component,Dependency> mergePool;
+    private final MergePool<Component,Dependency> mergePool;
+    private final boolean sharedPool;
 
     /**
      * Create a DependencySolver that uses the given functions, and max
@@ -97,14 +101,20 @@ public class DependencySolver {
      * @param bindFunctions The binding functions that control desire bindings
      * @param maxDepth A maximum depth of the graph before it's determined that
      *            a cycle exists
+     * @param diagnostics How much to log about individual resolutions
+     * @param lean Whether to compact the desire chains of resolved dependencies
+     * @param pool The merge pool to use, or {@code null} to create a new pool
      * @throws IllegalArgumentException if maxDepth is less than 1
      * @throws NullPointerException if bindFunctions is null
      */
     DependencySolver(List<BindingFunction> bindFunctions,
                      List<BindingFunction> triggers,
-                     CachePolicy defaultPolicy, int maxDepth) {
+                     CachePolicy defaultPolicy, int maxDepth,
+                     DiagnosticLevel diagnostics, boolean lean,
+                     MergePool<Component,Dependency> pool) {
         Preconditions.notNull("bindFunctions", bindFunctions);
         Preconditions.notNull("defaultPolicy", defaultPolicy);
+        Preconditions.notNull("diagnostics", diagnostics);
         if (maxDepth <= 0) {
             throw new IllegalArgumentException("Max depth must be at least 1");
         }
@@ -113,10 +123,13 @@ public class DependencySolver {
         this.triggerFunctions = new ArrayList<BindingFunction>(triggers);
         this.maxDepth = maxDepth;
         this.defaultPolicy = defaultPolicy;
+        this.diagnosticLevel = diagnostics;
+        this.leanGraph = lean;
         
         graph = DAGNode.singleton(ROOT_SATISFACTION);
         backEdges = HashMultimap.create();
-        mergePool = MergePool.create();
+        sharedPool = pool != null;
+        mergePool = sharedPool ? pool : MergePool.<Component,Dependency>create();
 
         logger.info("DependencySolver created, max depth: {}", maxDepth);
     }
@@ -167,6 +180,39 @@ public class DependencySolver {
                              .orNull();
     }
 
+    /**
+     * Seed this solver with a previously-solved graph, such as one read back with
+     * {@link GraphCodec}.  The graph is merged into the solver's merge pool, so subsequent
+     * calls to {@link #resolve(Desire)} reuse its nodes just as if the solver had produced them.
+     *
+     * @param solved    The solved graph.  Its root must be labeled with {@link #ROOT_SATISFACTION}.
+     *                  If it has back edges, merging must not change it.
+     * @param solvedBackEdges The back edges of the solved graph.
+     * @throws IllegalStateException if this solver has already resolved desires.
+     * @throws IllegalArgumentException if the graph is not a full dependency graph, or if it has
+     *                                  back edges and is changed by merging.
+     * @since 0.11
+     */
+    public synchronized void seed(DAGNode<Component,Dependency> solved,
+                                  SetMultimap<DAGNode<Component,Dependency>, DAGEdge<Component,Dependency>> solvedBackEdges) {
+        Preconditions.notNull("graph", solved);
+        Preconditions.notNull("back edges", solvedBackEdges);
+        if (!graph.getOutgoingEdges().isEmpty()) {
+            throw new IllegalStateException("solver has already resolved desires");
+        }
+        if (!solved.getLabel().equals(ROOT_SATISFACTION)) {
+            throw new IllegalArgumentException("only full dependency graphs can be seeded");
+        }
+
+        DAGNode<Component,Dependency> merged = mergePool.merge(solved);
+        if (merged != solved && !solvedBackEdges.isEmpty()) {
+            // the back edges refer to the unmerged nodes, so we cannot safely use this graph
+            throw new IllegalArgumentException("graph with back edges is changed by merging");
+        }
+        graph = merged;
+        backEdges = HashMultimap.create(solvedBackEdges);
+    }
+
     /**
      * Get the root node.
      * @deprecated Use {@link #getGraph()} instead.
@@ -184,7 +230,11 @@ public class DependencySolver {
      * @param desire The desire to include in the graph
      */
     public synchronized void resolve(Desire desire) throws ResolutionException {
-        logger.info("Resolving desire: {}", desire);
+        if (diagnosticLevel == DiagnosticLevel.FULL) {
+            logger.info("Resolving desire: {}", desire);
+        } else if (diagnosticLevel == DiagnosticLevel.BASIC) {
+            logger.debug("Resolving desire: {}", desire);
+        }
 
         Queue<Deferral> deferralQueue = new ArrayDeque<Deferral>();
 
@@ -272,11 +322,18 @@ public class DependencySolver {
 
     /**
      * Rewrite a dependency graph using the rules in this solver.  The accumulated global graph and
-     * back edges are ignored and not modified.
-     * <p>Graph rewrite walks the graph, looking for nodes to rewrite.  If the desire that leads
-     * to a node is matched by a trigger binding function, then it is resolved using the binding
-     * functions and replaced with the resulting (merged) node.  Rewriting proceeds from the root
-     * down, but does not consider the children of nodes generated by the rewriting process.</p>
+     * back edges are ignored and not modified.  If the solver was built with a shared merge pool
+     * (see {@link DependencySolverBuilder#setMergePool(MergePool)}), the rewritten graph is merged
+     * into that pool; otherwise a fresh pool is used, and the solver is left untouched.
+     * <p>Graph rewrite walks the graph, looking for nodes to rewrite.  If any desire in the chain
+     * that leads to a node (the initial desire, or one produced by applying rules) is matched by
+     * a trigger binding function, then the initial desire is resolved using the binding functions
+     * and replaced with the resulting (merged) node.  Rewriting proceeds from the root down, but
+     * does not consider the children of nodes generated by the rewriting process.</p>
+     * <p>Before 0.11, only the initial desire was checked against the trigger functions.  The
+     * edges of {@linkplain DependencySolverBuilder#setLeanGraph(boolean) lean graphs} keep only
+     * their initial and final desires, so a trigger rule that matches only an intermediate desire
+     * does not cause a lean edge to be rewritten.</p>
      *
      * @param graph The graph to rewrite.
      * @return A rewritten version of the graph.
@@ -287,6 +344,10 @@ public class DependencySolver {
         }
 
         logger.debug("rewriting graph with {} nodes", graph.getReachableNodes().size());
+        if (leanGraph) {
+            logger.debug("solver builds lean graphs; trigger rules matching only intermediate desires " +
+                         "will not rewrite lean edges");
+        }
         // We proceed in three stages.
         Map<DAGEdge<Component, Dependency>, DAGEdge<Component,Dependency>> replacementSubtrees =
                 Maps.newHashMap();
@@ -299,8 +360,9 @@ public class DependencySolver {
 
         logger.debug("merging rewritten graph");
         // Now we have a graph (stage2) with rewritten subtrees based on trigger rules
-        // We merge this graph with the original to deduplicate.
-        MergePool<Component,Dependency> pool = MergePool.create();
+        // We merge this graph with the original to deduplicate.  A shared pool also shares the
+        // nodes with other solvers; a private pool must not keep rewritten graphs around.
+        MergePool<Component,Dependency> pool = sharedPool ? mergePool : MergePool.<Component,Dependency>create();
         pool.merge(graph);
         return pool.merge(stage2);
     }
@@ -320,17 +382,12 @@ public class DependencySolver {
         for (DAGEdge<Component, Dependency> edge: root.getOutgoingEdges()) {
             logger.debug("considering {} for replacement", edge.getTail().getLabel());
             Desire desire = edge.getLabel().getDesireChain().getInitialDesire();
-            DesireChain chain = DesireChain.singleton(desire);
             Pair<DAGNode<Component, Dependency>, Dependency> repl = null;
             if (!edge.getLabel().isFixed()) {
-                for (BindingFunction bf: triggerFunctions) {
-                    BindingResult result = bf.bind(context, chain);
-                    if (result != null) {
-                        // resolve the node
-                        // we could reuse the resolution, but perf savings isn't worth complexity
-                        repl = resolveFully(desire, context, null);
-                        break;
-                    }
+                if (isTriggered(context, edge.getLabel().getDesireChain())) {
+                    // resolve the node
+                    // we could reuse the resolution, but perf savings isn't worth complexity
+                    repl = resolveFully(desire, context, null);
                 }
             } else {
                 logger.debug("{} is fixed, skipping", edge.getTail().getLabel());
@@ -347,14 +404,42 @@ public class DependencySolver {
                 walkGraphForReplacements(edge.getTail(), next, replacements);
             } else {
                 // trigger binding, add a replacement
-                logger.info("replacing {} with {}",
-                            edge.getTail().getLabel(),
-                            repl.getLeft().getLabel());
+                if (diagnosticLevel == DiagnosticLevel.FULL) {
+                    logger.info("replacing {} with {}",
+                                edge.getTail().getLabel(),
+                                repl.getLeft().getLabel());
+                } else if (diagnosticLevel == DiagnosticLevel.BASIC) {
+                    logger.debug("replacing {} with {}",
+                                 edge.getTail().getLabel(),
+                                 repl.getLeft().getLabel());
+                }
                 replacements.put(edge, DAGEdge.create(root, repl.getLeft(), repl.getRight()));
             }
         }
     }
 
+    /**
+     * Check whether a trigger binding function applies to any desire in a desire chain.  Checking
+     * the intermediate desires as well as the initial one catches trigger rules that would apply
+     * only after other rules have been applied.  Compacted (lean) chains no longer have their
+     * intermediate desires, so such rules are missed for them.
+     *
+     * @param context The context of the desire chain.
+     * @param chain The desire chain that led to a node.
+     * @return {@code true} if the node should be re-resolved.
+     */
+    private boolean isTriggered(InjectionContext context, DesireChain chain) throws ResolutionException {
+        for (Desire d: chain) {
+            DesireChain single = DesireChain.singleton(d);
+            for (BindingFunction bf: triggerFunctions) {
+                if (bf.bind(context, single) != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Resolve a desire and its dependencies, inserting them into the graph.
      *
@@ -377,6 +462,12 @@ public class DependencySolver {
 
         DAGNode<Component, Dependency> node;
         if (result.deferDependencies) {
+            if (sharedPool) {
+                // deferred nodes are merged before their back edges exist, so another solver
+                // sharing the pool could pick up this node with the wrong back edges
+                throw new ResolutionException("cannot defer dependencies of " + result.satisfaction
+                                              + " with a shared merge pool");
+            }
             // extend node onto deferred queue and skip its dependencies for now
             logger.debug("Deferring dependencies of {}", result.satisfaction);
             node = DAGNode.singleton(result.makeSatisfaction());
@@ -432,7 +523,11 @@ public class DependencySolver {
             }
             
             if (terminate && chain.getCurrentDesire().isInstantiable()) {
-                logger.info("Satisfied {} with {}", desire, chain.getCurrentDesire().getSatisfaction());
+                if (diagnosticLevel == DiagnosticLevel.FULL) {
+                    logger.info("Satisfied {} with {}", desire, chain.getCurrentDesire().getSatisfaction());
+                } else if (diagnosticLevel == DiagnosticLevel.BASIC) {
+                    logger.debug("Satisfied {} with {}", desire, chain.getCurrentDesire().getSatisfaction());
+                }
                 
                 // update cache policy if a specific policy hasn't yet been selected
                 if (policy.equals(CachePolicy.NO_PREFERENCE)) {
@@ -442,6 +537,9 @@ public class DependencySolver {
                     }
                 }
                 
+                if (leanGraph) {
+                    chain = chain.compact();
+                }
                 return new Resolution(chain.getCurrentDesire().getSatisfaction(), policy, chain, fixed, defer);
             } else if (binding == null) {
                 // no more desires to process, it cannot be satisfied
@@ -20,9 +20,14 @@
 package org.grouplens.grapht.solver;
 
 import org.grouplens.grapht.CachePolicy;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.DiagnosticLevel;
+import org.grouplens.grapht.graph.MergePool;
 import org.grouplens.grapht.util.Preconditions;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -40,6 +45,9 @@ public class DependencySolverBuilder {
     private List<BindingFunction> triggerFunctions = new LinkedList<BindingFunction>();
     private CachePolicy defaultPolicy = CachePolicy.NO_PREFERENCE;
     private int maxDepth = 100;
+    private DiagnosticLevel diagnosticLevel = DiagnosticLevel.FULL;
+    private boolean leanGraph = false;
+    private MergePool<Component,Dependency> mergePool;
 
     /**
      * Get the current list of binding functions.
@@ -51,7 +59,8 @@ public class DependencySolverBuilder {
 
     /**
      * Get the current list of trigger binding functions.  These are the binding functions for which
-     * {@code canTriggerRewrite} is {@code true} in {@link #addBindingFunction(BindingFunction,boolean)}.
+     * {@code canTriggerRewrite} is {@code true} in {@link #addBindingFunction(BindingFunction,boolean)},
+     * and the functions added with {@link #addTriggerFunction(BindingFunction)}.
      *
      * @return The current list of trigger binding functions.
      */
@@ -90,6 +99,23 @@ public class DependencySolverBuilder {
         return this;
     }
 
+    /**
+     * Add a trigger function that is only used to decide what to re-resolve when rewriting a
+     * graph.  Unlike functions added with {@link #addBindingFunction(BindingFunction, boolean)},
+     * it is not used to resolve desires, so the binding functions alone determine the result of
+     * re-resolution.
+     *
+     * @param func The trigger function.
+     * @return The builder (for chaining).
+     * @see DependencySolver#rewrite(org.grouplens.grapht.graph.DAGNode)
+     * @since 0.11
+     */
+    public DependencySolverBuilder addTriggerFunction(@Nonnull BindingFunction func) {
+        Preconditions.notNull("trigger function", func);
+        triggerFunctions.add(func);
+        return this;
+    }
+
     /**
      * Add multiple binding function to the dependency solver.
      * @param funcs The binding functions.
@@ -152,11 +178,100 @@ public class DependencySolverBuilder {
         return this;
     }
 
+    /**
+     * Get the diagnostic level.
+     * @return The diagnostic level for the solver.
+     */
+    public DiagnosticLevel getDiagnosticLevel() {
+        return diagnosticLevel;
+    }
+
+    /**
+     * Set the diagnostic level for the solver.  At {@link DiagnosticLevel#FULL} (the default),
+     * each resolved desire is logged at info level; at {@link DiagnosticLevel#BASIC}, at debug
+     * level; and at {@link DiagnosticLevel#OFF}, not at all.
+     * @param level The diagnostic level.
+     * @return The builder (for chaining).
+     * @since 0.11
+     */
+    public DependencySolverBuilder setDiagnosticLevel(@Nonnull DiagnosticLevel level) {
+        Preconditions.notNull("diagnostic level", level);
+        diagnosticLevel = level;
+        return this;
+    }
+
+    /**
+     * Query whether the solver will build lean graphs.
+     * @return {@code true} if the solver will compact the desire chains on graph edges.
+     * @see #setLeanGraph(boolean)
+     * @since 0.11
+     */
+    public boolean isLeanGraph() {
+        return leanGraph;
+    }
+
+    /**
+     * Configure the solver to build lean graphs.  The {@link org.grouplens.grapht.Dependency}
+     * on each edge of a lean graph keeps only the initial and final desires of its desire chain,
+     * dropping the intermediate desires that binding followed.  This makes long-lived graphs
+     * smaller, at the cost of less detail for diagnostics.  It also affects
+     * {@linkplain DependencySolver#rewrite(org.grouplens.grapht.graph.DAGNode) rewriting}: trigger
+     * rules are checked against every desire in an edge's chain, so a trigger that matches only an
+     * intermediate desire rewrites the edge in a full graph but not in a lean one.  Do not use lean
+     * graphs that will be rewritten with such triggers.  The default is {@code false}.
+     *
+     * @param lean {@code true} to build lean graphs.
+     * @return The builder (for chaining).
+     * @see DesireChain#compact()
+     * @since 0.11
+     */
+    public DependencySolverBuilder setLeanGraph(boolean lean) {
+        leanGraph = lean;
+        return this;
+    }
+
+    /**
+     * Get the merge pool the solver will use.
+     * @return The shared merge pool, or {@code null} if the solver will use its own pool.
+     * @see #setMergePool(MergePool)
+     * @since 0.11
+     */
+    @Nullable
+    public MergePool<Component,Dependency> getMergePool() {
+        return mergePool;
+    }
+
+    /**
+     * Set the merge pool into which the solver merges resolved graphs.  Solvers that share a
+     * merge pool reuse each other's nodes for identical subgraphs, so a container shared by
+     * their injectors builds each such component only once.  By default, each solver has its
+     * own pool.  Solvers with a shared pool cannot defer dependencies, so they do not support
+     * provider injection.
+     * <p>
+     * The configurations of solvers sharing a pool can wire the same components differently, so
+     * the pool must distinguish edges; create it with
+     * {@link MergePool#create(com.google.common.base.Function)} and
+     * {@link Dependency#extractInitialDesire()}.
+     *
+     * @param pool The merge pool, or {@code null} to use a private pool.
+     * @return The builder (for chaining).
+     * @throws IllegalArgumentException if the pool ignores edge labels.
+     * @since 0.11
+     */
+    public DependencySolverBuilder setMergePool(@Nullable MergePool<Component,Dependency> pool) {
+        if (pool != null && !pool.isEdgeKeyed()) {
+            throw new IllegalArgumentException("shared merge pools must distinguish edges");
+        }
+        mergePool = pool;
+        return this;
+    }
+
     /**
      * Build a dependency solver.
      * @return The dependency solver.
      */
     public DependencySolver build() {
-        return new DependencySolver(bindingFunctions, triggerFunctions, defaultPolicy, maxDepth);
+        return new DependencySolver(bindingFunctions, triggerFunctions, defaultPolicy, maxDepth,
+                                    diagnosticLevel, leanGraph, mergePool);
     }
 }
@@ -27,7 +27,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A sequence of desires.  When one desire is resolved, that resolution can be a desire that needs
@@ -46,6 +48,12 @@ public class DesireChain extends AbstractChain<Desire> {
     private final Desire initialDesire;
     private final UUID key;
 
+    /**
+     * Random high bits for chain keys, chosen once so keys from different JVMs are unlikely to collide.
+     */
+    private static final long KEY_PREFIX = new Random().nextLong();
+    private static final AtomicLong KEY_COUNTER = new AtomicLong();
+
     public static DesireChain singleton(Desire desire) {
         return new DesireChain(null, desire);
     }
@@ -56,11 +64,23 @@ public class DesireChain extends AbstractChain<Desire> {
      * @param d The desire.
      */
     private DesireChain(DesireChain prev, @Nonnull Desire d) {
+        this(prev, d, prev == null ? nextKey() : prev.key);
+    }
+
+    private DesireChain(DesireChain prev, @Nonnull Desire d, UUID k) {
         super(prev, d);
-        key = prev == null ? UUID.randomUUID() : prev.key;
+        key = k;
         initialDesire = prev == null ? d : prev.getInitialDesire();
     }
 
+    /**
+     * Make a new chain key.  This is much cheaper than {@link UUID#randomUUID()}, which draws from
+     * a secure random number generator every time.
+     */
+    private static UUID nextKey() {
+        return new UUID(KEY_PREFIX, KEY_COUNTER.incrementAndGet());
+    }
+
     public static Predicate<DesireChain> hasInitialDesire(final Desire d) {
         return new Predicate<DesireChain>() {
             @Override
@@ -115,4 +135,22 @@ public class DesireChain extends AbstractChain<Desire> {
     public DesireChain extend(@Nonnull Desire d) {
         return new DesireChain(this, d);
     }
+
+    /**
+     * Get a compact version of this chain, containing only its initial and current desires.  The
+     * compacted chain has the same key as this chain.  Graph rewriting checks trigger rules
+     * against intermediate desires as well, so it cannot see them in a compacted chain.
+     *
+     * @return A chain with the initial and current desires of this chain, or this chain if it
+     * has no intermediate desires.
+     * @since 0.11
+     */
+    @Nonnull
+    public DesireChain compact() {
+        if (length <= 2) {
+            return this;
+        }
+        DesireChain first = new DesireChain(null, initialDesire, key);
+        return new DesireChain(first, tailValue, key);
+    }
 }
@@ -0,0 +1,505 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.graph.DAGNodeBuilder;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.InjectionPoint;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.util.ClassProxy;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.util.*;
+
+/**
+ * Compact binary encoding for solved dependency graphs.
+ * <p>
+ * Default Java serialization writes a solved graph as a deep tree of objects, with a separate
+ * serialization proxy for every class, member, desire and satisfaction it references.  This codec
+ * writes the graph's nodes in topological order, referring to nodes by index, and keeps tables of
+ * strings, classes, satisfactions, injection points, desires and labels so that each is written
+ * once; later uses are written as table references.  Each class is written once as a
+ * {@link ClassProxy}, so its checksum is written and verified once.  Labels the codec does not
+ * understand (such as instance satisfactions and qualifier annotations) are embedded with Java
+ * serialization.  The encoding of individual labels is shared with {@link MappedGraph}.
+ * <p>
+ * The codec writes and reads one record at a time, so neither direction buffers the whole
+ * encoded graph.  The back edges produced by {@link DependencySolver#getBackEdges()} are written
+ * with the graph.  {@link #read(InputStream)} also reads a graph written with plain Java
+ * serialization of its root node, so code can migrate from that form.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public final class GraphCodec {
+    /**
+     * The magic number at the start of an encoded graph ({@code GRPH}).
+     */
+    static final int MAGIC = 0x47525048;
+    /**
+     * The current format version.
+     */
+    static final int FORMAT_VERSION = 2;
+    /**
+     * The first bytes of a Java serialization stream.
+     */
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+    private GraphCodec() {}
+
+    /**
+     * Write a graph with no back edges.
+     *
+     * @param graph The graph to write.
+     * @param out   The output stream.  It is flushed, but not closed.
+     * @throws IOException if there is an error writing the graph.
+     */
+    public static void write(DAGNode<Component, Dependency> graph, OutputStream out) throws IOException {
+        write(graph, ImmutableSetMultimap.<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>>of(), out);
+    }
+
+    /**
+     * Write a graph and its back edges.
+     *
+     * @param graph     The graph to write.
+     * @param backEdges The back edges of the graph.  Their heads and tails must be reachable from
+     *                  {@code graph}.
+     * @param out       The output stream.  It is flushed, but not closed.
+     * @throws IOException if there is an error writing the graph.
+     */
+    public static void write(DAGNode<Component, Dependency> graph,
+                             SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                             OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(FORMAT_VERSION);
+        header.flush();
+
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        new Writer(oos).writeGraph(graph, backEdges);
+        oos.flush();
+    }
+
+    /**
+     * Read a graph.  The stream may contain a graph written by {@link #write(DAGNode, SetMultimap,
+     * OutputStream)} or a root node written with Java serialization.
+     *
+     * @param in The input stream.  It is not closed.
+     * @return The graph and its back edges.
+     * @throws IOException            if there is an error reading the graph.
+     * @throws ClassNotFoundException if a class referenced by the graph cannot be resolved.
+     */
+    @SuppressWarnings("unchecked")
+    public static Solution read(InputStream in) throws IOException, ClassNotFoundException {
+        InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
+        DataInputStream header = new DataInputStream(input);
+        input.mark(2);
+        int start = header.readUnsignedShort();
+        if (start == JAVA_SERIALIZATION_MAGIC) {
+            input.reset();
+            ObjectInputStream ois = new ObjectInputStream(input);
+            DAGNode<Component, Dependency> graph = (DAGNode<Component, Dependency>) ois.readObject();
+            return new Solution(graph, ImmutableSetMultimap.<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>>of());
+        }
+
+        int magic = (start << 16) | header.readUnsignedShort();
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException("not an encoded graph");
+        }
+        int version = header.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("unsupported graph format version " + version);
+        }
+        ObjectInputStream ois = new ObjectInputStream(input);
+        return new Reader(ois).readGraph();
+    }
+
+    /**
+     * A graph read by {@link GraphCodec#read(InputStream)}.
+     */
+    @Immutable
+    public static final class Solution {
+        private final DAGNode<Component, Dependency> graph;
+        private final SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges;
+
+        Solution(DAGNode<Component, Dependency> g,
+                 SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> back) {
+            graph = g;
+            backEdges = ImmutableSetMultimap.copyOf(back);
+        }
+
+        /**
+         * Get the root of the graph.
+         * @return The graph's root node.
+         */
+        @Nonnull
+        public DAGNode<Component, Dependency> getGraph() {
+            return graph;
+        }
+
+        /**
+         * Get the back edges of the graph.
+         * @return The back edges, keyed by their head nodes.
+         */
+        @Nonnull
+        public SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> getBackEdges() {
+            return backEdges;
+        }
+    }
+
+    /**
+     * Write a variable-length unsigned integer.
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /**
+     * Read a variable-length unsigned integer.
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new StreamCorruptedException("invalid variable-length integer");
+            }
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * A table of values written so far.  A reference to a value is its index in the table; a
+     * value is defined, and added to the table, the first time it is referenced.
+     */
+    private static final class WriteTable {
+        private final Map<Object, Integer> ids = new HashMap<Object, Integer>();
+
+        /**
+         * Write a reference to a value.
+         * @return {@code true} if the value is new, and its definition must follow.
+         */
+        boolean writeRef(DataOutput out, Object value) throws IOException {
+            Integer id = ids.get(value);
+            if (id != null) {
+                writeVarInt(out, id);
+                return false;
+            } else {
+                id = ids.size();
+                writeVarInt(out, id);
+                ids.put(value, id);
+                return true;
+            }
+        }
+    }
+
+    private static final class Writer extends LabelEncoding.Encoder {
+        private final ObjectOutputStream oos;
+        private final WriteTable strings = new WriteTable();
+        private final WriteTable classes = new WriteTable();
+        private final WriteTable satisfactions = new WriteTable();
+        private final WriteTable injectionPoints = new WriteTable();
+        private final WriteTable desires = new WriteTable();
+        private final WriteTable components = new WriteTable();
+        private final WriteTable dependencies = new WriteTable();
+
+        Writer(ObjectOutputStream out) {
+            super(out);
+            oos = out;
+        }
+
+        void writeGraph(DAGNode<Component, Dependency> graph,
+                        SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) throws IOException {
+            // sorted nodes come before the nodes that depend on them, with the root last
+            List<DAGNode<Component, Dependency>> nodes = graph.getSortedNodes();
+            Map<DAGNode<Component, Dependency>, Integer> index =
+                    new IdentityHashMap<DAGNode<Component, Dependency>, Integer>();
+            writeVarInt(out, nodes.size());
+            for (DAGNode<Component, Dependency> node: nodes) {
+                writeComponentRef(node.getLabel());
+                writeVarInt(out, node.getOutgoingEdges().size());
+                for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                    writeVarInt(out, index.get(edge.getTail()));
+                    writeDependencyRef(edge.getLabel());
+                }
+                index.put(node, index.size());
+            }
+
+            writeVarInt(out, backEdges.size());
+            for (DAGEdge<Component, Dependency> edge: backEdges.values()) {
+                writeVarInt(out, nodeIndex(index, edge.getHead()));
+                writeVarInt(out, nodeIndex(index, edge.getTail()));
+                writeDependencyRef(edge.getLabel());
+            }
+        }
+
+        private int nodeIndex(Map<DAGNode<Component, Dependency>, Integer> index,
+                              DAGNode<Component, Dependency> node) {
+            Integer idx = index.get(node);
+            if (idx == null) {
+                throw new IllegalArgumentException("back edge node " + node + " not in graph");
+            }
+            return idx;
+        }
+
+        private void writeComponentRef(Component comp) throws IOException {
+            if (components.writeRef(out, comp)) {
+                encodeComponent(comp);
+            }
+        }
+
+        private void writeDependencyRef(Dependency dep) throws IOException {
+            if (dependencies.writeRef(out, dep)) {
+                encodeDependency(dep);
+            }
+        }
+
+        @Override
+        protected void writeStringRef(String str) throws IOException {
+            if (strings.writeRef(out, str)) {
+                out.writeUTF(str);
+            }
+        }
+
+        @Override
+        protected void writeClassRef(Class<?> type) throws IOException {
+            if (classes.writeRef(out, type)) {
+                encodeClass(type);
+            }
+        }
+
+        @Override
+        protected void writeSatisfactionRef(Satisfaction sat) throws IOException {
+            if (satisfactions.writeRef(out, sat)) {
+                encodeSatisfaction(sat);
+            }
+        }
+
+        @Override
+        protected void writeOptionalSatisfactionRef(@Nullable Satisfaction sat) throws IOException {
+            out.writeBoolean(sat != null);
+            if (sat != null) {
+                writeSatisfactionRef(sat);
+            }
+        }
+
+        @Override
+        protected void writeInjectionPointRef(InjectionPoint ip) throws IOException {
+            if (injectionPoints.writeRef(out, ip)) {
+                encodeInjectionPoint(ip);
+            }
+        }
+
+        @Override
+        protected void writeDesireRef(Desire desire) throws IOException {
+            if (desires.writeRef(out, desire)) {
+                encodeDesire(desire);
+            }
+        }
+
+        @Override
+        protected void writeQualifier(@Nullable Annotation qualifier) throws IOException {
+            oos.writeObject(qualifier);
+        }
+
+        @Override
+        protected void writeEmbedded(Object obj) throws IOException {
+            oos.writeObject(obj);
+        }
+    }
+
+    private static final class Reader extends LabelEncoding.Decoder {
+        private final ObjectInputStream ois;
+        private final List<String> strings = new ArrayList<String>();
+        private final List<Class<?>> classes = new ArrayList<Class<?>>();
+        private final List<Satisfaction> satisfactions = new ArrayList<Satisfaction>();
+        private final List<InjectionPoint> injectionPoints = new ArrayList<InjectionPoint>();
+        private final List<Desire> desires = new ArrayList<Desire>();
+        private final List<Component> components = new ArrayList<Component>();
+        private final List<Dependency> dependencies = new ArrayList<Dependency>();
+
+        Reader(ObjectInputStream input) {
+            super(input);
+            ois = input;
+        }
+
+        Solution readGraph() throws IOException, ClassNotFoundException {
+            int nnodes = readVarInt(in);
+            if (nnodes == 0) {
+                throw new StreamCorruptedException("graph has no nodes");
+            }
+            List<DAGNode<Component, Dependency>> nodes = new ArrayList<DAGNode<Component, Dependency>>(nnodes);
+            for (int i = 0; i < nnodes; i++) {
+                DAGNodeBuilder<Component, Dependency> bld = DAGNode.newBuilder(readComponentRef());
+                int nedges = readVarInt(in);
+                for (int j = 0; j < nedges; j++) {
+                    DAGNode<Component, Dependency> tail = readNode(nodes);
+                    bld.addEdge(tail, readDependencyRef());
+                }
+                nodes.add(bld.build());
+            }
+
+            ImmutableSetMultimap.Builder<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> back =
+                    ImmutableSetMultimap.builder();
+            int nback = readVarInt(in);
+            for (int i = 0; i < nback; i++) {
+                DAGNode<Component, Dependency> head = readNode(nodes);
+                DAGNode<Component, Dependency> tail = readNode(nodes);
+                back.put(head, DAGEdge.create(head, tail, readDependencyRef()));
+            }
+
+            return new Solution(nodes.get(nnodes - 1), back.build());
+        }
+
+        private DAGNode<Component, Dependency> readNode(List<DAGNode<Component, Dependency>> nodes) throws IOException {
+            return get(nodes, readVarInt(in));
+        }
+
+        /**
+         * Look up a value in a table.
+         * @return The value, or {@code null} if {@code id} is the next value to be defined.
+         */
+        private <T> T lookup(List<T> table, int id) throws StreamCorruptedException {
+            if (id == table.size()) {
+                return null;
+            }
+            return get(table, id);
+        }
+
+        private <T> T get(List<T> table, int id) throws StreamCorruptedException {
+            if (id < 0 || id >= table.size()) {
+                throw new StreamCorruptedException("invalid reference " + id);
+            }
+            return table.get(id);
+        }
+
+        private Component readComponentRef() throws IOException, ClassNotFoundException {
+            Component comp = lookup(components, readVarInt(in));
+            if (comp == null) {
+                comp = decodeComponent();
+                components.add(comp);
+            }
+            return comp;
+        }
+
+        private Dependency readDependencyRef() throws IOException, ClassNotFoundException {
+            Dependency dep = lookup(dependencies, readVarInt(in));
+            if (dep == null) {
+                dep = decodeDependency();
+                dependencies.add(dep);
+            }
+            return dep;
+        }
+
+        @Override
+        protected String readStringRef() throws IOException {
+            String str = lookup(strings, readVarInt(in));
+            if (str == null) {
+                str = in.readUTF();
+                strings.add(str);
+            }
+            return str;
+        }
+
+        @Override
+        protected Class<?> readClassRef() throws IOException, ClassNotFoundException {
+            Class<?> type = lookup(classes, readVarInt(in));
+            if (type == null) {
+                type = decodeClass();
+                classes.add(type);
+            }
+            return type;
+        }
+
+        @Override
+        protected Satisfaction readSatisfactionRef() throws IOException, ClassNotFoundException {
+            Satisfaction sat = lookup(satisfactions, readVarInt(in));
+            if (sat == null) {
+                sat = decodeSatisfaction(in.readUnsignedByte());
+                satisfactions.add(sat);
+            }
+            return sat;
+        }
+
+        @Nullable
+        @Override
+        protected Satisfaction readOptionalSatisfactionRef() throws IOException, ClassNotFoundException {
+            return in.readBoolean() ? readSatisfactionRef() : null;
+        }
+
+        @Override
+        protected InjectionPoint readInjectionPointRef() throws IOException, ClassNotFoundException {
+            InjectionPoint ip = lookup(injectionPoints, readVarInt(in));
+            if (ip == null) {
+                ip = decodeInjectionPoint(in.readUnsignedByte());
+                injectionPoints.add(ip);
+            }
+            return ip;
+        }
+
+        @Override
+        protected Desire readDesireRef() throws IOException, ClassNotFoundException {
+            Desire desire = lookup(desires, readVarInt(in));
+            if (desire == null) {
+                desire = decodeDesire(in.readUnsignedByte());
+                desires.add(desire);
+            }
+            return desire;
+        }
+
+        @Nullable
+        @Override
+        protected Annotation readQualifier() throws IOException, ClassNotFoundException {
+            return readEmbedded(Annotation.class);
+        }
+
+        /**
+         * Read an object embedded with Java serialization.
+         * @return The object (may be {@code null}).
+         */
+        @Override
+        protected <T> T readEmbedded(Class<T> type) throws IOException, ClassNotFoundException {
+            Object obj = ois.readObject();
+            if (obj != null && !type.isInstance(obj)) {
+                throw new InvalidObjectException("expected " + type.getName() + ", found " + obj.getClass().getName());
+            }
+            return type.cast(obj);
+        }
+    }
+}
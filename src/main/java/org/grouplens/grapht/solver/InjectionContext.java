@@ -19,6 +19,8 @@
  */
 package org.grouplens.grapht.solver;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.apache.commons.lang3.tuple.Pair;
 import org.grouplens.grapht.reflect.InjectionPoint;
 import org.grouplens.grapht.reflect.Satisfaction;
@@ -35,11 +37,16 @@ import javax.annotation.Nullable;
  * is most significantly represented as a list of satisfactions and the
  * associated injection point attributes. This list represents the "type path"
  * from the root node in the graph to the previously resolved satisfaction.
+ * <p>
+ * Contexts created by {@link #singleton(Satisfaction, InjectionPoint)} and
+ * {@link #extend(Satisfaction, InjectionPoint)} are interned, so equal contexts are usually the
+ * same object and share their prefixes.
  *
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  */
 public class InjectionContext extends AbstractChain<Pair<Satisfaction,InjectionPoint>> {
     private static final long serialVersionUID = 1L;
+    private static final Interner<InjectionContext> INTERNER = Interners.newWeakInterner();
 
     /**
      * Construct a singleton injection context.
@@ -48,7 +55,7 @@ public class InjectionContext extends AbstractChain<Pair<Satisfaction,InjectionP
      * @return The injection context.
      */
     public static InjectionContext singleton(Satisfaction satisfaction, InjectionPoint ip) {
-        return new InjectionContext(null, satisfaction, ip);
+        return INTERNER.intern(new InjectionContext(null, satisfaction, ip));
     }
 
     /**
@@ -73,7 +80,7 @@ public class InjectionContext extends AbstractChain<Pair<Satisfaction,InjectionP
      * @return A new context with updated type path
      */
     public InjectionContext extend(Satisfaction satisfaction, InjectionPoint ip) {
-        return new InjectionContext(this, satisfaction, ip);
+        return INTERNER.intern(new InjectionContext(this, satisfaction, ip));
     }
 
     /**
@@ -0,0 +1,402 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import org.grouplens.grapht.CachePolicy;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.reflect.AbstractSatisfactionVisitor;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.InjectionPoint;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.reflect.internal.*;
+import org.grouplens.grapht.util.ClassProxy;
+
+import javax.annotation.Nullable;
+import javax.inject.Provider;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.EnumSet;
+
+/**
+ * The encoding of graph labels shared by {@link GraphCodec} and {@link MappedGraph}.  Both write
+ * each class, satisfaction, injection point, desire, component and dependency once and refer to
+ * it afterwards; they differ only in how those references, strings and objects embedded with
+ * Java serialization are stored, which they supply by extending {@link Encoder} and
+ * {@link Decoder}.  Satisfactions, injection points and desires start with one of the kind
+ * bytes defined here; labels the encoding does not understand have kind {@link #OBJECT} and are
+ * embedded.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+final class LabelEncoding {
+    static final int OBJECT = 0;
+    static final int CLASS = 1;
+    static final int CLASS_SATISFACTION = 2;
+    static final int NULL_SATISFACTION = 3;
+    static final int PROVIDER_CLASS_SATISFACTION = 4;
+    static final int CONSTRUCTOR_PARAMETER = 5;
+    static final int SETTER = 6;
+    static final int FIELD = 7;
+    static final int NO_ARGUMENT = 8;
+    static final int SIMPLE = 9;
+    static final int REFLECTION_DESIRE = 10;
+    static final int COMPONENT = 11;
+    static final int DEPENDENCY = 12;
+    /**
+     * The first kind not used by labels, for formats that need kinds of their own.
+     */
+    static final int FIRST_UNUSED_KIND = 13;
+
+    private LabelEncoding() {}
+
+    /**
+     * Writes labels, delegating references to the format.
+     */
+    abstract static class Encoder {
+        protected final DataOutput out;
+
+        protected Encoder(DataOutput output) {
+            out = output;
+        }
+
+        protected abstract void writeClassRef(Class<?> type) throws IOException;
+
+        protected abstract void writeStringRef(String str) throws IOException;
+
+        protected abstract void writeSatisfactionRef(Satisfaction sat) throws IOException;
+
+        protected abstract void writeOptionalSatisfactionRef(@Nullable Satisfaction sat) throws IOException;
+
+        protected abstract void writeInjectionPointRef(InjectionPoint ip) throws IOException;
+
+        protected abstract void writeDesireRef(Desire desire) throws IOException;
+
+        protected abstract void writeQualifier(@Nullable Annotation qualifier) throws IOException;
+
+        /**
+         * Embed an object with Java serialization.
+         */
+        protected abstract void writeEmbedded(Object obj) throws IOException;
+
+        void encodeClass(Class<?> type) throws IOException {
+            writeEmbedded(ClassProxy.of(type));
+        }
+
+        void encodeComponent(Component comp) throws IOException {
+            writeSatisfactionRef(comp.getSatisfaction());
+            writeStringRef(comp.getCachePolicy().name());
+        }
+
+        void encodeDependency(Dependency dep) throws IOException {
+            int flags = 0;
+            for (Dependency.Flag flag: dep.getFlags()) {
+                flags |= 1 << flag.ordinal();
+            }
+            GraphCodec.writeVarInt(out, flags);
+            GraphCodec.writeVarInt(out, dep.getDesireChain().size());
+            for (Desire desire: dep.getDesireChain()) {
+                writeDesireRef(desire);
+            }
+        }
+
+        void encodeDesire(Desire desire) throws IOException {
+            if (desire.getClass().equals(ReflectionDesire.class)) {
+                out.writeByte(REFLECTION_DESIRE);
+                writeClassRef(desire.getDesiredType());
+                writeInjectionPointRef(desire.getInjectionPoint());
+                writeOptionalSatisfactionRef(desire.getSatisfaction());
+            } else {
+                out.writeByte(OBJECT);
+                writeEmbedded(desire);
+            }
+        }
+
+        void encodeSatisfaction(Satisfaction sat) throws IOException {
+            Class<?> satType = sat.getClass();
+            if (satType.equals(ClassSatisfaction.class)) {
+                out.writeByte(CLASS_SATISFACTION);
+                writeClassRef(sat.getErasedType());
+            } else if (satType.equals(NullSatisfaction.class)) {
+                out.writeByte(NULL_SATISFACTION);
+                writeClassRef(sat.getErasedType());
+            } else if (satType.equals(ProviderClassSatisfaction.class)) {
+                out.writeByte(PROVIDER_CLASS_SATISFACTION);
+                writeClassRef(sat.visit(new AbstractSatisfactionVisitor<Class<?>>(null) {
+                    @Override
+                    public Class<?> visitProviderClass(Class<? extends Provider<?>> pclass) {
+                        return pclass;
+                    }
+                }));
+            } else {
+                out.writeByte(OBJECT);
+                writeEmbedded(sat);
+            }
+        }
+
+        void encodeInjectionPoint(InjectionPoint ip) throws IOException {
+            Class<?> ipType = ip.getClass();
+            if (ipType.equals(ConstructorParameterInjectionPoint.class)) {
+                ConstructorParameterInjectionPoint cip = (ConstructorParameterInjectionPoint) ip;
+                Constructor<?> ctor = cip.getMember();
+                out.writeByte(CONSTRUCTOR_PARAMETER);
+                writeClassRef(ctor.getDeclaringClass());
+                writeClassRefs(ctor.getParameterTypes());
+                GraphCodec.writeVarInt(out, cip.getParameterIndex());
+            } else if (ipType.equals(SetterInjectionPoint.class)) {
+                SetterInjectionPoint sip = (SetterInjectionPoint) ip;
+                out.writeByte(SETTER);
+                writeMethod(sip.getMember());
+                GraphCodec.writeVarInt(out, sip.getParameterIndex());
+            } else if (ipType.equals(FieldInjectionPoint.class)) {
+                Field field = ((FieldInjectionPoint) ip).getMember();
+                out.writeByte(FIELD);
+                writeClassRef(field.getDeclaringClass());
+                writeStringRef(field.getName());
+            } else if (ipType.equals(NoArgumentInjectionPoint.class)) {
+                out.writeByte(NO_ARGUMENT);
+                writeMethod(((NoArgumentInjectionPoint) ip).getMember());
+            } else if (ipType.equals(SimpleInjectionPoint.class)) {
+                out.writeByte(SIMPLE);
+                writeQualifier(ip.getQualifier());
+                writeClassRef(ip.getErasedType());
+                out.writeBoolean(ip.isNullable());
+            } else {
+                out.writeByte(OBJECT);
+                writeEmbedded(ip);
+            }
+        }
+
+        private void writeClassRefs(Class<?>[] types) throws IOException {
+            GraphCodec.writeVarInt(out, types.length);
+            for (Class<?> type: types) {
+                writeClassRef(type);
+            }
+        }
+
+        private void writeMethod(Method method) throws IOException {
+            writeClassRef(method.getDeclaringClass());
+            writeStringRef(method.getName());
+            writeClassRefs(method.getParameterTypes());
+        }
+    }
+
+    /**
+     * Reads labels, delegating references to the format.
+     */
+    abstract static class Decoder {
+        protected final DataInput in;
+
+        protected Decoder(DataInput input) {
+            in = input;
+        }
+
+        protected abstract Class<?> readClassRef() throws IOException, ClassNotFoundException;
+
+        protected abstract String readStringRef() throws IOException;
+
+        protected abstract Satisfaction readSatisfactionRef() throws IOException, ClassNotFoundException;
+
+        @Nullable
+        protected abstract Satisfaction readOptionalSatisfactionRef() throws IOException, ClassNotFoundException;
+
+        protected abstract InjectionPoint readInjectionPointRef() throws IOException, ClassNotFoundException;
+
+        protected abstract Desire readDesireRef() throws IOException, ClassNotFoundException;
+
+        @Nullable
+        protected abstract Annotation readQualifier() throws IOException, ClassNotFoundException;
+
+        /**
+         * Read an object embedded with Java serialization.
+         * @param type The expected type of the object.
+         */
+        protected abstract <T> T readEmbedded(Class<T> type) throws IOException, ClassNotFoundException;
+
+        Class<?> decodeClass() throws IOException, ClassNotFoundException {
+            return readEmbedded(ClassProxy.class).resolve();
+        }
+
+        Component decodeComponent() throws IOException, ClassNotFoundException {
+            Satisfaction sat = readSatisfactionRef();
+            try {
+                return Component.create(sat, CachePolicy.valueOf(readStringRef()));
+            } catch (IllegalArgumentException e) {
+                StreamCorruptedException ex = new StreamCorruptedException("invalid cache policy");
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+
+        Dependency decodeDependency() throws IOException, ClassNotFoundException {
+            int flagBits = GraphCodec.readVarInt(in);
+            EnumSet<Dependency.Flag> flags = Dependency.Flag.emptySet();
+            for (Dependency.Flag flag: Dependency.Flag.values()) {
+                if ((flagBits & (1 << flag.ordinal())) != 0) {
+                    flags.add(flag);
+                }
+            }
+            int length = GraphCodec.readVarInt(in);
+            if (length == 0) {
+                throw new StreamCorruptedException("empty desire chain");
+            }
+            DesireChain chain = DesireChain.singleton(readDesireRef());
+            for (int i = 1; i < length; i++) {
+                chain = chain.extend(readDesireRef());
+            }
+            return Dependency.create(chain, flags);
+        }
+
+        /**
+         * Decode a desire.
+         * @param kind The kind byte, which has already been read.
+         */
+        Desire decodeDesire(int kind) throws IOException, ClassNotFoundException {
+            switch (kind) {
+            case REFLECTION_DESIRE:
+                Class<?> type = readClassRef();
+                InjectionPoint ip = readInjectionPointRef();
+                return ReflectionDesire.create(type, ip, readOptionalSatisfactionRef());
+            case OBJECT:
+                return readEmbedded(Desire.class);
+            default:
+                throw new StreamCorruptedException("invalid desire kind " + kind);
+            }
+        }
+
+        /**
+         * Decode a satisfaction.
+         * @param kind The kind byte, which has already been read.
+         */
+        @SuppressWarnings("unchecked")
+        Satisfaction decodeSatisfaction(int kind) throws IOException, ClassNotFoundException {
+            switch (kind) {
+            case CLASS_SATISFACTION:
+                return Satisfactions.type(readClassRef());
+            case NULL_SATISFACTION:
+                return Satisfactions.nullOfType(readClassRef());
+            case PROVIDER_CLASS_SATISFACTION:
+                Class<?> pclass = readClassRef();
+                if (!Provider.class.isAssignableFrom(pclass)) {
+                    throw new InvalidObjectException(pclass + " is not a provider");
+                }
+                return Satisfactions.providerType((Class<? extends Provider<?>>) pclass);
+            case OBJECT:
+                return readEmbedded(Satisfaction.class);
+            default:
+                throw new StreamCorruptedException("invalid satisfaction kind " + kind);
+            }
+        }
+
+        /**
+         * Decode an injection point.
+         * @param kind The kind byte, which has already been read.
+         */
+        InjectionPoint decodeInjectionPoint(int kind) throws IOException, ClassNotFoundException {
+            try {
+                switch (kind) {
+                case CONSTRUCTOR_PARAMETER: {
+                    Class<?> type = readClassRef();
+                    Constructor<?> ctor = type.getDeclaredConstructor(readClassRefs());
+                    return new ConstructorParameterInjectionPoint(ctor, GraphCodec.readVarInt(in));
+                }
+                case SETTER:
+                    return new SetterInjectionPoint(readMethod(), GraphCodec.readVarInt(in));
+                case FIELD: {
+                    Class<?> type = readClassRef();
+                    return new FieldInjectionPoint(type.getDeclaredField(readStringRef()));
+                }
+                case NO_ARGUMENT:
+                    return new NoArgumentInjectionPoint(readMethod());
+                case SIMPLE: {
+                    Annotation qualifier = readQualifier();
+                    Class<?> type = readClassRef();
+                    return new SimpleInjectionPoint(qualifier, type, in.readBoolean());
+                }
+                case OBJECT:
+                    return readEmbedded(InjectionPoint.class);
+                default:
+                    throw new StreamCorruptedException("invalid injection point kind " + kind);
+                }
+            } catch (NoSuchMethodException e) {
+                throw invalid("cannot resolve injection point", e);
+            } catch (NoSuchFieldException e) {
+                throw invalid("cannot resolve injection point", e);
+            }
+        }
+
+        /**
+         * Decode a label of any kind.
+         * @param kind The kind byte, which has already been read.
+         * @return The label; an embedded label ({@link #OBJECT}) may be of any type.
+         */
+        Object decodeLabel(int kind) throws IOException, ClassNotFoundException {
+            switch (kind) {
+            case OBJECT:
+                return readEmbedded(Object.class);
+            case CLASS:
+                return decodeClass();
+            case CLASS_SATISFACTION:
+            case NULL_SATISFACTION:
+            case PROVIDER_CLASS_SATISFACTION:
+                return decodeSatisfaction(kind);
+            case CONSTRUCTOR_PARAMETER:
+            case SETTER:
+            case FIELD:
+            case NO_ARGUMENT:
+            case SIMPLE:
+                return decodeInjectionPoint(kind);
+            case REFLECTION_DESIRE:
+                return decodeDesire(kind);
+            case COMPONENT:
+                return decodeComponent();
+            case DEPENDENCY:
+                return decodeDependency();
+            default:
+                throw new StreamCorruptedException("invalid label kind " + kind);
+            }
+        }
+
+        private Class<?>[] readClassRefs() throws IOException, ClassNotFoundException {
+            Class<?>[] types = new Class<?>[GraphCodec.readVarInt(in)];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = readClassRef();
+            }
+            return types;
+        }
+
+        private Method readMethod() throws IOException, ClassNotFoundException, NoSuchMethodException {
+            Class<?> type = readClassRef();
+            String name = readStringRef();
+            return type.getDeclaredMethod(name, readClassRefs());
+        }
+
+        private static InvalidObjectException invalid(String msg, Throwable cause) {
+            InvalidObjectException ex = new InvalidObjectException(msg);
+            ex.initCause(cause);
+            return ex;
+        }
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.graph.DAGNodeBuilder;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.InjectionPoint;
+import org.grouplens.grapht.reflect.Satisfaction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A read-only view of a solved graph stored in a memory-mapped file.
+ * <p>
+ * Unlike {@link GraphCodec}, which reads a whole graph at once, this view materializes nodes,
+ * labels and desires only when they are requested, and resolves classes (verifying their
+ * checksums) only when a materialized object needs them.  Opening a graph file only reads its
+ * header.  Since {@linkplain DAGNode nodes} are immutable and hold their outgoing edges,
+ * materializing a node also materializes the nodes reachable from it; use
+ * {@link #getRootDependencies()} and {@link #findDependency(Predicate)} to load just the part of
+ * the graph that satisfies one dependency of the root.
+ * <p>
+ * Graph files are written with {@link #write(DAGNode, SetMultimap, File)}.  A file consists of a
+ * header, a sequence of entries (classes, satisfactions, injection points, desires, labels and
+ * nodes), the back edges, and an index of entry offsets.  Entries refer to each other by entry
+ * number, so any entry can be decoded on its own.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class MappedGraph {
+    /**
+     * The magic number at the start of a graph file ({@code GRPM}).
+     */
+    static final int MAGIC = 0x4752504D;
+    static final int FORMAT_VERSION = 2;
+    /**
+     * Size of the header: magic, version, entry count, root entry, back edge count, back edge
+     * offset and index offset.
+     */
+    private static final int HEADER_SIZE = 4 + 1 + 4 * 5;
+
+    /**
+     * The entry kind of nodes; other entries are labels with the kinds of {@link LabelEncoding}.
+     */
+    private static final int NODE = LabelEncoding.FIRST_UNUSED_KIND;
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int rootEntry;
+    private final int backEdgeCount;
+    private final int backEdgeOffset;
+    private final int indexOffset;
+    /**
+     * Entries materialized so far.
+     */
+    private final Map<Integer, Object> entries = new HashMap<Integer, Object>();
+
+    private MappedGraph(ByteBuffer buf) throws IOException {
+        buffer = buf;
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new StreamCorruptedException("not a graph file");
+        }
+        int version = buf.get(4) & 0xFF;
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("unsupported graph file version " + version);
+        }
+        entryCount = buf.getInt(5);
+        rootEntry = buf.getInt(9);
+        backEdgeCount = buf.getInt(13);
+        backEdgeOffset = buf.getInt(17);
+        indexOffset = buf.getInt(21);
+        if (entryCount < 1 || rootEntry < 0 || rootEntry >= entryCount
+                || backEdgeOffset < HEADER_SIZE || backEdgeOffset > buf.limit()
+                || indexOffset < HEADER_SIZE || (long) indexOffset + 4L * entryCount > buf.limit()) {
+            throw new StreamCorruptedException("invalid graph file header");
+        }
+    }
+
+    /**
+     * Open a graph file.  The file is mapped into memory; only its header is read.
+     *
+     * @param file The file to open.
+     * @return The graph view.
+     * @throws IOException if the file cannot be mapped or is not a valid graph file.
+     */
+    public static MappedGraph open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedGraph(buf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the number of entries (nodes, labels, desires, etc.) in the graph file.
+     * @return The number of entries.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the number of entries materialized so far.
+     * @return The number of materialized entries.
+     */
+    synchronized int getMaterializedCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get the label of the root node, without materializing the rest of the graph.
+     * @return The root node's label.
+     * @throws IOException            if the graph file is invalid.
+     * @throws ClassNotFoundException if a class in the label cannot be resolved.
+     */
+    @Nonnull
+    public Component getRootLabel() throws IOException, ClassNotFoundException {
+        return get(readRootRecord().component, Component.class);
+    }
+
+    /**
+     * Get the labels of the root node's outgoing edges, without materializing any nodes.
+     * @return The dependencies of the root node.
+     * @throws IOException            if the graph file is invalid.
+     * @throws ClassNotFoundException if a class in the labels cannot be resolved.
+     */
+    @Nonnull
+    public List<Dependency> getRootDependencies() throws IOException, ClassNotFoundException {
+        NodeRecord root = readRootRecord();
+        ImmutableList.Builder<Dependency> deps = ImmutableList.builder();
+        for (int dep: root.dependencies) {
+            deps.add(get(dep, Dependency.class));
+        }
+        return deps.build();
+    }
+
+    /**
+     * Find a dependency of the root node and materialize the node satisfying it.  Only that node
+     * and the nodes reachable from it are materialized.
+     *
+     * @param pred A predicate over the root node's dependencies.
+     * @return The node satisfying the first dependency matching {@code pred}, or {@code null} if
+     * no dependency matches.
+     * @throws IOException            if the graph file is invalid.
+     * @throws ClassNotFoundException if a class in the graph cannot be resolved.
+     */
+    @Nullable
+    public DAGNode<Component, Dependency> findDependency(Predicate<? super Dependency> pred) throws IOException, ClassNotFoundException {
+        NodeRecord root = readRootRecord();
+        for (int i = 0; i < root.dependencies.length; i++) {
+            if (pred.apply(get(root.dependencies[i], Dependency.class))) {
+                return getNode(root.tails[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Materialize the whole graph.
+     * @return The root node of the graph.
+     * @throws IOException            if the graph file is invalid.
+     * @throws ClassNotFoundException if a class in the graph cannot be resolved.
+     */
+    @Nonnull
+    public DAGNode<Component, Dependency> getGraph() throws IOException, ClassNotFoundException {
+        return getNode(rootEntry);
+    }
+
+    /**
+     * Materialize the back edges of the graph, with their head and tail nodes.
+     * @return The back edges, keyed by their head nodes.
+     * @throws IOException            if the graph file is invalid.
+     * @throws ClassNotFoundException if a class in the graph cannot be resolved.
+     */
+    @Nonnull
+    public SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> getBackEdges() throws IOException, ClassNotFoundException {
+        ImmutableSetMultimap.Builder<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> bld =
+                ImmutableSetMultimap.builder();
+        DataInputStream in = inputAt(backEdgeOffset);
+        int[] record = new int[3 * backEdgeCount];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = GraphCodec.readVarInt(in);
+        }
+        for (int i = 0; i < backEdgeCount; i++) {
+            DAGNode<Component, Dependency> head = getNode(record[3 * i]);
+            DAGNode<Component, Dependency> tail = getNode(record[3 * i + 1]);
+            Dependency dep = get(record[3 * i + 2], Dependency.class);
+            bld.put(head, DAGEdge.create(head, tail, dep));
+        }
+        return bld.build();
+    }
+
+    /**
+     * The undecoded record of a node: entry numbers of its label, tails and edge labels.
+     */
+    private static final class NodeRecord {
+        int component;
+        int[] tails;
+        int[] dependencies;
+    }
+
+    private NodeRecord readRootRecord() throws IOException {
+        return readNodeRecord(entryInput(rootEntry, NODE));
+    }
+
+    private NodeRecord readNodeRecord(DataInputStream in) throws IOException {
+        NodeRecord rec = new NodeRecord();
+        rec.component = GraphCodec.readVarInt(in);
+        int n = GraphCodec.readVarInt(in);
+        rec.tails = new int[n];
+        rec.dependencies = new int[n];
+        for (int i = 0; i < n; i++) {
+            rec.tails[i] = GraphCodec.readVarInt(in);
+            rec.dependencies[i] = GraphCodec.readVarInt(in);
+        }
+        return rec;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized DAGNode<Component, Dependency> getNode(int id) throws IOException, ClassNotFoundException {
+        Object node = entries.get(id);
+        if (node == null) {
+            NodeRecord rec = readNodeRecord(entryInput(id, NODE));
+            DAGNodeBuilder<Component, Dependency> bld = DAGNode.newBuilder(get(rec.component, Component.class));
+            for (int i = 0; i < rec.tails.length; i++) {
+                bld.addEdge(getNode(rec.tails[i]), get(rec.dependencies[i], Dependency.class));
+            }
+            node = bld.build();
+            entries.put(id, node);
+        } else if (!(node instanceof DAGNode)) {
+            throw new StreamCorruptedException("entry " + id + " is not a node");
+        }
+        return (DAGNode<Component, Dependency>) node;
+    }
+
+    /**
+     * Get an entry, materializing it if necessary.
+     */
+    private synchronized <T> T get(int id, Class<T> type) throws IOException, ClassNotFoundException {
+        Object value = entries.get(id);
+        if (value == null) {
+            value = decode(id);
+            entries.put(id, value);
+        }
+        if (!type.isInstance(value)) {
+            throw new StreamCorruptedException("entry " + id + " is not a " + type.getSimpleName());
+        }
+        return type.cast(value);
+    }
+
+    @Nullable
+    private <T> T getOptional(int ref, Class<T> type) throws IOException, ClassNotFoundException {
+        return ref == 0 ? null : get(ref - 1, type);
+    }
+
+    private Object decode(int id) throws IOException, ClassNotFoundException {
+        DataInputStream in = entryInput(id, -1);
+        int kind = in.readUnsignedByte();
+        if (kind == NODE) {
+            throw new StreamCorruptedException("entry " + id + " is a node");
+        }
+        return new EntryDecoder(in).decodeLabel(kind);
+    }
+
+    /**
+     * Decodes one entry, resolving references to other entries by entry number.
+     */
+    private final class EntryDecoder extends LabelEncoding.Decoder {
+        private final DataInputStream input;
+
+        EntryDecoder(DataInputStream in) {
+            super(in);
+            input = in;
+        }
+
+        @Override
+        protected Class<?> readClassRef() throws IOException, ClassNotFoundException {
+            return get(GraphCodec.readVarInt(in), Class.class);
+        }
+
+        @Override
+        protected String readStringRef() throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        protected Satisfaction readSatisfactionRef() throws IOException, ClassNotFoundException {
+            return get(GraphCodec.readVarInt(in), Satisfaction.class);
+        }
+
+        @Nullable
+        @Override
+        protected Satisfaction readOptionalSatisfactionRef() throws IOException, ClassNotFoundException {
+            return getOptional(GraphCodec.readVarInt(in), Satisfaction.class);
+        }
+
+        @Override
+        protected InjectionPoint readInjectionPointRef() throws IOException, ClassNotFoundException {
+            return get(GraphCodec.readVarInt(in), InjectionPoint.class);
+        }
+
+        @Override
+        protected Desire readDesireRef() throws IOException, ClassNotFoundException {
+            return get(GraphCodec.readVarInt(in), Desire.class);
+        }
+
+        @Nullable
+        @Override
+        protected Annotation readQualifier() throws IOException, ClassNotFoundException {
+            return getOptional(GraphCodec.readVarInt(in), Annotation.class);
+        }
+
+        @Override
+        protected <T> T readEmbedded(Class<T> type) throws IOException, ClassNotFoundException {
+            int length = GraphCodec.readVarInt(in);
+            ObjectInputStream ois = new ObjectInputStream(new BoundedInputStream(input, length));
+            Object obj = ois.readObject();
+            if (!type.isInstance(obj)) {
+                throw new InvalidObjectException("expected " + type.getName() + ", found " + obj);
+            }
+            return type.cast(obj);
+        }
+    }
+
+    /**
+     * Get an input positioned at an entry's data.
+     * @param id The entry number.
+     * @param kind The expected entry kind, or -1 to position the input at the kind byte.
+     */
+    private DataInputStream entryInput(int id, int kind) throws IOException {
+        if (id < 0 || id >= entryCount) {
+            throw new StreamCorruptedException("invalid entry " + id);
+        }
+        int offset = buffer.getInt(indexOffset + 4 * id);
+        DataInputStream in = inputAt(offset);
+        if (kind >= 0) {
+            int actual = in.readUnsignedByte();
+            if (actual != kind) {
+                throw new StreamCorruptedException("entry " + id + " has kind " + actual + ", expected " + kind);
+            }
+        }
+        return in;
+    }
+
+    private DataInputStream inputAt(int offset) throws StreamCorruptedException {
+        if (offset < HEADER_SIZE || offset >= buffer.limit()) {
+            throw new StreamCorruptedException("invalid offset " + offset);
+        }
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(offset);
+        return new DataInputStream(new ByteBufferInputStream(buf));
+    }
+
+    /**
+     * Input stream reading from a byte buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            buffer = buf;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Input stream reading a limited number of bytes from another stream.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private int remaining;
+
+        BoundedInputStream(InputStream in, int limit) {
+            super(in);
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] bytes, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(bytes, off, Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(remaining, super.available());
+        }
+    }
+
+    /**
+     * Write a graph file.
+     *
+     * @param graph     The graph to write.
+     * @param backEdges The back edges of the graph.  Their heads and tails must be reachable from
+     *                  {@code graph}.
+     * @param file      The file to write.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(DAGNode<Component, Dependency> graph,
+                             SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges,
+                             File file) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            new Writer(stream).write(graph, backEdges);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static final class Writer extends LabelEncoding.Encoder {
+        private final FileOutputStream file;
+        private final DataOutputStream data;
+        /**
+         * Entry numbers of the values assigned so far.  Nodes use identity equality, so they can
+         * share this map with the labels.
+         */
+        private final Map<Object, Integer> ids = new HashMap<Object, Integer>();
+        /**
+         * Values assigned entry numbers but not yet written, in entry order.
+         */
+        private final Queue<Object> pending = new ArrayDeque<Object>();
+        private final List<Integer> offsets = new ArrayList<Integer>();
+
+        Writer(FileOutputStream stream) {
+            this(stream, new DataOutputStream(new BufferedOutputStream(stream)));
+        }
+
+        private Writer(FileOutputStream stream, DataOutputStream output) {
+            super(output);
+            file = stream;
+            data = output;
+        }
+
+        void write(DAGNode<Component, Dependency> graph,
+                   SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) throws IOException {
+            // leave room for the header
+            data.write(new byte[HEADER_SIZE]);
+            int root = ref(graph);
+            List<int[]> back = new ArrayList<int[]>();
+            Set<DAGNode<Component, Dependency>> nodes = graph.getReachableNodes();
+            for (DAGEdge<Component, Dependency> edge: backEdges.values()) {
+                if (!nodes.contains(edge.getHead()) || !nodes.contains(edge.getTail())) {
+                    throw new IllegalArgumentException("back edge " + edge + " not in graph");
+                }
+                back.add(new int[]{ref(edge.getHead()), ref(edge.getTail()), ref(edge.getLabel())});
+            }
+            while (!pending.isEmpty()) {
+                offsets.add(data.size());
+                writeEntry(pending.remove());
+            }
+
+            int backOffset = data.size();
+            for (int[] edge: back) {
+                for (int ref: edge) {
+                    GraphCodec.writeVarInt(data, ref);
+                }
+            }
+            int indexOffset = data.size();
+            for (int off: offsets) {
+                data.writeInt(off);
+            }
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                  .put((byte) FORMAT_VERSION)
+                  .putInt(offsets.size())
+                  .putInt(root)
+                  .putInt(back.size())
+                  .putInt(backOffset)
+                  .putInt(indexOffset);
+            header.flip();
+            FileChannel channel = file.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        /**
+         * Get the entry number of a value, assigning one if necessary.
+         */
+        private int ref(Object value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = ids.size();
+                ids.put(value, id);
+                pending.add(value);
+            }
+            return id;
+        }
+
+        private void writeRef(Object value) throws IOException {
+            GraphCodec.writeVarInt(out, ref(value));
+        }
+
+        private void writeOptionalRef(@Nullable Object value) throws IOException {
+            GraphCodec.writeVarInt(out, value == null ? 0 : ref(value) + 1);
+        }
+
+        @Override
+        protected void writeClassRef(Class<?> type) throws IOException {
+            writeRef(type);
+        }
+
+        @Override
+        protected void writeStringRef(String str) throws IOException {
+            out.writeUTF(str);
+        }
+
+        @Override
+        protected void writeSatisfactionRef(Satisfaction sat) throws IOException {
+            writeRef(sat);
+        }
+
+        @Override
+        protected void writeOptionalSatisfactionRef(@Nullable Satisfaction sat) throws IOException {
+            writeOptionalRef(sat);
+        }
+
+        @Override
+        protected void writeInjectionPointRef(InjectionPoint ip) throws IOException {
+            writeRef(ip);
+        }
+
+        @Override
+        protected void writeDesireRef(Desire desire) throws IOException {
+            writeRef(desire);
+        }
+
+        @Override
+        protected void writeQualifier(@Nullable Annotation qualifier) throws IOException {
+            writeOptionalRef(qualifier);
+        }
+
+        @Override
+        protected void writeEmbedded(Object obj) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(obj);
+            oos.close();
+            GraphCodec.writeVarInt(out, bytes.size());
+            bytes.writeTo(data);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeEntry(Object value) throws IOException {
+            if (value instanceof DAGNode) {
+                DAGNode<Component, Dependency> node = (DAGNode<Component, Dependency>) value;
+                out.writeByte(NODE);
+                writeRef(node.getLabel());
+                GraphCodec.writeVarInt(out, node.getOutgoingEdges().size());
+                for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                    writeRef(edge.getTail());
+                    writeRef(edge.getLabel());
+                }
+            } else if (value instanceof Class) {
+                out.writeByte(LabelEncoding.CLASS);
+                encodeClass((Class<?>) value);
+            } else if (value instanceof Component) {
+                out.writeByte(LabelEncoding.COMPONENT);
+                encodeComponent((Component) value);
+            } else if (value instanceof Dependency) {
+                out.writeByte(LabelEncoding.DEPENDENCY);
+                encodeDependency((Dependency) value);
+            } else if (value instanceof Desire) {
+                encodeDesire((Desire) value);
+            } else if (value instanceof Satisfaction) {
+                encodeSatisfaction((Satisfaction) value);
+            } else if (value instanceof InjectionPoint) {
+                encodeInjectionPoint((InjectionPoint) value);
+            } else {
+                out.writeByte(LabelEncoding.OBJECT);
+                writeEmbedded(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.grouplens.grapht.CachePolicy;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.context.ContextMatcher;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.AbstractSatisfactionVisitor;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.InjectionPoint;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Provider;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.util.*;
+
+/**
+ * An on-disk cache of solved dependency graphs.  Each cache is keyed by a hash of the binding
+ * configuration that produces its graph: the rules of each {@link RuleBasedBindingFunction}
+ * (context matchers, qualifier matchers, and targets, which serialize with the
+ * {@linkplain org.grouplens.grapht.util.ClassProxy fingerprints} of their classes), the other
+ * binding functions in use, and the solver settings.  The graph and its back edges are stored
+ * with {@link GraphCodec}, which verifies the fingerprint of every class in the graph when it is
+ * read back.
+ * <p>
+ * Fingerprints only cover the members of classes, so the stored graph is also tagged with a
+ * digest of the defaults and qualifiers its resolution may have depended on: the qualifier and
+ * nullability of every desire in the graph, the annotations (such as
+ * {@link org.grouplens.grapht.annotation.DefaultImplementation @DefaultImplementation}) on every
+ * desired type and qualifier type, and the {@code META-INF} defaults of every desired type.  The
+ * digest is recomputed from the current classes when the graph is read back, and a mismatch is a
+ * cache miss.
+ * <p>
+ * A cache is only an accelerator: if the stored graph is missing, unreadable, or refers to
+ * classes whose fingerprints no longer match, {@link #load(DependencySolver)} reports a miss
+ * and the solver resolves desires as usual.  Configurations that bind instances or provider
+ * instances cannot be cached, since the stored graph would hold copies of the bound objects.
+ * Solutions are only written by {@link #save(DependencySolver)}, so a solver that resolves many
+ * desires should be saved once it is done rather than after each desire.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class SolutionCache {
+    private static final Logger logger = LoggerFactory.getLogger(SolutionCache.class);
+    /**
+     * The version of the key computation; change it when the key contents change.
+     */
+    private static final int KEY_VERSION = 3;
+    private static final String SUFFIX = ".graph";
+
+    private final File file;
+    private final String key;
+    @Nullable
+    private final ClassLoader defaultsLoader;
+    private DAGNode<Component, Dependency> stored;
+
+    private SolutionCache(File f, String k, @Nullable ClassLoader loader) {
+        file = f;
+        key = k;
+        defaultsLoader = loader;
+    }
+
+    /**
+     * Create a solution cache for a binding configuration.
+     *
+     * @param directory     The directory holding cached solutions.  It is created when a solution
+     *                      is first saved.
+     * @param defaultPolicy The solver's default cache policy.
+     * @param maxDepth      The solver's maximum depth.
+     * @param functions     The solver's binding functions.
+     * @return The solution cache, or {@code null} if the configuration cannot be cached.
+     */
+    @Nullable
+    public static SolutionCache create(File directory, CachePolicy defaultPolicy, int maxDepth,
+                                       BindingFunction... functions) {
+        String key = computeKey(defaultPolicy, maxDepth, functions);
+        if (key == null) {
+            return null;
+        }
+        ClassLoader loader = null;
+        for (BindingFunction fn: functions) {
+            if (fn instanceof DefaultDesireBindingFunction) {
+                loader = ((DefaultDesireBindingFunction) fn).getClassLoader();
+                break;
+            }
+        }
+        return new SolutionCache(new File(directory, key + SUFFIX), key, loader);
+    }
+
+    /**
+     * Get the key of the binding configuration.
+     * @return The configuration key, as a hexadecimal string.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the file holding this cache's solution.
+     * @return The solution file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Load the cached solution into a solver.
+     *
+     * @param solver The solver, which must not have resolved any desires yet.
+     * @return {@code true} if the solver was seeded with the cached solution, {@code false} if
+     *         there is no usable cached solution.
+     */
+    public synchronized boolean load(DependencySolver solver) {
+        if (!file.exists()) {
+            logger.debug("no cached solution {}", file);
+            return false;
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                String digest = new DataInputStream(in).readUTF();
+                GraphCodec.Solution solution = GraphCodec.read(in);
+                if (!digest.equals(digestDefaults(solution.getGraph(), solution.getBackEdges()))) {
+                    logger.info("cached solution {} is stale: defaults or qualifiers have changed", file);
+                    return false;
+                }
+                solver.seed(solution.getGraph(), solution.getBackEdges());
+                stored = solver.getGraph();
+            } finally {
+                in.close();
+            }
+            logger.info("loaded cached solution {} with {} nodes",
+                        file, stored.getReachableNodes().size());
+            return true;
+        } catch (ClassNotFoundException e) {
+            logger.info("cached solution {} is stale: {}", file, e.getMessage());
+        } catch (IOException e) {
+            logger.warn("cannot read cached solution {}: {}", file, e.toString());
+        } catch (RuntimeException e) {
+            // a corrupt or mismatched graph is just a cache miss
+            logger.warn("cannot use cached solution {}: {}", file, e.toString());
+        }
+        return false;
+    }
+
+    /**
+     * Save the solver's current solution, if it has changed since it was last loaded or saved.
+     * Failures are logged and otherwise ignored.
+     *
+     * @param solver The solver whose solution should be saved.
+     */
+    public synchronized void save(DependencySolver solver) {
+        DAGNode<Component, Dependency> graph = solver.getGraph();
+        if (graph == stored) {
+            return;
+        }
+        SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges = solver.getBackEdges();
+        File tmp = null;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("cannot create directory " + parent);
+            }
+            // a unique temporary file, so concurrent saves of the same key do not collide
+            tmp = File.createTempFile(key, ".tmp", parent);
+            String digest = digestDefaults(graph, backEdges);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                new DataOutputStream(out).writeUTF(digest);
+                GraphCodec.write(graph, backEdges, out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // rename-over fails on some platforms
+                if (!file.delete() || !tmp.renameTo(file)) {
+                    throw new IOException("cannot replace " + file);
+                }
+            }
+            stored = graph;
+            logger.debug("saved solution with {} nodes to {}", graph.getReachableNodes().size(), file);
+        } catch (IOException e) {
+            logger.warn("cannot write cached solution {}: {}", file, e.toString());
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Compute the digest of the defaults and qualifiers a graph depends on.
+     * @throws IOException if there is an error reading {@code META-INF} defaults.
+     */
+    private String digestDefaults(DAGNode<Component, Dependency> graph,
+                                  SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> backEdges) throws IOException {
+        List<DAGEdge<Component, Dependency>> edges = new ArrayList<DAGEdge<Component, Dependency>>(backEdges.values());
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            edges.addAll(node.getOutgoingEdges());
+        }
+
+        SortedSet<String> facts = new TreeSet<String>();
+        Set<Class<?>> types = new HashSet<Class<?>>();
+        for (DAGEdge<Component, Dependency> edge: edges) {
+            for (Desire desire: edge.getLabel().getDesireChain()) {
+                InjectionPoint ip = desire.getInjectionPoint();
+                Annotation qualifier = ip.getQualifier();
+                facts.add("desire " + desire.getDesiredType().getName()
+                          + " " + qualifier + " " + ip.isNullable());
+                types.add(desire.getDesiredType());
+                if (qualifier != null) {
+                    types.add(qualifier.annotationType());
+                }
+            }
+        }
+        for (Class<?> type: types) {
+            SortedSet<String> annotations = new TreeSet<String>();
+            for (Annotation annot: type.getAnnotations()) {
+                annotations.add(annot.toString());
+            }
+            facts.add("type " + type.getName() + " " + annotations);
+            if (defaultsLoader != null) {
+                Map<String, String> props = DefaultsIndex.forClassLoader(defaultsLoader)
+                                                         .getDefaults(type.getCanonicalName());
+                if (props != null) {
+                    facts.add("meta-inf " + type.getName() + " " + new TreeMap<String, String>(props));
+                }
+            }
+        }
+
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String fact: facts) {
+            hasher.putUnencodedChars(fact).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Compute the key of a binding configuration.
+     * @return The key, or {@code null} if the configuration cannot be cached.
+     */
+    @Nullable
+    static String computeKey(CachePolicy defaultPolicy, int maxDepth, BindingFunction... functions) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(Funnels.asOutputStream(hasher));
+            out.writeInt(KEY_VERSION);
+            out.writeUTF(defaultPolicy.name());
+            out.writeInt(maxDepth);
+            for (BindingFunction fn: functions) {
+                out.writeUTF(fn.getClass().getName());
+                if (fn instanceof RuleBasedBindingFunction) {
+                    if (!writeRules((RuleBasedBindingFunction) fn, out)) {
+                        return null;
+                    }
+                } else if (!(fn instanceof DefaultDesireBindingFunction
+                             || fn instanceof ProviderBindingFunction)) {
+                    logger.debug("cannot cache solutions for binding function {}", fn);
+                    return null;
+                }
+            }
+            out.close();
+        } catch (NotSerializableException e) {
+            logger.debug("cannot cache solutions with unserializable rules: {}", e.getMessage());
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("error hashing in memory", e);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Write the rules of a binding function.  The iteration order of the rules depends on the
+     * identity hashes of classes, which vary between JVMs, so each rule is hashed on its own and
+     * the sorted hashes are written.
+     */
+    private static boolean writeRules(RuleBasedBindingFunction fn, ObjectOutputStream out) throws IOException {
+        List<String> ruleHashes = new ArrayList<String>(fn.getRules().size());
+        for (Map.Entry<ContextMatcher, BindRule> e: fn.getRules().entries()) {
+            Satisfaction sat = e.getValue().newCopyBuilder().getSatisfaction();
+            if (sat != null && sat.visit(InstanceDetector.INSTANCE)) {
+                logger.debug("cannot cache solutions with instance binding {}", e.getValue());
+                return false;
+            }
+            Hasher hasher = Hashing.sha1().newHasher();
+            ObjectOutputStream ruleOut = new ObjectOutputStream(Funnels.asOutputStream(hasher));
+            ruleOut.writeObject(e.getKey());
+            ruleOut.writeObject(e.getValue());
+            ruleOut.close();
+            ruleHashes.add(hasher.hash().toString());
+        }
+        Collections.sort(ruleHashes);
+        out.writeInt(ruleHashes.size());
+        for (String hash: ruleHashes) {
+            out.writeUTF(hash);
+        }
+        return true;
+    }
+
+    /**
+     * Detect satisfactions of pre-built objects.
+     */
+    private static class InstanceDetector extends AbstractSatisfactionVisitor<Boolean> {
+        static final InstanceDetector INSTANCE = new InstanceDetector();
+
+        private InstanceDetector() {
+            super(false);
+        }
+
+        @Override
+        public Boolean visitInstance(Object instance) {
+            return true;
+        }
+
+        @Override
+        public Boolean visitProviderInstance(Provider<?> provider) {
+            return true;
+        }
+    }
+}
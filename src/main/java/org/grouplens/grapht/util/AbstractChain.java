@@ -19,8 +19,12 @@
  */
 package org.grouplens.grapht.util;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.AbstractList;
 import java.util.Iterator;
@@ -28,6 +32,10 @@ import java.util.NoSuchElementException;
 
 /**
  * Base class for implementing chains, immutable reverse singly-linked lists.
+ * <p>
+ * In addition to its previous node, each node keeps a <em>jump pointer</em> to an earlier node,
+ * arranged in a skew-binary pattern so that any element can be reached in O(log n) steps.  Hash
+ * codes are computed incrementally from the previous node's hash, so hashing a chain is O(1).
  *
  * @since 0.7.0
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
@@ -39,6 +47,15 @@ public abstract class AbstractChain<E> extends AbstractList<E> implements Serial
     protected final E tailValue;
     protected final int length;
 
+    /**
+     * An earlier node for fast indexed access, or {@code null} for a singleton chain.
+     */
+    private transient AbstractChain<E> jump;
+    /**
+     * The cached hash code, or 0 if it has not been computed.
+     */
+    private transient int hash;
+
     /**
      * Construct a new chain node.
      * @param prev The previous node, or {@code null} for a singleton chain.
@@ -52,6 +69,35 @@ public abstract class AbstractChain<E> extends AbstractList<E> implements Serial
         } else {
             length = prev.length + 1;
         }
+        jump = computeJump(prev);
+        hash = computeHash();
+    }
+
+    /**
+     * Compute the jump pointer for a node following a previous node.  If the previous node's two
+     * successive jumps cover equal distances, the new node jumps over both; otherwise, it jumps
+     * to its previous node.
+     */
+    private static <E> AbstractChain<E> computeJump(AbstractChain<E> prev) {
+        if (prev == null) {
+            return null;
+        }
+        AbstractChain<E> j1 = prev.jump;
+        if (j1 != null) {
+            AbstractChain<E> j2 = j1.jump;
+            if (j2 != null && prev.length - j1.length == j1.length - j2.length) {
+                return j2;
+            }
+        }
+        return prev;
+    }
+
+    /**
+     * Compute the hash code, following the {@link java.util.List#hashCode()} contract.
+     */
+    private int computeHash() {
+        int h = previous == null ? 1 : previous.hashCode();
+        return 31 * h + (tailValue == null ? 0 : tailValue.hashCode());
     }
 
     public E getTailValue() {
@@ -65,23 +111,56 @@ public abstract class AbstractChain<E> extends AbstractList<E> implements Serial
 
     @Override
     public E get(int i) {
-        com.google.common.base.Preconditions.checkElementIndex(i, length);
-        if (i == length - 1) {
-            return tailValue;
-        } else {
-            assert previous != null;
-            return previous.get(i);
+        Preconditions.checkElementIndex(i, length);
+        return nodeOfLength(i + 1).tailValue;
+    }
+
+    /**
+     * Find the node at the end of this chain's prefix of a particular length.
+     * @param n The length of the prefix, at least 1 and at most this chain's length.
+     * @return The node ending the prefix.
+     */
+    private AbstractChain<E> nodeOfLength(int n) {
+        AbstractChain<E> node = this;
+        while (node.length > n) {
+            AbstractChain<E> j = node.jump;
+            if (j != null && j.length >= n) {
+                node = j;
+            } else {
+                node = node.previous;
+            }
         }
+        return node;
     }
 
     @Override
     public Iterator<E> iterator() {
-        Iterator<E> current = Iterators.singletonIterator(tailValue);
         if (previous == null) {
-            return current;
-        } else {
-            return Iterators.concat(previous.iterator(), current);
+            return Iterators.singletonIterator(tailValue);
+        }
+        // collect the values with one walk back through the chain, then iterate forward
+        final Object[] values = new Object[length];
+        int i = length;
+        for (AbstractChain<E> cur = this; cur != null; cur = cur.previous) {
+            values[--i] = cur.tailValue;
         }
+        return new UnmodifiableIterator<E>() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < values.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (pos >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return (E) values[pos++];
+            }
+        };
     }
 
     /**
@@ -124,8 +203,13 @@ public abstract class AbstractChain<E> extends AbstractList<E> implements Serial
 
     @Override
     public int hashCode() {
-        // override hashCode so that lint tools don't complain
-        return super.hashCode();
+        int h = hash;
+        if (h == 0) {
+            // not computed yet (the chain was deserialized), or the hash really is 0
+            h = computeHash();
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -134,10 +218,28 @@ public abstract class AbstractChain<E> extends AbstractList<E> implements Serial
             return true;
         } else if (o instanceof AbstractChain) {
             // optimize comparing two chains
-            return Iterators.elementsEqual(reverseIterator(),
-                                           ((AbstractChain) o).reverseIterator());
+            AbstractChain<?> a = this;
+            AbstractChain<?> b = (AbstractChain<?>) o;
+            if (length != b.length || hashCode() != b.hashCode()) {
+                return false;
+            }
+            // walk back until the chains share a node (common with interned prefixes)
+            while (a != null && a != b) {
+                if (a.tailValue == null ? b.tailValue != null : !a.tailValue.equals(b.tailValue)) {
+                    return false;
+                }
+                a = a.previous;
+                b = b.previous;
+            }
+            return true;
         } else {
             return super.equals(o);
         }
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        jump = computeJump(previous);
+        // the hash is computed lazily, since the values may not be fully deserialized yet
+    }
 }
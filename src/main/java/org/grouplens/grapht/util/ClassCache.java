@@ -0,0 +1,90 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.util;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A concurrent cache of metadata computed from classes.  Each class's value is computed at most
+ * once at a time; concurrent requests for the same class wait for the first computation.
+ *
+ * <p>Classes are held weakly and values softly.  Cached metadata usually refers back to its
+ * class (through constructors, methods, etc.), so a value that was strongly held would keep its
+ * class &mdash; and class loader &mdash; alive forever; soft values let them be reclaimed once
+ * the class is no longer otherwise in use.
+ *
+ * @param <V> The type of cached values.
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class ClassCache<V> {
+    private final LoadingCache<Class<?>, V> cache;
+
+    private ClassCache(final Function<? super Class<?>, ? extends V> loader) {
+        cache = CacheBuilder.newBuilder()
+                            .weakKeys()
+                            .softValues()
+                            .build(new CacheLoader<Class<?>, V>() {
+                                @Override
+                                public V load(@Nonnull Class<?> key) {
+                                    return loader.apply(key);
+                                }
+                            });
+    }
+
+    /**
+     * Create a new class cache.
+     * @param loader A function to compute the value for a class.  It must not return
+     *               {@code null}.
+     * @param <V> The type of cached values.
+     * @return A new cache.
+     */
+    public static <V> ClassCache<V> create(Function<? super Class<?>, ? extends V> loader) {
+        Preconditions.notNull("loader", loader);
+        return new ClassCache<V>(loader);
+    }
+
+    /**
+     * Get the value for a class, computing it if necessary.  Values whose computation fails are
+     * not cached; the exception thrown by the loader is rethrown.
+     *
+     * @param type The class.
+     * @return The value for {@code type}.
+     */
+    public V get(Class<?> type) {
+        try {
+            return cache.getUnchecked(type);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (ExecutionError e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.util;
+
+import com.google.common.base.Function;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the class fingerprints {@link ClassProxy} uses to detect classes whose definitions
+ * have changed since serialization.
+ * <p>
+ * The current fingerprint (version {@link #CURRENT_VERSION}) is a 64-bit Murmur3 hash of the
+ * class's injection-sensitive member signatures, chained with its superclass's fingerprint.
+ * Fingerprints are computed once per class and cached.  Version 0 is the original MD5-based
+ * checksum, still computed to verify proxies serialized before fingerprints were versioned.
+ * <p>
+ * If the {@value #CACHE_FILE_PROPERTY} system property names a file, member hashes are also
+ * cached there across runs, keyed by class name and the location and modification time of the
+ * jar or class file the class was loaded from (JDK classes are only cached in memory).  The file
+ * is loaded on first use, and is only written by {@link #saveDiskCache()}.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+final class ClassFingerprints {
+    private static final Logger logger = LoggerFactory.getLogger(ClassFingerprints.class);
+    /**
+     * The fingerprint version produced by {@link #fingerprint(Class)}.
+     */
+    static final int CURRENT_VERSION = 1;
+    /**
+     * System property naming the on-disk fingerprint cache file.
+     */
+    static final String CACHE_FILE_PROPERTY = "grapht.fingerprint.cache";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private static final ClassCache<Long> fingerprints =
+            ClassCache.create(new Function<Class<?>, Long>() {
+                @Override
+                public Long apply(Class<?> type) {
+                    return computeFingerprint(type);
+                }
+            });
+
+    private static final DiskCache diskCache = DiskCache.open(System.getProperty(CACHE_FILE_PROPERTY));
+
+    private ClassFingerprints() {}
+
+    /**
+     * Get the fingerprint of a class, in a particular version.
+     * @param type The class.
+     * @param version The fingerprint version.
+     * @return The fingerprint of {@code type}.
+     * @throws IllegalArgumentException if {@code version} is not a known version.
+     */
+    static long fingerprint(Class<?> type, int version) {
+        switch (version) {
+        case 0:
+            return legacyChecksum(type);
+        case CURRENT_VERSION:
+            return fingerprint(type);
+        default:
+            throw new IllegalArgumentException("unknown fingerprint version " + version);
+        }
+    }
+
+    /**
+     * Get the current fingerprint of a class.
+     * @param type The class.
+     * @return The fingerprint of {@code type}.
+     */
+    static long fingerprint(Class<?> type) {
+        return fingerprints.get(type);
+    }
+
+    /**
+     * Write the on-disk fingerprint cache, if it is enabled and new hashes have been computed
+     * since it was loaded or last written.
+     */
+    static void saveDiskCache() {
+        if (diskCache != null) {
+            diskCache.save();
+        }
+    }
+
+    private static long computeFingerprint(Class<?> type) {
+        Class<?> sup = type.getSuperclass();
+        long supPrint = sup == null ? 0 : fingerprint(sup);
+        String key = diskCache == null ? null : DiskCache.makeKey(type);
+        Long members = key == null ? null : diskCache.get(key);
+        if (members == null) {
+            members = hashMembers(type);
+            if (key != null) {
+                diskCache.put(key, members);
+            }
+        }
+        return HASH.newHasher()
+                   .putLong(supPrint)
+                   .putLong(members)
+                   .hash().asLong();
+    }
+
+    private static long hashMembers(Class<?> type) {
+        List<String> members = describeMembers(type, false);
+        Hasher hasher = HASH.newHasher();
+        for (String mem: members) {
+            hasher.putString(mem, UTF8).putByte((byte) 0);
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * Compute the original (version 0) checksum for a class.  The checksum is an MD5 checksum
+     * over class member signatures, with the lower and upper halves XORed.
+     *
+     * @param type The class to checksum.
+     * @return The checksum.
+     */
+    static long legacyChecksum(Class<?> type) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("JVM does not support MD5");
+        }
+        legacyChecksum(type, digest);
+
+        ByteBuffer buf = ByteBuffer.wrap(digest.digest());
+        return buf.getLong() ^ buf.getLong();
+    }
+
+    private static void legacyChecksum(Class<?> type, MessageDigest digest) {
+        // we compute a big hash of all the members of the class, and its superclasses.
+        List<String> members = describeMembers(type, true);
+
+        Class<?> sup = type.getSuperclass();
+        if (sup != null) {
+            legacyChecksum(sup, digest);
+        }
+        for (String mem: members) {
+            digest.update(mem.getBytes(UTF8));
+        }
+    }
+
+    /**
+     * Describe the injection-sensitive members of a class.
+     * @param type The class.
+     * @param legacy {@code true} to use the version 0 description format.
+     * @return The sorted list of member descriptions.
+     */
+    private static List<String> describeMembers(Class<?> type, boolean legacy) {
+        List<String> members = new ArrayList<String>();
+        for (Constructor<?> c: type.getDeclaredConstructors()) {
+            if (isInjectionSensitive(c)) {
+                if (legacy) {
+                    members.add(String.format("%s(%s)", c.getName(),
+                                              StringUtils.join(c.getParameterTypes(), ", ")));
+                } else {
+                    members.add(describe(new StringBuilder(c.getName()), c.getParameterTypes()).toString());
+                }
+            }
+        }
+        for (Method m: type.getDeclaredMethods()) {
+            if (isInjectionSensitive(m)) {
+                if (legacy) {
+                    members.add(String.format("%s(%s): %s", m.getName(),
+                                              StringUtils.join(m.getParameterTypes(), ", "),
+                                              m.getReturnType()));
+                } else {
+                    members.add(describe(new StringBuilder(m.getName()), m.getParameterTypes())
+                                        .append(':')
+                                        .append(m.getReturnType().getName())
+                                        .toString());
+                }
+            }
+        }
+        for (Field f: type.getDeclaredFields()) {
+            if (isInjectionSensitive(f)) {
+                members.add(f.getName() + ":" + f.getType().getName());
+            }
+        }
+
+        Collections.sort(members);
+        return members;
+    }
+
+    private static StringBuilder describe(StringBuilder sb, Class<?>[] params) {
+        sb.append('(');
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(params[i].getName());
+        }
+        return sb.append(')');
+    }
+
+    /**
+     * Check whether a member is injection-sensitive and should be checked for validity in
+     * deserialization.
+     *
+     * @param m The member.
+     * @param <M> The type of member (done so we can check multiple types).
+     * @return {@code true} if the member should be checksummed, {@code false} to ignore it.
+     */
+    private static <M extends Member & AnnotatedElement>boolean isInjectionSensitive(M m) {
+        // static methods are not sensitive
+        if (Modifier.isStatic(m.getModifiers())) {
+            return false;
+        }
+
+        // private members w/o @Inject are not sensitive
+        if (Modifier.isPrivate(m.getModifiers()) && m.getAnnotation(Inject.class) == null) {
+            return false;
+        }
+
+        // public, protected, or @Inject - it's sensitive (be conservative)
+        return true;
+    }
+
+    /**
+     * On-disk cache of member hashes.
+     */
+    static class DiskCache {
+        /**
+         * Modification times of jars, which are assumed not to change while they are in use.
+         */
+        private static final Map<File, Long> jarTimes = new ConcurrentHashMap<File, Long>();
+        private final File file;
+        private final Map<String, Long> hashes = new ConcurrentHashMap<String, Long>();
+        private volatile boolean dirty = false;
+
+        private DiskCache(File file) {
+            this.file = file;
+        }
+
+        @Nullable
+        static DiskCache open(@Nullable String path) {
+            if (path == null || path.isEmpty()) {
+                return null;
+            }
+            DiskCache cache = new DiskCache(new File(path));
+            cache.load();
+            return cache;
+        }
+
+        /**
+         * Make the cache key for a class.  Classes loaded from a jar use the jar's modification
+         * time, which is looked up once per jar; classes loaded from a directory use their class
+         * file's modification time.
+         * @param type The class.
+         * @return The key, or {@code null} if the class was not loaded from a file whose
+         * modification time can be checked.
+         */
+        @Nullable
+        static String makeKey(Class<?> type) {
+            if (type.isPrimitive() || type.isArray()) {
+                return null;
+            }
+            File location = codeLocation(type);
+            if (location == null) {
+                return null;
+            }
+            long mtime;
+            File source;
+            if (location.isDirectory()) {
+                source = new File(location, type.getName().replace('.', File.separatorChar) + ".class");
+                mtime = source.lastModified();
+            } else {
+                source = location;
+                Long cached = jarTimes.get(location);
+                if (cached == null) {
+                    cached = location.lastModified();
+                    jarTimes.put(location, cached);
+                }
+                mtime = cached;
+            }
+            if (mtime == 0) {
+                return null;
+            }
+            return CURRENT_VERSION + ":" + type.getName() + "@" + source.getPath() + "@" + mtime;
+        }
+
+        /**
+         * Find the jar or directory a class was loaded from.
+         * @return The class's code location, or {@code null} if it is not a local file.
+         */
+        @Nullable
+        private static File codeLocation(Class<?> type) {
+            if (type.getClassLoader() == null) {
+                // bootstrap classes have no code source
+                return null;
+            }
+            try {
+                CodeSource code = type.getProtectionDomain().getCodeSource();
+                URL url = code == null ? null : code.getLocation();
+                if (url == null || !url.getProtocol().equals("file")) {
+                    return null;
+                }
+                return new File(url.toURI());
+            } catch (SecurityException e) {
+                return null;
+            } catch (URISyntaxException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        Long get(String key) {
+            return hashes.get(key);
+        }
+
+        void put(String key, long hash) {
+            hashes.put(key, hash);
+            dirty = true;
+        }
+
+        private void load() {
+            if (!file.exists()) {
+                return;
+            }
+            Properties props = new Properties();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    props.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.warn("cannot read fingerprint cache {}: {}", file, e.toString());
+                return;
+            }
+            for (String key: props.stringPropertyNames()) {
+                try {
+                    hashes.put(key, Long.parseLong(props.getProperty(key)));
+                } catch (NumberFormatException e) {
+                    logger.debug("ignoring malformed fingerprint cache entry {}", key);
+                }
+            }
+            logger.debug("loaded {} cached fingerprints from {}", hashes.size(), file);
+        }
+
+        void save() {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            Properties props = new Properties();
+            for (Map.Entry<String, Long> e: hashes.entrySet()) {
+                props.setProperty(e.getKey(), Long.toString(e.getValue()));
+            }
+            File tmp = null;
+            try {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("cannot create directory " + parent);
+                }
+                tmp = File.createTempFile(file.getName(), ".tmp", parent);
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    props.store(out, "grapht class fingerprints");
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) {
+                    // rename-over fails on some platforms
+                    if (!file.delete() || !tmp.renameTo(file)) {
+                        throw new IOException("cannot replace " + file);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("cannot write fingerprint cache {}: {}", file, e.toString());
+                if (tmp != null) {
+                    tmp.delete();
+                }
+            }
+        }
+    }
+}
@@ -19,24 +19,17 @@
  */
 package org.grouplens.grapht.util;
 
+import com.google.common.base.Function;
 import org.apache.commons.lang3.ClassUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
-import javax.inject.Inject;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
-import java.lang.reflect.*;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.*;
 
 /**
  * A serialization proxy for class instances.  This serializable class encapsulates a simple
@@ -46,6 +39,13 @@ import java.util.*;
  *     {@link Class#getName()}.  The name encodes array information, so this is adequate
  *     to fully reconstruct the class.
  * </p>
+ * <p>
+ *     Proxies also carry a fingerprint of the class's injection-sensitive members, so that
+ *     deserialization can detect changed class definitions.  Fingerprints are computed once
+ *     per class; set the {@code grapht.fingerprint.cache} system property to a file name to
+ *     also cache them on disk across runs, and call {@link #saveFingerprintCache()} to write
+ *     the cache.
+ * </p>
  *
  * @author <a href="http://grouplens.org">GroupLens Research</a>
  */
@@ -56,13 +56,19 @@ public final class ClassProxy implements Serializable {
 
     private final String className;
     private final long checksum;
+    /**
+     * The version of the checksum algorithm.  Proxies serialized before checksums were versioned
+     * deserialize with version 0, the original algorithm.
+     */
+    private final int checksumVersion;
     @Nullable
     private transient volatile WeakReference<Class<?>> theClass;
     private transient ClassLoader classLoader;
 
-    private ClassProxy(String name, long check) {
+    private ClassProxy(String name, long check, int version) {
         className = name;
         checksum = check;
+        checksumVersion = version;
         classLoader = ClassLoaders.inferDefault(ClassProxy.class);
     }
 
@@ -116,7 +122,14 @@ public final class ClassProxy implements Serializable {
             } else {
                 cls = ClassUtils.getClass(classLoader, className);
             }
-            long check = checksumClass(cls);
+            long check;
+            if (checksumVersion > ClassFingerprints.CURRENT_VERSION) {
+                // we cannot verify checksums from the future
+                logger.debug("unknown checksum version {} for {}", checksumVersion, className);
+                check = ~checksum;
+            } else {
+                check = ClassFingerprints.fingerprint(cls, checksumVersion);
+            }
             if (!isSerializationPermissive() && checksum != check) {
                 throw new ClassNotFoundException("checksum mismatch for " + cls.getName());
             } else {
@@ -129,110 +142,40 @@ public final class ClassProxy implements Serializable {
         return cls;
     }
 
-    private static final Map<Class<?>, ClassProxy> proxyCache = new WeakHashMap<Class<?>, ClassProxy>();
+    private static final ClassCache<ClassProxy> proxyCache =
+            ClassCache.create(new Function<Class<?>, ClassProxy>() {
+                @Override
+                public ClassProxy apply(Class<?> cls) {
+                    ClassProxy proxy = new ClassProxy(cls.getName(), ClassFingerprints.fingerprint(cls),
+                                                      ClassFingerprints.CURRENT_VERSION);
+                    proxy.theClass = new WeakReference<Class<?>>(cls);
+                    return proxy;
+                }
+            });
 
     /**
-     * Construct a class proxy for a class.
+     * Write the on-disk fingerprint cache named by the {@code grapht.fingerprint.cache} system
+     * property, so that later runs can reuse the fingerprints computed in this one.  Does nothing
+     * if the property is not set or no new fingerprints have been computed.  Failures are logged
+     * and otherwise ignored.
      *
-     * @param cls The class.
-     * @return The class proxy.
+     * @since 0.11
      */
-    public static synchronized ClassProxy of(Class<?> cls) {
-        ClassProxy proxy = proxyCache.get(cls);
-        if (proxy == null) {
-            proxy = new ClassProxy(cls.getName(), checksumClass(cls));
-            proxy.theClass = new WeakReference<Class<?>>(cls);
-            proxyCache.put(cls, proxy);
-        }
-        return proxy;
-    }
-
-    private static final Charset UTF8 = Charset.forName("UTF-8");
-
-    public static boolean isSerializationPermissive() {
-        return Boolean.getBoolean("grapht.deserialization.permissive");
+    public static void saveFingerprintCache() {
+        ClassFingerprints.saveDiskCache();
     }
 
     /**
-     * Compute a checksum for a class. These checksums are used to see if a class has changed
-     * its definition since being serialized.
-     * <p>
-     * The checksum used here is not cryptographically strong. It is intended only as a sanity
-     * check to detect incompatible serialization, not to robustly prevent tampering. The
-     * checksum algorithm currently is to compute an MD5 checksum over class member signatures
-     * and XOR the lower and upper halves of the checksum.
-     * </p>
+     * Construct a class proxy for a class.
      *
-     * @param type The class to checksum.
-     * @return The
+     * @param cls The class.
+     * @return The class proxy.
      */
-    private static long checksumClass(Class<?> type) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("JVM does not support MD5");
-        }
-        checksumClass(type, digest);
-
-        ByteBuffer buf = ByteBuffer.wrap(digest.digest());
-        return buf.getLong() ^ buf.getLong();
+    public static ClassProxy of(Class<?> cls) {
+        return proxyCache.get(cls);
     }
 
-    private static void checksumClass(Class<?> type, MessageDigest digest) {
-        // we compute a big hash of all the members of the class, and its superclasses.
-
-        List<String> members = new ArrayList<String>();
-        for (Constructor<?> c: type.getDeclaredConstructors()) {
-            if (isInjectionSensitive(c)) {
-                members.add(String.format("%s(%s)", c.getName(),
-                                          StringUtils.join(c.getParameterTypes(), ", ")));
-            }
-        }
-        for (Method m: type.getDeclaredMethods()) {
-            if (isInjectionSensitive(m)) {
-                members.add(String.format("%s(%s): %s", m.getName(),
-                                          StringUtils.join(m.getParameterTypes(), ", "),
-                                          m.getReturnType()));
-            }
-        }
-        for (Field f: type.getDeclaredFields()) {
-            if (isInjectionSensitive(f)) {
-                members.add(f.getName() + ":" + f.getType().getName());
-            }
-        }
-
-        Collections.sort(members);
-
-        Class<?> sup = type.getSuperclass();
-        if (sup != null) {
-            checksumClass(sup, digest);
-        }
-        for (String mem: members) {
-            digest.update(mem.getBytes(UTF8));
-        }
-    }
-
-    /**
-     * Check whether a member is injection-sensitive and should be checked for validity in
-     * deserialization.
-     *
-     * @param m The member.
-     * @param <M> The type of member (done so we can check multiple types).
-     * @return {@code true} if the member should be checksummed, {@code false} to ignore it.
-     */
-    private static <M extends Member & AnnotatedElement>boolean isInjectionSensitive(M m) {
-        // static methods are not sensitive
-        if (Modifier.isStatic(m.getModifiers())) {
-            return false;
-        }
-
-        // private members w/o @Inject are not sensitive
-        if (Modifier.isPrivate(m.getModifiers()) && m.getAnnotation(Inject.class) == null) {
-            return false;
-        }
-
-        // public, protected, or @Inject - it's sensitive (be conservative)
-        return true;
+    public static boolean isSerializationPermissive() {
+        return Boolean.getBoolean("grapht.deserialization.permissive");
     }
 }
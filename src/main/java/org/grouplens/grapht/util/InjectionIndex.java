@@ -0,0 +1,396 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.util;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Build-time index of injection metadata.  The {@link org.grouplens.grapht.annotation.InjectionIndexer}
+ * annotation processor writes an index resource for each module it compiles, describing each
+ * class's {@link javax.inject.Inject @Inject} constructor and fields, whether it has injectable
+ * methods, whether it is instantiable, and whether it carries default-binding annotations.
+ * Grapht consults the index before scanning classes by reflection, and falls back to
+ * reflection for classes that are not indexed.
+ * <p>
+ * Since an index resource can be older than the classes it describes (for example, when a class
+ * is recompiled without the indexer), {@link #lookup(Class)} checks each entry against the
+ * class's declared members before returning it: the indexed constructor and fields must exist
+ * and carry {@link javax.inject.Inject @Inject}, and an instantiable class must not be abstract.
+ * Entries that fail the check are ignored, so the class is scanned by reflection.  The check
+ * cannot notice injection points <em>added</em> since the index was built.
+ * <p>
+ * The index resources visible to a class loader are loaded once, when the loader is first
+ * queried, and merged into an immutable map.
+ *
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@Immutable
+public final class InjectionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(InjectionIndex.class);
+    /**
+     * The name of the index resource.
+     */
+    public static final String INDEX_RESOURCE = "META-INF/grapht/injection.index";
+    /**
+     * The first line of an index resource; it identifies the format version.
+     */
+    public static final String INDEX_HEADER = "# grapht injection index 1";
+
+    private static final InjectionIndex EMPTY = new InjectionIndex(ImmutableMap.<String, Entry>of());
+    private static final LoadingCache<ClassLoader, InjectionIndex> indexes =
+            CacheBuilder.newBuilder()
+                        .weakKeys()
+                        .build(new CacheLoader<ClassLoader, InjectionIndex>() {
+                            @Override
+                            public InjectionIndex load(@Nonnull ClassLoader loader) {
+                                return loadIndex(loader);
+                            }
+                        });
+    private static final LoadingCache<Class<?>, Optional<Entry>> validEntries =
+            CacheBuilder.newBuilder()
+                        .weakKeys()
+                        .build(new CacheLoader<Class<?>, Optional<Entry>>() {
+                            @Override
+                            public Optional<Entry> load(@Nonnull Class<?> type) {
+                                Entry entry = forClassLoader(type.getClassLoader()).get(type.getName());
+                                if (entry != null && !entry.isCurrent(type)) {
+                                    logger.debug("injection index entry for {} is out of date", type);
+                                    entry = null;
+                                }
+                                return Optional.fromNullable(entry);
+                            }
+                        });
+
+    private final Map<String, Entry> entries;
+
+    private InjectionIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Get the index of a class loader.
+     * @param loader The class loader ({@code null} for the bootstrap loader, which has no index).
+     * @return The merged index of all index resources visible to the loader.
+     */
+    @Nonnull
+    public static InjectionIndex forClassLoader(@Nullable ClassLoader loader) {
+        if (loader == null) {
+            return EMPTY;
+        }
+        return indexes.getUnchecked(loader);
+    }
+
+    /**
+     * Look up the index entry for a class.
+     * @param type The class.
+     * @return The class's entry in the index of its class loader, or {@code null} if the class
+     * is not indexed or its entry does not match the class.
+     */
+    @Nullable
+    public static Entry lookup(Class<?> type) {
+        return validEntries.getUnchecked(type).orNull();
+    }
+
+    /**
+     * Get an entry from this index.
+     * @param className The binary name of the class.
+     * @return The class's entry, or {@code null} if it is not indexed.
+     */
+    @Nullable
+    public Entry get(String className) {
+        return entries.get(className);
+    }
+
+    /**
+     * @return The number of classes in this index.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static InjectionIndex loadIndex(ClassLoader loader) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        Enumeration<URL> urls;
+        try {
+            urls = loader.getResources(INDEX_RESOURCE);
+        } catch (IOException e) {
+            logger.warn("cannot list injection indexes: {}", e.toString());
+            return EMPTY;
+        }
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            try {
+                readIndex(url, entries);
+            } catch (IOException e) {
+                logger.warn("cannot read injection index {}: {}", url, e.toString());
+            }
+        }
+        logger.debug("loaded {} injection index entries", entries.size());
+        return new InjectionIndex(ImmutableMap.copyOf(entries));
+    }
+
+    private static void readIndex(URL url, Map<String, Entry> entries) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.equals(INDEX_HEADER)) {
+                logger.warn("{} is not a supported injection index", url);
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Entry entry = Entry.parse(line);
+                if (entry == null) {
+                    logger.debug("ignoring malformed index line in {}: {}", url, line);
+                } else if (!entries.containsKey(entry.getClassName())) {
+                    // the first definition on the class path wins, like class loading
+                    entries.put(entry.getClassName(), entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * An index entry, describing a single class.
+     * <p>
+     * Entries are serialized as a line of tab-separated fields: the class's binary name, its
+     * flags, the binary names of its {@code @Inject} constructor's parameter types (separated by
+     * commas), and the names of its non-static {@code @Inject} fields (separated by commas).
+     * The flags are characters:
+     * <dl>
+     * <dt>{@code c}</dt><dd>The entry is complete: its member information matches what a
+     * reflective scan of the class would find.  Entries for interfaces, enums, inner classes, and
+     * classes with more than one {@code @Inject} constructor are not complete.</dd>
+     * <dt>{@code i}</dt><dd>The class is instantiable.</dd>
+     * <dt>{@code k}</dt><dd>The class has an {@code @Inject} constructor.</dd>
+     * <dt>{@code m}</dt><dd>The class declares non-static {@code @Inject} methods.</dd>
+     * <dt>{@code d}</dt><dd>The class has default-binding annotations.</dd>
+     * </dl>
+     */
+    @Immutable
+    public static final class Entry {
+        private static final Splitter TAB = Splitter.on('\t');
+        private static final Splitter COMMA = Splitter.on(',').omitEmptyStrings();
+
+        private final String className;
+        private final String flags;
+        private final List<String> constructorParameters;
+        private final List<String> fields;
+
+        /**
+         * Create an index entry.
+         * @param name The binary name of the class.
+         * @param flags The entry's flags.
+         * @param ctorParams The parameter types of the injectable constructor.
+         * @param fields The names of the class's non-static injectable fields.
+         */
+        public Entry(String name, String flags, List<String> ctorParams, List<String> fields) {
+            className = name;
+            this.flags = flags;
+            constructorParameters = ImmutableList.copyOf(ctorParams);
+            this.fields = ImmutableList.copyOf(fields);
+        }
+
+        @Nullable
+        static Entry parse(String line) {
+            List<String> parts = ImmutableList.copyOf(TAB.split(line));
+            if (parts.size() != 4 || parts.get(0).isEmpty()) {
+                return null;
+            }
+            return new Entry(parts.get(0), parts.get(1),
+                             ImmutableList.copyOf(COMMA.split(parts.get(2))),
+                             ImmutableList.copyOf(COMMA.split(parts.get(3))));
+        }
+
+        /**
+         * @return The binary name of the class.
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return {@code true} if the entry's member information can be used instead of
+         * scanning the class.
+         */
+        public boolean isComplete() {
+            return flags.indexOf('c') >= 0;
+        }
+
+        /**
+         * @return {@code true} if the class is instantiable, in the sense of
+         * {@link Types#isInstantiable(Class)}.  Only meaningful for complete entries.
+         */
+        public boolean isInstantiable() {
+            return flags.indexOf('i') >= 0;
+        }
+
+        /**
+         * @return {@code true} if the class has an {@code @Inject} constructor.
+         */
+        public boolean hasInjectConstructor() {
+            return flags.indexOf('k') >= 0;
+        }
+
+        /**
+         * @return {@code true} if the class declares non-static {@code @Inject} methods.
+         */
+        public boolean hasInjectMethods() {
+            return flags.indexOf('m') >= 0;
+        }
+
+        /**
+         * @return {@code true} if the class may carry default-binding annotations such as
+         * {@link org.grouplens.grapht.annotation.DefaultImplementation}.
+         */
+        public boolean hasDefaults() {
+            return flags.indexOf('d') >= 0;
+        }
+
+        /**
+         * @return The binary names of the {@code @Inject} constructor's parameter types.
+         */
+        public List<String> getConstructorParameters() {
+            return constructorParameters;
+        }
+
+        /**
+         * @return The names of the class's non-static {@code @Inject} fields, in declaration
+         * order.
+         */
+        public List<String> getInjectFields() {
+            return fields;
+        }
+
+        /**
+         * Find the indexed {@code @Inject} constructor in a class.
+         * @param type The class.
+         * @return The constructor whose parameter types match {@link #getConstructorParameters()},
+         * or {@code null} if the class has no such constructor.
+         */
+        @Nullable
+        public Constructor<?> findInjectConstructor(Class<?> type) {
+            for (Constructor<?> ctor: type.getDeclaredConstructors()) {
+                Class<?>[] params = ctor.getParameterTypes();
+                if (params.length == constructorParameters.size()) {
+                    boolean match = true;
+                    for (int i = 0; match && i < params.length; i++) {
+                        match = params[i].getName().equals(constructorParameters.get(i));
+                    }
+                    if (match) {
+                        return ctor;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Check this entry against the class it describes.  This only looks up the members the
+         * entry names, so it is much cheaper than scanning the class.
+         * @param type The class.
+         * @return {@code false} if the entry is certainly out of date.
+         */
+        boolean isCurrent(Class<?> type) {
+            if (!type.getName().equals(className)) {
+                return false;
+            }
+            if (isComplete() && isInstantiable()
+                && (type.isInterface() || Modifier.isAbstract(type.getModifiers()))) {
+                return false;
+            }
+            if (hasInjectConstructor()) {
+                Constructor<?> ctor = findInjectConstructor(type);
+                if (ctor == null || ctor.getAnnotation(Inject.class) == null) {
+                    return false;
+                }
+            } else if (!constructorParameters.isEmpty()) {
+                return false;
+            }
+            for (String name: fields) {
+                Field field;
+                try {
+                    field = type.getDeclaredField(name);
+                } catch (NoSuchFieldException e) {
+                    return false;
+                }
+                if (field.getAnnotation(Inject.class) == null
+                    || Modifier.isStatic(field.getModifiers())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Format this entry as an index line.
+         * @return The index line (without a line terminator).
+         */
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(className).append('\t')
+              .append(flags).append('\t');
+            join(sb, constructorParameters).append('\t');
+            join(sb, fields);
+            return sb.toString();
+        }
+
+        private static StringBuilder join(StringBuilder sb, List<String> items) {
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(items.get(i));
+            }
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            return "InjectionIndex.Entry(" + format() + ")";
+        }
+    }
+}
@@ -21,27 +21,87 @@ package org.grouplens.grapht.util;
 
 import java.util.Collections;
 import java.util.Map;
+
+import org.grouplens.grapht.DiagnosticLevel;
 import org.slf4j.MDC;
 
 /**
  * Utility class to manage log data with {@link MDC}.  This class allows MDC parameters
  * to be set, and popped back off when the context is finished.
+ *
+ * <p>Log contexts honor the current thread's {@linkplain DiagnosticLevel diagnostic level}; if
+ * it is lower than the level a context requires, the context is inactive and does no MDC work.
  */
 
 public class LogContext {
-    @SuppressWarnings("rawtypes")
+    private static final ThreadLocal<DiagnosticLevel> currentLevel = new ThreadLocal<DiagnosticLevel>() {
+        @Override
+        protected DiagnosticLevel initialValue() {
+            return DiagnosticLevel.FULL;
+        }
+    };
+    private static final LogContext INACTIVE = new LogContext(false);
 
-    private final Map memory = MDC.getCopyOfContextMap();
+    @SuppressWarnings("rawtypes")
+    private final Map memory;
+    private final boolean active;
 
-    private  LogContext() {}
+    private  LogContext(boolean act) {
+        active = act;
+        memory = act ? MDC.getCopyOfContextMap() : null;
+    }
 
     /**
      * Method creates a new log context,
      * capturing the MDC's current data to be
-     * restored when finish() is called.
+     * restored when finish() is called.  The context is only active if the current
+     * diagnostic level is at least {@link DiagnosticLevel#BASIC}.
      */
     static public  LogContext create() {
-        return new LogContext();
+        return create(DiagnosticLevel.BASIC);
+    }
+
+    /**
+     * Create a new log context if the current diagnostic level allows it.
+     * @param required The diagnostic level required for the context to be active.
+     * @return A new log context, or an inactive context if the current level is below
+     * {@code required}.
+     */
+    public static LogContext create(DiagnosticLevel required) {
+        return isEnabled(required) ? new LogContext(true) : INACTIVE;
+    }
+
+    /**
+     * Query whether the current thread records diagnostics at a particular level.
+     * @param required The diagnostic level.
+     * @return {@code true} if the current level is at least {@code required}.
+     */
+    public static boolean isEnabled(DiagnosticLevel required) {
+        return currentLevel.get().compareTo(required) >= 0;
+    }
+
+    /**
+     * Set the diagnostic level for the current thread.  This is normally done by instantiators
+     * created by an {@link org.grouplens.grapht.InjectionContainer}.
+     *
+     * @param level The new level.
+     * @return The previous level, to be restored when the caller is done.
+     */
+    public static DiagnosticLevel setLevel(DiagnosticLevel level) {
+        DiagnosticLevel prev = currentLevel.get();
+        if (prev != level) {
+            currentLevel.set(level);
+        }
+        return prev;
+    }
+
+    /**
+     * Query whether this context is active.  Callers can use this to avoid computing values
+     * that an inactive context would discard.
+     * @return {@code true} if this context records values in the MDC.
+     */
+    public boolean isActive() {
+        return active;
     }
 
     /**
@@ -51,7 +111,9 @@ public class LogContext {
      * @see MDC#put(String, String)
      */
     public void put(String key, String value) {
-        MDC.put(key, value);
+        if (active) {
+            MDC.put(key, value);
+        }
     }
 
     /**
@@ -59,7 +121,8 @@ public class LogContext {
      * log context was created.
      */
     public void finish() {
-        MDC.setContextMap(memory == null ? Collections.EMPTY_MAP : memory);
+        if (active) {
+            MDC.setContextMap(memory == null ? Collections.EMPTY_MAP : memory);
+        }
     }
 }
-
@@ -0,0 +1,239 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A value computed at most once, on first access.  The value moves through the states
+ * <em>unset</em>, <em>constructing</em>, and then either <em>value</em> or <em>failed</em>;
+ * transitions are published with compare-and-set, so no lock is ever taken and reading a
+ * published value is a single volatile read.
+ *
+ * <p>While one thread is computing the value, other callers of {@link #get()} wait as directed
+ * by the value's {@link WaitPolicy}: they can block until the computation finishes, wait for a
+ * limited time, or fail immediately.  If the computation fails, its exception is remembered and
+ * reported to all subsequent callers, unless the value was created to retry failures: then the
+ * failure is only reported to the caller that computed it, and the value returns to
+ * <em>unset</em> so that the next caller computes it again.
+ *
+ * @param <T> The type of value.
+ * @since 0.11
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+@ThreadSafe
+public final class MemoizedValue<T> {
+    private static final State UNSET = new State();
+
+    private final Callable<? extends T> computation;
+    private final WaitPolicy waitPolicy;
+    private final boolean retryFailures;
+    private final AtomicReference<State> state = new AtomicReference<State>(UNSET);
+
+    private MemoizedValue(Callable<? extends T> comp, WaitPolicy policy, boolean retry) {
+        computation = comp;
+        waitPolicy = policy;
+        retryFailures = retry;
+    }
+
+    /**
+     * Create a memoized value whose waiters block until the value is available.
+     * @param computation The computation to produce the value.
+     * @param <T> The type of value.
+     * @return The memoized value.
+     */
+    public static <T> MemoizedValue<T> create(Callable<? extends T> computation) {
+        return create(computation, WaitPolicy.BLOCK);
+    }
+
+    /**
+     * Create a memoized value.
+     * @param computation The computation to produce the value.
+     * @param policy How callers should wait while another thread computes the value.
+     * @param <T> The type of value.
+     * @return The memoized value.
+     */
+    public static <T> MemoizedValue<T> create(Callable<? extends T> computation, WaitPolicy policy) {
+        return create(computation, policy, false);
+    }
+
+    /**
+     * Create a memoized value, choosing whether failures are remembered.
+     * @param computation The computation to produce the value.
+     * @param policy How callers should wait while another thread computes the value.
+     * @param retryFailures {@code true} to compute the value again after a failed computation,
+     *                      {@code false} to report the failure to all subsequent callers.
+     * @param <T> The type of value.
+     * @return The memoized value.
+     */
+    public static <T> MemoizedValue<T> create(Callable<? extends T> computation, WaitPolicy policy,
+                                              boolean retryFailures) {
+        Preconditions.notNull("computation", computation);
+        Preconditions.notNull("wait policy", policy);
+        return new MemoizedValue<T>(computation, policy, retryFailures);
+    }
+
+    /**
+     * Get the value, computing it if necessary.
+     *
+     * @return The value (may be {@code null} if the computation produced {@code null}).
+     * @throws ExecutionException if the computation failed (now, or on an earlier call if
+     *                            failures are remembered).  The cause is the exception thrown by
+     *                            the computation.
+     * @throws TimeoutException if another thread is computing the value and the wait policy
+     *                          gave up waiting for it.
+     * @throws IllegalStateException if the value is requested by the thread computing it.
+     */
+    @SuppressWarnings("unchecked")
+    public T get() throws ExecutionException, TimeoutException {
+        State s = state.get();
+        while (!s.isDone()) {
+            if (s == UNSET) {
+                Constructing mine = new Constructing();
+                s = state.compareAndSet(UNSET, mine) ? compute(mine) : state.get();
+            } else {
+                await((Constructing) s);
+                s = state.get();
+            }
+        }
+
+        if (s.error != null) {
+            throw new ExecutionException(s.error);
+        } else {
+            return (T) s.value;
+        }
+    }
+
+    /**
+     * Query whether this value has been computed (successfully or not).
+     * @return {@code true} if the value or failure has been published.
+     */
+    public boolean isDone() {
+        return state.get().isDone();
+    }
+
+    /**
+     * Run the computation and publish its result.
+     * @return The result, which is returned to the computing thread even if it is a failure
+     * that is not published.
+     */
+    private State compute(Constructing mine) {
+        State result;
+        try {
+            result = new State(computation.call(), null);
+        } catch (Throwable th) {
+            result = new State(null, th);
+        }
+        state.set(result.error != null && retryFailures ? UNSET : result);
+        mine.latch.countDown();
+        return result;
+    }
+
+    private void await(Constructing c) throws TimeoutException {
+        if (c.owner == Thread.currentThread()) {
+            throw new IllegalStateException("recursive request for memoized value under construction");
+        }
+        if (waitPolicy.timeout < 0) {
+            Uninterruptibles.awaitUninterruptibly(c.latch);
+        } else if (!Uninterruptibles.awaitUninterruptibly(c.latch, waitPolicy.timeout, TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException("value is being computed by " + c.owner.getName());
+        }
+    }
+
+    /**
+     * Memoization state.  Instances of this class are either the unset sentinel or a published
+     * value or failure; the constructing state is a subclass.
+     */
+    private static class State {
+        final Object value;
+        final Throwable error;
+
+        private State() {
+            this(null, null);
+        }
+
+        State(Object v, Throwable th) {
+            value = v;
+            error = th;
+        }
+
+        boolean isDone() {
+            return this != UNSET && !(this instanceof Constructing);
+        }
+    }
+
+    /**
+     * State for a value under construction.
+     */
+    private static class Constructing extends State {
+        final Thread owner = Thread.currentThread();
+        final CountDownLatch latch = new CountDownLatch(1);
+    }
+
+    /**
+     * Policy for callers that request a value while another thread is computing it.
+     */
+    public static final class WaitPolicy {
+        /**
+         * Block until the value has been computed.
+         */
+        public static final WaitPolicy BLOCK = new WaitPolicy(-1);
+        /**
+         * Fail immediately with a {@link TimeoutException}.
+         */
+        public static final WaitPolicy FAIL_FAST = new WaitPolicy(0);
+
+        private final long timeout;
+
+        private WaitPolicy(long nanos) {
+            timeout = nanos;
+        }
+
+        /**
+         * Wait for a limited time, then fail with a {@link TimeoutException}.
+         * @param time The time to wait.
+         * @param unit The unit of {@code time}.
+         * @return The wait policy.
+         */
+        public static WaitPolicy timeout(long time, TimeUnit unit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("timeout cannot be negative");
+            }
+            return new WaitPolicy(unit.toNanos(time));
+        }
+
+        @Override
+        public String toString() {
+            if (timeout < 0) {
+                return "WaitPolicy(block)";
+            } else {
+                return "WaitPolicy(timeout=" + timeout + "ns)";
+            }
+        }
+    }
+}
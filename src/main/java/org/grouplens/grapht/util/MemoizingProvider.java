@@ -19,13 +19,21 @@
  */
 package org.grouplens.grapht.util;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Provider;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * MemoizingProvider is a Provider that enforces memoization or caching on
- * another Provider that it wraps.
+ * another Provider that it wraps.  Failures are not memoized: if the wrapped
+ * provider throws, the exception propagates and the next call to {@link #get()}
+ * invokes the wrapped provider again.
  *
  * @param <T>
  * @author <a href="http://grouplens.org">GroupLens Research</a>
@@ -33,18 +41,29 @@ import javax.inject.Provider;
 @ThreadSafe
 public class MemoizingProvider<T> implements TypedProvider<T> {
     private final Provider<T> wrapped;
-
-    // We track a boolean because this supports providing null instances, in
-    // which case we can't just check against null to see if we've already
-    // queried the base provider
-    private volatile T cached;
-    private volatile boolean invoked;
+    // supports providing null instances; a failed get() is retried by the next call
+    private final MemoizedValue<T> cached;
 
     public MemoizingProvider(@Nonnull Provider<T> provider) {
+        this(provider, MemoizedValue.WaitPolicy.BLOCK);
+    }
+
+    /**
+     * Construct a memoizing provider.
+     * @param provider The provider to memoize.
+     * @param policy What to do when the instance is requested while another thread is obtaining
+     *               it.  Callers that give up waiting get an {@link UncheckedTimeoutException}.
+     * @since 0.11
+     */
+    public MemoizingProvider(@Nonnull final Provider<T> provider, @Nonnull MemoizedValue.WaitPolicy policy) {
         Preconditions.notNull("provider", provider);
         wrapped = provider;
-        cached = null;
-        invoked = false;
+        cached = MemoizedValue.create(new Callable<T>() {
+            @Override
+            public T call() {
+                return provider.get();
+            }
+        }, policy, true);
     }
 
     @Override
@@ -54,14 +73,12 @@ public class MemoizingProvider<T> implements TypedProvider<T> {
 
     @Override
     public T get() {
-        if (!invoked) {
-            synchronized (this) {
-                if (!invoked) {
-                    cached = wrapped.get();
-                    invoked = true;
-                }
-            }
+        try {
+            return cached.get();
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (TimeoutException e) {
+            throw new UncheckedTimeoutException(e);
         }
-        return cached;
     }
 }
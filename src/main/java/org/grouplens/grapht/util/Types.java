@@ -19,6 +19,8 @@
  */
 package org.grouplens.grapht.util;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.reflect.TypeUtils;
 
 import javax.annotation.Nonnull;
@@ -26,7 +28,10 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 
 /**
  * Static helper methods for working with types.
@@ -38,6 +43,30 @@ public final class Types {
 
     private static final TypeVariable<?> PROVIDER_TYPE_VAR =Provider.class.getTypeParameters()[0];
 
+    /**
+     * Per-class metadata used by {@link #isInstantiable(Class)} and
+     * {@link #getTypeDistance(Class, Class)}.
+     */
+    private static final ClassCache<TypeInfo> typeInfo =
+            ClassCache.create(new Function<Class<?>, TypeInfo>() {
+                @Override
+                public TypeInfo apply(Class<?> type) {
+                    return new TypeInfo(type);
+                }
+            });
+
+    /**
+     * Provided types of provider classes.  This is separate from {@link #typeInfo}, as only
+     * provider classes have a provided type.
+     */
+    private static final ClassCache<Class<?>> providedTypes =
+            ClassCache.create(new Function<Class<?>, Class<?>>() {
+                @Override
+                public Class<?> apply(Class<?> type) {
+                    return computeProvidedType(type);
+                }
+            });
+
     private Types() {}
 
     private static final Class<?>[] PRIMITIVE_TYPES = {
@@ -131,7 +160,9 @@ public final class Types {
      * Return the type distance between the child and parent types. The child type
      * must be a subtype of the parent. The type distance between a class and itself is 0;
      * the distance from a class to one of its immediate supertypes (superclass or a directly
-     * implemented interface) is 1; deeper distances are computed recursively.
+     * implemented interface) is 1; the distance to a deeper supertype is the length of the
+     * shortest path of immediate supertypes leading to it.  Distances are looked up in a table
+     * computed once per child class.
      * 
      * @param child The child type
      * @param parent The parent type
@@ -145,37 +176,43 @@ public final class Types {
         if (child.equals(parent)) {
             // fast-path same-class tests
             return 0;
-        } else if (!parent.isAssignableFrom(child)) {
-            // if child does not extend from the parent, return -1
+        }
+        Integer distance = typeInfo.get(child).supertypeDistances.get(parent);
+        if (distance == null) {
             throw new IllegalArgumentException("child not a subclass of parent");
-        } else if (!parent.isInterface()) {
-            // if the parent is not an interface, we only need to follower superclasses
-            int distance = 0;
-            Class<?> cur = child;
-            while (!cur.equals(parent)) {
-                distance++;
-                cur = cur.getSuperclass();
-            }
-            return distance;
-        } else {
-            // worst case, recursively compute the type
-            // recursion is safe, as types aren't too deep except in crazy-land
-            int minDepth = Integer.MAX_VALUE;
-            Class<?> sup = child.getSuperclass();
-            if (sup != null && parent.isAssignableFrom(sup)) {
-                minDepth = getTypeDistance(sup, parent);
+        }
+        return distance;
+    }
+
+    /**
+     * Compute the distances from a type to each of its supertypes.  This is a breadth-first
+     * search over superclasses and directly implemented interfaces, so each supertype is
+     * recorded with its shortest distance.
+     *
+     * @param type The type.
+     * @return A map from each supertype of {@code type} (including itself) to its distance.
+     */
+    private static Map<Class<?>, Integer> computeSupertypeDistances(Class<?> type) {
+        Map<Class<?>, Integer> distances = new HashMap<Class<?>, Integer>();
+        Queue<Class<?>> work = new ArrayDeque<Class<?>>();
+        distances.put(type, 0);
+        work.add(type);
+        while (!work.isEmpty()) {
+            Class<?> cur = work.remove();
+            int next = distances.get(cur) + 1;
+            Class<?> sup = cur.getSuperclass();
+            if (sup != null && !distances.containsKey(sup)) {
+                distances.put(sup, next);
+                work.add(sup);
             }
-            for (Class<?> iface: child.getInterfaces()) {
-                if (parent.isAssignableFrom(iface)) {
-                    int d = getTypeDistance(iface, parent);
-                    if (d < minDepth) {
-                        minDepth = d;
-                    }
+            for (Class<?> iface: cur.getInterfaces()) {
+                if (!distances.containsKey(iface)) {
+                    distances.put(iface, next);
+                    work.add(iface);
                 }
             }
-            // minDepth now holds the depth of the superclass with shallowest depth
-            return minDepth + 1;
         }
+        return ImmutableMap.copyOf(distances);
     }
     
     /**
@@ -190,6 +227,10 @@ public final class Types {
     public static Class<?> getProvidedType(Class<? extends Provider<?>> providerClass) {
         com.google.common.base.Preconditions.checkArgument(Provider.class.isAssignableFrom(providerClass),
                                                            "class is not Provider class");
+        return providedTypes.get(providerClass);
+    }
+
+    private static Class<?> computeProvidedType(Class<?> providerClass) {
         Map<TypeVariable<?>, Type> bindings = TypeUtils.getTypeArguments(providerClass, Provider.class);
         if(!bindings.containsKey(PROVIDER_TYPE_VAR)){
             throw new IllegalArgumentException("Class provided by " + providerClass.getName() + " is generic");
@@ -232,6 +273,15 @@ public final class Types {
      * @return True if the class type is instantiable
      */
     public static boolean isInstantiable(Class<?> type) {
+        return typeInfo.get(type).instantiable;
+    }
+
+    private static boolean computeInstantiable(Class<?> type) {
+        InjectionIndex.Entry entry = InjectionIndex.lookup(type);
+        if (entry != null && entry.isComplete()) {
+            return entry.isInstantiable();
+        }
+
         if (!Modifier.isAbstract(type.getModifiers()) && !type.isInterface()) {
             // first check for a constructor annotated with @Inject, 
             //  - this doesn't care how many we'll let the injector complain
@@ -243,8 +293,8 @@ public final class Types {
             }
             
             // check if we only have the public default constructor
-            if (type.getConstructors().length == 1 
-                && type.getConstructors()[0].getParameterTypes().length == 0) {
+            Constructor<?>[] ctors = type.getConstructors();
+            if (ctors.length == 1 && ctors[0].getParameterTypes().length == 0) {
                 return true;
             }
         }
@@ -297,4 +347,17 @@ public final class Types {
     public static ClassLoader getDefaultClassLoader() {
         return ClassLoaders.inferDefault();
     }
+
+    /**
+     * Reflective metadata about a class, computed once and cached.
+     */
+    private static final class TypeInfo {
+        final boolean instantiable;
+        final Map<Class<?>, Integer> supertypeDistances;
+
+        TypeInfo(Class<?> type) {
+            instantiable = computeInstantiable(type);
+            supertypeDistances = computeSupertypeDistances(type);
+        }
+    }
 }
@@ -0,0 +1,255 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import com.google.common.base.Predicate;
+import org.apache.commons.lang3.tuple.Pair;
+import org.grouplens.grapht.annotation.DefaultImplementation;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.solver.DefaultDesireBindingFunction;
+import org.grouplens.grapht.solver.DependencySolver;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class BatchSolverTest {
+    private static DAGNode<Component,Dependency> find(DAGNode<Component,Dependency> graph, final Class<?> type) {
+        return graph.findNodeBFS(DAGNode.labelMatches(new Predicate<Component>() {
+            @Override
+            public boolean apply(@Nullable Component input) {
+                return input != null && input.getSatisfaction().getErasedType().equals(type);
+            }
+        }));
+    }
+
+    /**
+     * Summarize a graph as its set of (head label, initial desire, tail label) triples.
+     */
+    private static Set<Pair<Component, Pair<Desire, Component>>> edges(DAGNode<Component,Dependency> graph) {
+        Set<Pair<Component, Pair<Desire, Component>>> edges = new HashSet<Pair<Component, Pair<Desire, Component>>>();
+        for (DAGNode<Component,Dependency> node: graph.getReachableNodes()) {
+            for (DAGEdge<Component,Dependency> edge: node.getOutgoingEdges()) {
+                edges.add(Pair.of(node.getLabel(),
+                                  Pair.of(edge.getLabel().getInitialDesire(), edge.getTail().getLabel())));
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Solve a configuration on its own, as an injector built from it would.
+     */
+    private static DAGNode<Component,Dependency> solveSeparately(BindingFunctionBuilder base, Module delta,
+                                                                 Class<?> root) throws ResolutionException {
+        BindingFunctionBuilder overrides = new BindingFunctionBuilder();
+        overrides.applyModule(delta);
+        BindingFunctionBuilder config = base.clone();
+        config.overrideRules(overrides);
+        DependencySolver solver =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.INTERMEDIATE_TYPES))
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.SUPER_TYPES))
+                                .addBindingFunction(DefaultDesireBindingFunction.create())
+                                .build();
+        solver.resolve(Desires.create(null, root, false));
+        return solver.getGraph();
+    }
+
+    /**
+     * Check that each batch-solved variant is the graph a separate solve produces.
+     */
+    private static List<DAGNode<Component,Dependency>> solveAndCheck(BindingFunctionBuilder base,
+                                                                   Module... deltas) throws ResolutionException {
+        return solveAndCheck(Model.class, base, deltas);
+    }
+
+    private static List<DAGNode<Component,Dependency>> solveAndCheck(Class<?> root, BindingFunctionBuilder base,
+                                                                   Module... deltas) throws ResolutionException {
+        List<DAGNode<Component,Dependency>> graphs =
+                BatchSolver.create(base).addRoot(root).solve(Arrays.asList(deltas));
+        assertThat(graphs, hasSize(deltas.length));
+        for (int i = 0; i < deltas.length; i++) {
+            assertThat(edges(graphs.get(i)), equalTo(edges(solveSeparately(base, deltas[i], root))));
+        }
+        return graphs;
+    }
+
+    private static Module bindParam(final Class<? extends Param> type) {
+        return new Module() {
+            @Override
+            public void configure(Context ctx) {
+                ctx.bind(Param.class).to(type);
+            }
+        };
+    }
+
+    @Test
+    public void testVariants() throws ResolutionException {
+        BatchSolver solver = BatchSolver.create(new BindingFunctionBuilder()).addRoot(Model.class);
+        DAGNode<Component,Dependency> base = solver.getBaseGraph();
+        assertThat(find(base, FirstParam.class), notNullValue());
+
+        List<DAGNode<Component,Dependency>> graphs =
+                solver.solve(Arrays.asList(bindParam(SecondParam.class),
+                                           bindParam(FirstParam.class),
+                                           bindParam(SecondParam.class)));
+        assertThat(graphs, hasSize(3));
+
+        assertThat(find(graphs.get(0), SecondParam.class), notNullValue());
+        assertThat(find(graphs.get(0), FirstParam.class), nullValue());
+        assertThat(find(graphs.get(1), FirstParam.class), notNullValue());
+
+        // unaffected subgraphs are shared with the base graph
+        DAGNode<Component,Dependency> index = find(base, Index.class);
+        assertThat(find(graphs.get(0), Index.class), sameInstance(index));
+        assertThat(find(graphs.get(1), Index.class), sameInstance(index));
+        // identical variants share all their nodes
+        assertThat(find(graphs.get(2), Model.class), sameInstance(find(graphs.get(0), Model.class)));
+        assertThat(find(graphs.get(1), Model.class), sameInstance(find(base, Model.class)));
+    }
+
+    @Test
+    public void testMatchesSeparateSolves() throws ResolutionException {
+        solveAndCheck(new BindingFunctionBuilder(),
+                      bindParam(SecondParam.class),
+                      bindParam(FirstParam.class),
+                      bindParam(ThirdParam.class));
+    }
+
+    @Test
+    public void testMoreSpecificBaseRuleWins() throws ResolutionException {
+        BindingFunctionBuilder base = new BindingFunctionBuilder();
+        base.getRootContext().within(Model.class).bind(Param.class).to(FirstParam.class);
+        List<DAGNode<Component,Dependency>> graphs = solveAndCheck(base, bindParam(SecondParam.class));
+        assertThat(find(graphs.get(0), FirstParam.class), notNullValue());
+        assertThat(find(graphs.get(0), SecondParam.class), nullValue());
+    }
+
+    @Test
+    public void testEmptyDelta() throws ResolutionException {
+        BatchSolver solver = BatchSolver.create(new BindingFunctionBuilder()).addRoot(Model.class);
+        Module empty = new Module() {
+            @Override
+            public void configure(Context ctx) {
+            }
+        };
+        List<DAGNode<Component,Dependency>> graphs = solver.solve(Arrays.asList(empty));
+        assertThat(graphs.get(0), sameInstance(solver.getBaseGraph()));
+    }
+
+    @Test
+    public void testDeltaBindsIntermediateDesire() throws ResolutionException {
+        // Param defaults to FirstParam, so only the intermediate desire mentions FirstParam
+        Module delta = new Module() {
+            @Override
+            public void configure(Context ctx) {
+                ctx.bind(FirstParam.class).to(ThirdParam.class);
+            }
+        };
+        DAGNode<Component,Dependency> graph = solveAndCheck(new BindingFunctionBuilder(), delta).get(0);
+        assertThat(find(graph, ThirdParam.class), notNullValue());
+    }
+
+    @Test
+    public void testDeltaOverridesBaseRule() throws ResolutionException {
+        BindingFunctionBuilder base = new BindingFunctionBuilder();
+        base.getRootContext().bind(Param.class).to(ThirdParam.class);
+        List<DAGNode<Component,Dependency>> graphs = solveAndCheck(base, bindParam(SecondParam.class));
+        assertThat(find(graphs.get(0), SecondParam.class), notNullValue());
+        assertThat(find(graphs.get(0), ThirdParam.class), nullValue());
+    }
+
+    @Test
+    public void testSwappedQualifiedValues() throws ResolutionException {
+        BindingFunctionBuilder base = new BindingFunctionBuilder();
+        base.getRootContext().bind(Double.class).withQualifier(Alpha.class).to(0.1);
+        base.getRootContext().bind(Double.class).withQualifier(Beta.class).to(0.2);
+        Module swap = new Module() {
+            @Override
+            public void configure(Context ctx) {
+                ctx.within(Weights.class).bind(Double.class).withQualifier(Alpha.class).to(0.2);
+                ctx.within(Weights.class).bind(Double.class).withQualifier(Beta.class).to(0.1);
+            }
+        };
+        BatchSolver solver = BatchSolver.create(base).addRoot(Weights.class);
+        DAGNode<Component,Dependency> graph = solveAndCheck(Weights.class, base, swap).get(0);
+        // the variant's node has the same component and tails as the base node, wired differently
+        assertThat(find(graph, Weights.class), not(sameInstance(find(solver.getBaseGraph(), Weights.class))));
+    }
+
+    @Qualifier
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Alpha {}
+
+    @Qualifier
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Beta {}
+
+    public static class Weights {
+        @Inject
+        public Weights(@Alpha Double a, @Beta Double b) {}
+    }
+
+    @DefaultImplementation(FirstParam.class)
+    public static interface Param {}
+
+    public static class FirstParam implements Param {
+        @Inject
+        public FirstParam() {}
+    }
+
+    public static class SecondParam implements Param {
+        @Inject
+        public SecondParam() {}
+    }
+
+    public static class ThirdParam extends FirstParam {
+        @Inject
+        public ThirdParam() {}
+    }
+
+    public static class Index {
+        @Inject
+        public Index() {}
+    }
+
+    public static class Model {
+        @Inject
+        public Model(Index idx, Param param) {}
+    }
+}
@@ -57,6 +57,17 @@ public class DefaultBindingsTest {
         assertThat(a, instanceOf(CDftImplB.class));
     }
 
+    @Test
+    public void testDefaultsReusedAcrossInjectors() throws InjectionException {
+        // the second injector uses cached default templates, and must see the same defaults
+        for (int i = 0; i < 2; i++) {
+            Injector inj = InjectorBuilder.create(DefaultBindingsTest.class.getClassLoader()).build();
+            assertThat(inj.getInstance(IDftImpl.class), instanceOf(CDftImplA.class));
+            assertThat(inj.getInstance(IDftProvider.class), instanceOf(PDftProvider.Impl.class));
+            assertThat(inj.getInstance(IPropDftImpl.class), instanceOf(CPropDftImplA.class));
+        }
+    }
+
     @Test
     public void testDefaultProvider() throws InjectionException {
         Injector inj = b.build();
@@ -91,6 +102,16 @@ public class DefaultBindingsTest {
         assertThat(a, instanceOf(CPropDftImplB.class));
     }
 
+    @Test
+    public void testIndexedDefaultImplementation() throws InjectionException {
+        Injector inj = b.build();
+        IIdxDftImpl a = inj.getInstance(IIdxDftImpl.class);
+        assertThat(a, notNullValue());
+        assertThat(a, instanceOf(CIdxDftImpl.class));
+        // the index sets the NEW_INSTANCE cache policy
+        assertThat(inj.getInstance(IIdxDftImpl.class), not(sameInstance(a)));
+    }
+
     @Test
     public void testPropDefaultProvider() throws InjectionException {
         Injector inj = b.build();
@@ -212,6 +212,83 @@ public class GraphRewritingTest {
         assertThat(graph2, sameInstance(graph));
     }
 
+    @Test
+    public void testRewriteLeavesSolverUntouched() throws ResolutionException {
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        config.getRootContext()
+              .bind(I.class)
+              .to(C.class);
+        config.getRootContext()
+              .bind(I2.class)
+              .to(A.class);
+        DependencySolver initial =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .build();
+        initial.resolve(Desires.create(null, I.class, false));
+        DAGNode<Component, Dependency> graph = initial.getGraph();
+
+        DependencySolver rewriter =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT), false)
+                                .build();
+        assertThat(rewriter.rewrite(graph), sameInstance(graph));
+        // the rewritten graph's nodes are not in the rewriter's own merge pool
+        rewriter.resolve(Desires.create(null, I.class, false));
+        assertThat(rewriter.getGraph().getOutgoingEdges().iterator().next().getTail(),
+                   not(sameInstance(graph.getOutgoingEdges().iterator().next().getTail())));
+    }
+
+    private static Class<?> rewriteChain(boolean lean) throws ResolutionException {
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        config.getRootContext()
+              .bind(J0.class)
+              .to(J.class);
+        config.getRootContext()
+              .bind(J.class)
+              .to(JC.class);
+        DependencySolver initial =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .setLeanGraph(lean)
+                                .build();
+        initial.resolve(Desires.create(null, J0.class, false));
+        DAGNode<Component, Dependency> graph = initial.getGraph();
+        assertThat(graph.getOutgoingEdges().iterator().next()
+                        .getTail().getLabel().getSatisfaction().getErasedType(),
+                   equalTo((Class) JC.class));
+
+        BindingFunctionBuilder trigger = new BindingFunctionBuilder();
+        trigger.getRootContext()
+               .bind(J.class)
+               .to(JD.class);
+        DependencySolver rewriter =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(trigger.build(BindingFunctionBuilder.RuleSet.EXPLICIT), true)
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT), false)
+                                .build();
+        DAGNode<Component, Dependency> graph2 = rewriter.rewrite(graph);
+        return graph2.getOutgoingEdges().iterator().next()
+                     .getTail().getLabel().getSatisfaction().getErasedType();
+    }
+
+    @Test
+    public void testRewriteIntermediateDesire() throws ResolutionException {
+        // the trigger matches J, which only appears in the middle of the J0 -> J -> JC chain
+        assertThat(rewriteChain(false), equalTo((Class) JD.class));
+    }
+
+    @Test
+    public void testLeanGraphMissesIntermediateDesire() throws ResolutionException {
+        // lean graphs drop the intermediate J desire, so the trigger cannot see it
+        assertThat(rewriteChain(true), equalTo((Class) JC.class));
+    }
+
+    public static interface J0 {}
+    public static interface J extends J0 {}
+    public static class JC implements J {}
+    public static class JD implements J {}
+
     public static interface I {}
     public static interface I2 {}
     public static class C implements I {
@@ -0,0 +1,236 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.solver.DependencySolver;
+import org.grouplens.grapht.util.LogContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Test eager and asynchronous instantiation in injection containers.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class InjectionContainerTest {
+    private static CountDownLatch latch;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        latch = new CountDownLatch(2);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private DAGNode<Component,Dependency> solve(Class<?> type) throws ResolutionException {
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        DependencySolver solver =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .build();
+        solver.resolve(Desires.create(null, type, false));
+        return solver.getGraph();
+    }
+
+    @Test
+    public void testEagerInstantiation() throws InjectionException {
+        DAGNode<Component,Dependency> graph = solve(Top.class);
+        InjectionContainer container = InjectionContainer.create(CachePolicy.NEW_INSTANCE);
+        container.instantiateEagerly(graph, executor);
+        assertThat(latch.getCount(), equalTo(0L));
+
+        DAGNode<Component,Dependency> top = graph.getOutgoingEdges().iterator().next().getTail();
+        Top obj = (Top) container.makeInstantiator(top).instantiate();
+        Top obj2 = (Top) container.makeInstantiator(top).instantiate();
+        // top is not memoized, but its dependencies are shared
+        assertThat(obj2, not(sameInstance(obj)));
+        assertThat(obj2.left, sameInstance(obj.left));
+        assertThat(obj2.right, sameInstance(obj.right));
+        assertThat(obj.left.parallel, equalTo(true));
+        assertThat(obj.right.parallel, equalTo(true));
+    }
+
+    @Test
+    public void testAsyncInstantiation() throws Exception {
+        DAGNode<Component,Dependency> graph = solve(Top.class);
+        InjectionContainer container = InjectionContainer.create(CachePolicy.NEW_INSTANCE);
+        DAGNode<Component,Dependency> top = graph.getOutgoingEdges().iterator().next().getTail();
+
+        Top obj = (Top) container.instantiateAsync(top, executor).get();
+        Top obj2 = (Top) container.instantiateAsync(top, executor).get();
+        assertThat(obj2, not(sameInstance(obj)));
+        assertThat(obj2.left, sameInstance(obj.left));
+        assertThat(obj.left.parallel, equalTo(true));
+        assertThat(obj.right.parallel, equalTo(true));
+
+        DAGNode<Component,Dependency> left =
+                top.findNodeBFS(DAGNode.labelMatches(new Predicate<Component>() {
+                    @Override
+                    public boolean apply(@Nullable Component input) {
+                        return input != null && input.getSatisfaction().getErasedType().equals(Left.class);
+                    }
+                }));
+        assertThat(container.instantiateAsync(left, executor),
+                   sameInstance(container.instantiateAsync(left, executor)));
+        assertThat(container.makeInstantiator(left).instantiate(), sameInstance((Object) obj.left));
+    }
+
+    @Test
+    public void testAsyncFailure() throws Exception {
+        DAGNode<Component,Dependency> graph = solve(Broken.class);
+        InjectionContainer container = InjectionContainer.create();
+        ListenableFuture<Object> result = container.instantiateAsync(graph.getOutgoingEdges().iterator().next().getTail(),
+                                                                     executor);
+        try {
+            result.get();
+            fail("instantiation should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ConstructionException.class));
+        }
+    }
+
+    @Test
+    public void testAsyncRetriesFailure() throws Exception {
+        DAGNode<Component,Dependency> graph = solve(Flaky.class);
+        DAGNode<Component,Dependency> node = graph.getOutgoingEdges().iterator().next().getTail();
+        InjectionContainer container = InjectionContainer.create();
+        flakyFailures = 1;
+        try {
+            container.instantiateAsync(node, executor).get();
+            fail("instantiation should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ConstructionException.class));
+        }
+        // the failure is not remembered
+        Object obj = container.instantiateAsync(node, executor).get();
+        assertThat(obj, instanceOf(Flaky.class));
+        assertThat(container.instantiateAsync(node, executor).get(), sameInstance(obj));
+        assertThat(container.makeInstantiator(node).instantiate(), sameInstance(obj));
+    }
+
+    @Test(expected = ConstructionException.class)
+    public void testEagerFailure() throws InjectionException {
+        DAGNode<Component,Dependency> graph = solve(Broken.class);
+        InjectionContainer container = InjectionContainer.create();
+        container.instantiateEagerly(graph, executor);
+    }
+
+    @Test
+    public void testFullDiagnosticsInsideOtherLevel() throws InjectionException {
+        DAGNode<Component,Dependency> graph = solve(Diagnosed.class);
+        InjectionContainer container = InjectionContainer.create(CachePolicy.NEW_INSTANCE);
+        Instantiator inst = container.makeInstantiator(graph.getOutgoingEdges().iterator().next().getTail());
+        // as if invoked from an instantiator of a container without diagnostics
+        Diagnosed obj = (Diagnosed) Instantiators.withDiagnostics(inst, DiagnosticLevel.OFF).instantiate();
+        assertThat(obj.fullDiagnostics, equalTo(true));
+    }
+
+    public static class Diagnosed {
+        final boolean fullDiagnostics;
+
+        @Inject
+        public Diagnosed() {
+            fullDiagnostics = LogContext.isEnabled(DiagnosticLevel.FULL);
+        }
+    }
+
+    public static class Top {
+        final Left left;
+        final Right right;
+
+        @Inject
+        public Top(Left l, Right r) {
+            left = l;
+            right = r;
+        }
+    }
+
+    /**
+     * Base class for components that can only both be constructed if they are constructed in
+     * parallel.
+     */
+    public abstract static class Parallel {
+        final boolean parallel;
+
+        protected Parallel() {
+            latch.countDown();
+            try {
+                parallel = latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Singleton
+    public static class Left extends Parallel {
+        @Inject
+        public Left() {}
+    }
+
+    @Singleton
+    public static class Right extends Parallel {
+        @Inject
+        public Right() {}
+    }
+
+    private static volatile int flakyFailures;
+
+    @Singleton
+    public static class Flaky {
+        @Inject
+        public Flaky() {
+            if (flakyFailures > 0) {
+                flakyFailures -= 1;
+                throw new IllegalStateException("flaky");
+            }
+        }
+    }
+
+    @Singleton
+    public static class Broken {
+        @Inject
+        public Broken() {
+            throw new IllegalStateException("broken");
+        }
+    }
+}
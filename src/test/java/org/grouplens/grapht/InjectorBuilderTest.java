@@ -19,11 +19,16 @@
  */
 package org.grouplens.grapht;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.grouplens.grapht.annotation.AnnotationBuilder;
 import org.grouplens.grapht.reflect.internal.types.*;
+import org.grouplens.grapht.util.LogContext;
+import org.grouplens.grapht.util.TypedProvider;
 import org.junit.Assert;
 import org.junit.Test;
+import org.slf4j.MDC;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 
 public class InjectorBuilderTest {
@@ -242,6 +247,75 @@ public class InjectorBuilderTest {
         i.getInstance(ShouldWork.class);
     }
 
+    @Test
+    public void testNewInstanceProvider() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create();
+        b.bind(InterfaceA.class).unshared().to(TypeA.class);
+        b.bind(InterfaceB.class).to(TypeB.class);
+        Injector i = b.build();
+
+        TypedProvider<InterfaceA> pa = i.getProvider(InterfaceA.class);
+        Assert.assertEquals(TypeA.class, pa.getProvidedType());
+        InterfaceA a1 = pa.get();
+        InterfaceA a2 = pa.get();
+        Assert.assertTrue(a1 instanceof TypeA);
+        Assert.assertNotSame(a1, a2);
+
+        TypedProvider<InterfaceB> pb = i.getProvider(InterfaceB.class);
+        Assert.assertSame(pb.get(), pb.get());
+        Assert.assertSame(i.getInstance(InterfaceB.class), pb.get());
+    }
+
+    @Test
+    public void testQualifiedProvider() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create();
+        b.bind(String.class).withQualifier(new AnnotationBuilder<Named>(Named.class).set("value", "test1").build()).to("hello world");
+        Injector i = b.build();
+
+        TypedProvider<String> p = i.getProvider(new AnnotationBuilder<Named>(Named.class).set("value", "test1").build(), String.class);
+        Assert.assertEquals("hello world", p.get());
+    }
+
+    @Test(expected=InjectionException.class)
+    public void testProviderNoConstructor() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create();
+        b.bind(ShouldWork.class).to(NotInjectable.class);
+        Injector i = b.build();
+
+        i.getProvider(ShouldWork.class);
+    }
+
+    @Test
+    public void testAsyncInstance() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create();
+        b.bind(InterfaceA.class).to(TypeA.class);
+        Injector i = b.build();
+
+        InterfaceA a = i.getInstanceAsync(InterfaceA.class, MoreExecutors.directExecutor()).get();
+        Assert.assertTrue(a instanceof TypeA);
+        Assert.assertSame(a, i.getInstance(InterfaceA.class));
+    }
+
+    @Test
+    public void testDiagnosticsOff() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create().setDiagnosticLevel(DiagnosticLevel.OFF);
+        b.bind(MdcProbe.class).unshared().to(MdcProbe.class);
+        Injector i = b.build();
+
+        MdcProbe probe = i.getInstance(MdcProbe.class);
+        Assert.assertNull(probe.injectingClass);
+        Assert.assertTrue(LogContext.isEnabled(DiagnosticLevel.FULL));
+    }
+
+    @Test
+    public void testDiagnosticsFull() throws Exception {
+        InjectorBuilder b = InjectorBuilder.create();
+        Injector i = b.build();
+
+        MdcProbe probe = i.getInstance(MdcProbe.class);
+        Assert.assertNotNull(probe.injectingClass);
+    }
+
     @Test
     public void testNullBinding() throws InjectionException {
         InjectorBuilder b = InjectorBuilder.create();
@@ -260,6 +334,15 @@ public class InjectorBuilderTest {
         i.getInstance(TypeN2.class);
     }
     
+    public static class MdcProbe {
+        final String injectingClass;
+
+        @Inject
+        public MdcProbe() {
+            injectingClass = MDC.get("org.grouplens.grapht.class");
+        }
+    }
+
     public static interface ShouldWork { }
     
     public static class NotInjectable implements ShouldWork {
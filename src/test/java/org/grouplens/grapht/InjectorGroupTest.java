@@ -0,0 +1,239 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import org.grouplens.grapht.graph.MergePool;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.solver.DefaultDesireBindingFunction;
+import org.grouplens.grapht.solver.DefaultInjector;
+import org.grouplens.grapht.solver.DependencySolver;
+import org.grouplens.grapht.solver.ProviderBindingFunction;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Qualifier;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class InjectorGroupTest {
+    private static int indexBuilds;
+
+    @Before
+    public void resetCounter() {
+        indexBuilds = 0;
+    }
+
+    private static Injector variant(InjectorGroup group, Class<? extends Algorithm> algo) {
+        InjectorBuilder bld = InjectorBuilder.create().setInjectorGroup(group);
+        bld.bind(Algorithm.class).to(algo);
+        return bld.build();
+    }
+
+    @Test
+    public void testSharedInstances() throws InjectionException {
+        InjectorGroup group = InjectorGroup.create();
+        Algorithm a = variant(group, FirstAlgorithm.class).getInstance(Algorithm.class);
+        Algorithm b = variant(group, SecondAlgorithm.class).getInstance(Algorithm.class);
+        assertThat(a, instanceOf(FirstAlgorithm.class));
+        assertThat(b, instanceOf(SecondAlgorithm.class));
+        assertThat(b.index, sameInstance(a.index));
+        assertThat(indexBuilds, equalTo(1));
+    }
+
+    @Test
+    public void testSharedNodes() throws InjectionException {
+        InjectorGroup group = InjectorGroup.create();
+        Injector first = variant(group, FirstAlgorithm.class);
+        Injector second = variant(group, FirstAlgorithm.class);
+        first.getInstance(Algorithm.class);
+        second.getInstance(Algorithm.class);
+        assertThat(((DefaultInjector) second).getSolver().getGraph().getAdjacentNodes(),
+                   equalTo(((DefaultInjector) first).getSolver().getGraph().getAdjacentNodes()));
+    }
+
+    @Test
+    public void testSeparateInjectors() throws InjectionException {
+        Algorithm a = variant(null, FirstAlgorithm.class).getInstance(Algorithm.class);
+        Algorithm b = variant(null, SecondAlgorithm.class).getInstance(Algorithm.class);
+        assertThat(b.index, not(sameInstance(a.index)));
+        assertThat(indexBuilds, equalTo(2));
+    }
+
+    private static Injector swapVariant(InjectorGroup group, double a, double b) {
+        InjectorBuilder bld = InjectorBuilder.create().setInjectorGroup(group);
+        bld.bind(Double.class).withQualifier(Alpha.class).to(a);
+        bld.bind(Double.class).withQualifier(Beta.class).to(b);
+        return bld.build();
+    }
+
+    @Test
+    public void testSwappedQualifiedValues() throws InjectionException {
+        InjectorGroup group = InjectorGroup.create();
+        Weights first = swapVariant(group, 0.1, 0.2).getInstance(Weights.class);
+        Weights second = swapVariant(group, 0.2, 0.1).getInstance(Weights.class);
+        assertThat(first.a, equalTo(0.1));
+        assertThat(first.b, equalTo(0.2));
+        // the second variant has the same component and tails, wired the other way around
+        assertThat(second.a, equalTo(0.2));
+        assertThat(second.b, equalTo(0.1));
+        // and an identical variant shares the first one's instance
+        assertThat(swapVariant(group, 0.1, 0.2).getInstance(Weights.class), sameInstance(first));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSharedPoolMustDistinguishEdges() {
+        DependencySolver.newBuilder().setMergePool(MergePool.<Component,Dependency>create());
+    }
+
+    private static InjectorBuilder cyclicVariant(InjectorGroup group, Class<? extends P> impl) {
+        InjectorBuilder bld = InjectorBuilder.create()
+                                             .setInjectorGroup(group)
+                                             .setProviderInjectionEnabled(true);
+        bld.bind(P.class).to(impl);
+        return bld;
+    }
+
+    @Test
+    public void testProviderCycleStandalone() throws InjectionException {
+        cyclicVariant(null, P1.class).build().getInstance(Top.class);
+        Top top = cyclicVariant(null, P2.class).build().getInstance(Top.class);
+        assertThat(top.b.pt.get().p, instanceOf(P2.class));
+    }
+
+    @Test
+    public void testProviderInjectionRejected() throws InjectionException {
+        // the deferred B node would be shared by both variants, with the first one's back edge
+        InjectorGroup group = InjectorGroup.create();
+        try {
+            cyclicVariant(group, P1.class).build();
+            fail("provider injection should be rejected in an injector group");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void testSharedPoolRejectsDeferral() {
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        config.getRootContext().bind(P.class).to(P1.class);
+        DependencySolver solver =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .addBindingFunction(new ProviderBindingFunction())
+                                .addBindingFunction(DefaultDesireBindingFunction.create())
+                                .setMergePool(MergePool.<Component,Dependency>create(Dependency.extractInitialDesire()))
+                                .build();
+        try {
+            solver.resolve(Desires.create(null, Top.class, false));
+            fail("deferred dependencies should be rejected with a shared pool");
+        } catch (ResolutionException e) {
+            /* expected */
+        }
+    }
+
+    @Qualifier
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Alpha {}
+
+    @Qualifier
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Beta {}
+
+    public static class Weights {
+        final double a;
+        final double b;
+
+        @Inject
+        public Weights(@Alpha Double a, @Beta Double b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    public static interface P {}
+
+    public static class P1 implements P {
+        @Inject
+        public P1() {}
+    }
+
+    public static class P2 implements P {
+        @Inject
+        public P2() {}
+    }
+
+    public static class B {
+        final Provider<Top> pt;
+
+        @Inject
+        public B(Provider<Top> pt) {
+            this.pt = pt;
+        }
+    }
+
+    public static class Top {
+        final P p;
+        final B b;
+
+        @Inject
+        public Top(P p, B b) {
+            this.p = p;
+            this.b = b;
+        }
+    }
+
+    public static class Index {
+        @Inject
+        public Index() {
+            indexBuilds += 1;
+        }
+    }
+
+    public static abstract class Algorithm {
+        final Index index;
+
+        protected Algorithm(Index idx) {
+            index = idx;
+        }
+    }
+
+    public static class FirstAlgorithm extends Algorithm {
+        @Inject
+        public FirstAlgorithm(Index idx) {
+            super(idx);
+        }
+    }
+
+    public static class SecondAlgorithm extends Algorithm {
+        @Inject
+        public SecondAlgorithm(Index idx) {
+            super(idx);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.solver.DesireChain;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for interning of graph labels.
+ *
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class LabelInterningTest {
+    @Test
+    public void testComponentInterned() {
+        Component c1 = Component.create(Satisfactions.type(Object.class), CachePolicy.MEMOIZE);
+        Component c2 = Component.create(Satisfactions.type(Object.class), CachePolicy.MEMOIZE);
+        Component c3 = Component.create(Satisfactions.type(Object.class), CachePolicy.NEW_INSTANCE);
+        assertThat(c2, sameInstance(c1));
+        assertThat(c3, not(equalTo(c1)));
+        assertThat(SerializationUtils.clone(c1), sameInstance(c1));
+    }
+
+    @Test
+    public void testDependencyInterned() {
+        DesireChain chain = DesireChain.singleton(Desires.create(null, String.class, false));
+        EnumSet<Dependency.Flag> flags = EnumSet.of(Dependency.Flag.FIXED);
+        Dependency d1 = Dependency.create(chain, flags);
+        Dependency d2 = Dependency.create(DesireChain.singleton(Desires.create(null, String.class, false)),
+                                          flags);
+        assertThat(d2, sameInstance(d1));
+        assertThat(d1.isFixed(), equalTo(true));
+
+        // modifying the flags does not affect the shared dependency
+        d1.getFlags().clear();
+        flags.clear();
+        assertThat(d2.isFixed(), equalTo(true));
+        assertThat(Dependency.create(chain, flags), not(equalTo(d1)));
+    }
+}
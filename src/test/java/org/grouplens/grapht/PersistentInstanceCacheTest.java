@@ -0,0 +1,229 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Desires;
+import org.grouplens.grapht.solver.DependencySolver;
+import org.grouplens.grapht.util.MemoizedValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class PersistentInstanceCacheTest {
+    private static int builds;
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        builds = 0;
+        dir = File.createTempFile("grapht-instances", "");
+        dir.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static DAGNode<Component,Dependency> solve(Class<?> type, BindingFunctionBuilder config) throws ResolutionException {
+        DependencySolver solver =
+                DependencySolver.newBuilder()
+                                .addBindingFunction(config.build(BindingFunctionBuilder.RuleSet.EXPLICIT))
+                                .build();
+        solver.resolve(Desires.create(null, type, false));
+        return solver.getGraph().getOutgoingEdges().iterator().next().getTail();
+    }
+
+    private static DAGNode<Component,Dependency> solve(Class<?> type) throws ResolutionException {
+        return solve(type, new BindingFunctionBuilder());
+    }
+
+    private static Object instantiate(DAGNode<Component,Dependency> node,
+                                      PersistentInstanceCache cache) throws InjectionException {
+        InjectionContainer container = InjectionContainer.create(CachePolicy.MEMOIZE,
+                                                                 MemoizedValue.WaitPolicy.BLOCK,
+                                                                 DiagnosticLevel.FULL,
+                                                                 cache);
+        return container.makeInstantiator(node).instantiate();
+    }
+
+    private PersistentInstanceCache cacheModels(long size) {
+        return PersistentInstanceCache.create(dir, size, new Predicate<Component>() {
+            @Override
+            public boolean apply(@Nullable Component input) {
+                return input != null && Model.class.isAssignableFrom(input.getSatisfaction().getErasedType());
+            }
+        });
+    }
+
+    @Test
+    public void testReuseAcrossContainers() throws Exception {
+        PersistentInstanceCache cache = cacheModels(1 << 20);
+        Model first = (Model) instantiate(solve(Model.class), cache);
+        assertThat(builds, equalTo(1));
+        assertThat(dir.listFiles(), arrayWithSize(1));
+
+        // a freshly solved graph has the same structure, so it finds the stored model
+        Model second = (Model) instantiate(solve(Model.class), cacheModels(1 << 20));
+        assertThat(builds, equalTo(1));
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.data, notNullValue());
+    }
+
+    @Test
+    public void testSubgraphChangesKey() throws Exception {
+        PersistentInstanceCache cache = cacheModels(1 << 20);
+        DAGNode<Component,Dependency> plain = solve(Model.class);
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        config.getRootContext().bind(Data.class).to(SubData.class);
+        DAGNode<Component,Dependency> sub = solve(Model.class, config);
+        ImmutableSetMultimap<DAGNode<Component,Dependency>,DAGEdge<Component,Dependency>> none = ImmutableSetMultimap.of();
+
+        assertThat(cache.getKey(plain, none), notNullValue());
+        assertThat(cache.getKey(sub, none), not(equalTo(cache.getKey(plain, none))));
+
+        instantiate(plain, cache);
+        Model model = (Model) instantiate(sub, cache);
+        assertThat(builds, equalTo(2));
+        assertThat(model.data, instanceOf(SubData.class));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        instantiate(solve(Model.class), cacheModels(1 << 20));
+        File[] files = dir.listFiles();
+        assertThat(files, arrayWithSize(1));
+        long size = files[0].length();
+        files[0].setLastModified(System.currentTimeMillis() - 60000);
+
+        // room for only one model
+        PersistentInstanceCache cache = cacheModels(size + size / 2);
+        instantiate(solve(OtherModel.class), cache);
+        assertThat(builds, equalTo(2));
+        assertThat(dir.listFiles(), arrayWithSize(1));
+        assertThat(files[0].exists(), equalTo(false));
+
+        instantiate(solve(Model.class), cache);
+        assertThat(builds, equalTo(3));
+    }
+
+    @Test
+    public void testOnlyCacheableComponents() throws Exception {
+        PersistentInstanceCache cache = PersistentInstanceCache.create(dir, 1 << 20, Predicates.alwaysFalse());
+        instantiate(solve(Model.class), cache);
+        instantiate(solve(Model.class), cache);
+        assertThat(builds, equalTo(2));
+        assertThat(dir.exists(), equalTo(false));
+    }
+
+    @Test
+    public void testConcurrentStoresOfSameKey() throws Exception {
+        final int threads = 8;
+        final List<DAGNode<Component,Dependency>> graphs = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+            graphs.add(solve(Model.class));
+        }
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                final DAGNode<Component,Dependency> graph = graphs.get(i);
+                results.add(exec.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        // separate caches sharing a directory, as in separate processes
+                        PersistentInstanceCache cache = cacheModels(1 << 20);
+                        start.await();
+                        return instantiate(graph, cache);
+                    }
+                }));
+            }
+            for (Future<Object> result: results) {
+                assertThat(((Model) result.get()).data, notNullValue());
+            }
+        } finally {
+            exec.shutdown();
+        }
+
+        // exactly one complete instance file, and no temporary files left behind
+        File[] files = dir.listFiles();
+        assertThat(files, arrayWithSize(1));
+        assertThat(files[0].getName(), endsWith(".instance"));
+        int built = builds;
+        Model model = (Model) instantiate(solve(Model.class), cacheModels(1 << 20));
+        assertThat(builds, equalTo(built));
+        assertThat(model.data, notNullValue());
+    }
+
+    public static class Data implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class SubData extends Data {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class Model implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Data data;
+
+        @Inject
+        public Model(Data d) {
+            builds += 1;
+            data = d;
+        }
+    }
+
+    public static class OtherModel extends Model {
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        public OtherModel(Data d) {
+            super(d);
+        }
+    }
+}
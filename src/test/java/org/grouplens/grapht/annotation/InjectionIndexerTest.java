@@ -0,0 +1,190 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.annotation;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.internal.ReflectionDesire;
+import org.grouplens.grapht.util.InjectionIndex;
+import org.grouplens.grapht.util.Types;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+
+public class InjectionIndexerTest {
+    private static final String SOURCE = "package test;"
+            + "import javax.inject.Inject;"
+            + "import org.grouplens.grapht.annotation.DefaultImplementation;"
+            + "public class Indexed {"
+            + "  @Inject public Indexed(String s, int[] xs, java.util.List<String> l) {}"
+            + "  @Inject private Runnable task;"
+            + "  @Inject static Object ignored;"
+            + "  public static class Plain {}"
+            + "  public static class WithSetter { @Inject public void setFoo(String foo) {} }"
+            + "  public class Inner {}"
+            + "  @DefaultImplementation(Plain.class) public interface Iface {}"
+            + "}";
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = File.createTempFile("grapht-index", "");
+        assertThat(dir.delete(), equalTo(true));
+        assertThat(dir.mkdir(), equalTo(true));
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private ClassLoader compile() throws IOException {
+        return compile(true);
+    }
+
+    private ClassLoader compile(boolean enableIndex) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeThat("system Java compiler is available", compiler, notNullValue());
+        File src = new File(dir, "Indexed.java");
+        Writer out = new OutputStreamWriter(new FileOutputStream(src), "UTF-8");
+        try {
+            out.write(SOURCE);
+        } finally {
+            out.close();
+        }
+        StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        try {
+            files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(dir));
+            Iterable<? extends JavaFileObject> units = files.getJavaFileObjects(src);
+            JavaCompiler.CompilationTask task =
+                    compiler.getTask(null, files, null,
+                                     Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                                                   "-A" + InjectionIndexer.ENABLE_OPTION + "=" + enableIndex),
+                                     null, units);
+            task.setProcessors(Collections.singleton(new InjectionIndexer()));
+            assertThat(task.call(), equalTo(true));
+        } finally {
+            files.close();
+        }
+        return new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    @Test
+    public void testIndexWritten() throws Exception {
+        ClassLoader loader = compile();
+        assertThat(new File(dir, InjectionIndex.INDEX_RESOURCE).exists(), equalTo(true));
+        InjectionIndex index = InjectionIndex.forClassLoader(loader);
+
+        InjectionIndex.Entry top = index.get("test.Indexed");
+        assertThat(top, notNullValue());
+        assertThat(top.isComplete(), equalTo(true));
+        assertThat(top.isInstantiable(), equalTo(true));
+        assertThat(top.hasInjectConstructor(), equalTo(true));
+        assertThat(top.hasInjectMethods(), equalTo(false));
+        assertThat(top.getConstructorParameters(),
+                   contains("java.lang.String", "[I", "java.util.List"));
+        assertThat(top.getInjectFields(), contains("task"));
+
+        assertThat(index.get("test.Indexed$Plain").isInstantiable(), equalTo(true));
+        assertThat(index.get("test.Indexed$WithSetter").hasInjectMethods(), equalTo(true));
+        assertThat(index.get("test.Indexed$Inner").isComplete(), equalTo(false));
+        assertThat(index.get("test.Indexed$Iface").hasDefaults(), equalTo(true));
+        assertThat(index.get("test.Indexed$Plain").hasDefaults(), equalTo(false));
+    }
+
+    @Test
+    public void testIndexedDesires() throws Exception {
+        ClassLoader loader = compile();
+        Class<?> indexed = loader.loadClass("test.Indexed");
+        assertThat(InjectionIndex.lookup(indexed), notNullValue());
+        assertThat(Types.isInstantiable(indexed), equalTo(true));
+        assertThat(Types.isInstantiable(loader.loadClass("test.Indexed$Inner")), equalTo(false));
+
+        List<Desire> desires = ReflectionDesire.getDesires(indexed);
+        assertThat(desires, hasSize(4));
+        assertThat(desires.get(0).getDesiredType(), equalTo((Class) String.class));
+        assertThat(desires.get(1).getDesiredType(), equalTo((Class) int[].class));
+        assertThat(desires.get(2).getDesiredType(), equalTo((Class) List.class));
+        assertThat(desires.get(3).getDesiredType(), equalTo((Class) Runnable.class));
+
+        // setter injection falls back to reflection
+        assertThat(ReflectionDesire.getDesires(loader.loadClass("test.Indexed$WithSetter")),
+                   hasSize(1));
+    }
+
+    @Test
+    public void testIndexerIsOptIn() throws Exception {
+        ClassLoader loader = compile(false);
+        assertThat(new File(dir, InjectionIndex.INDEX_RESOURCE).exists(), equalTo(false));
+        assertThat(InjectionIndex.lookup(loader.loadClass("test.Indexed")), nullValue());
+    }
+
+    @Test
+    public void testStaleEntriesIgnored() throws Exception {
+        ClassLoader loader = compile();
+        // simulate a class recompiled without the indexer: its field has been renamed
+        File file = new File(dir, InjectionIndex.INDEX_RESOURCE);
+        String index = Files.toString(file, Charsets.UTF_8);
+        Files.write(index.replace("\ttask\n", "\toldTask\n"), file, Charsets.UTF_8);
+
+        Class<?> indexed = loader.loadClass("test.Indexed");
+        assertThat(InjectionIndex.forClassLoader(loader).get("test.Indexed").getInjectFields(),
+                   contains("oldTask"));
+        assertThat(InjectionIndex.lookup(indexed), nullValue());
+        // reflection still finds the desires
+        List<Desire> desires = ReflectionDesire.getDesires(indexed);
+        assertThat(desires, hasSize(4));
+        assertThat(desires.get(3).getDesiredType(), equalTo((Class) Runnable.class));
+        // entries that still match are used
+        assertThat(InjectionIndex.lookup(loader.loadClass("test.Indexed$Plain")), notNullValue());
+    }
+}
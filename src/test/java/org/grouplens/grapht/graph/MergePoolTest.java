@@ -19,6 +19,7 @@
  */
 package org.grouplens.grapht.graph;
 
+import com.google.common.base.Functions;
 import com.google.common.collect.Lists;
 import org.hamcrest.Matcher;
 import org.junit.Before;
@@ -140,4 +141,31 @@ public class MergePoolTest {
         assertThat(pool.merge(p2), isIn(merged.getReachableNodes()));
         assertThat(pool.merge(p1), isIn(merged.getReachableNodes()));
     }
+
+    @Test
+    public void testKeyedPoolDistinguishesEdges() {
+        MergePool<String,String> keyed = MergePool.create(Functions.<String>identity());
+        DAGNode<String,String> x = DAGNode.singleton("x");
+        DAGNode<String,String> y = DAGNode.singleton("y");
+        DAGNode<String,String> first =
+                DAGNode.<String,String>newBuilder("root")
+                       .addEdge(x, "a")
+                       .addEdge(y, "b")
+                       .build();
+        DAGNode<String,String> swapped =
+                DAGNode.<String,String>newBuilder("root")
+                       .addEdge(y, "a")
+                       .addEdge(x, "b")
+                       .build();
+        assertThat(keyed.merge(first), sameInstance(first));
+        // same tails, but wired differently
+        assertThat(keyed.merge(swapped), sameInstance(swapped));
+        // identically wired graphs are still merged
+        DAGNode<String,String> copy =
+                DAGNode.<String,String>newBuilder("root")
+                       .addEdge(DAGNode.<String,String>singleton("x"), "a")
+                       .addEdge(DAGNode.<String,String>singleton("y"), "b")
+                       .build();
+        assertThat(keyed.merge(copy), sameInstance(first));
+    }
 }
@@ -41,6 +41,26 @@ public class QualifierMatcherTest {
         Assert.assertFalse(matcher.matches(null));
     }
     
+    @Test
+    public void testAnnotationInstanceMatchReflected() throws NoSuchFieldException {
+        Named reflected = Holder.class.getDeclaredField("field").getAnnotation(Named.class);
+        QualifierMatcher matcher = Qualifiers.match(new AnnotationBuilder<Named>(Named.class).set("value", "test").build());
+        Assert.assertTrue(matcher.matches(reflected));
+        Assert.assertEquals(matcher, Qualifiers.match(reflected));
+        Assert.assertEquals(matcher.hashCode(), Qualifiers.match(reflected).hashCode());
+    }
+
+    @Test
+    public void testQualifierKeysInterned() {
+        QualifierKey k1 = QualifierKey.of(new AnnotationBuilder<Named>(Named.class).set("value", "test").build());
+        QualifierKey k2 = QualifierKey.of(new AnnotationBuilder<Named>(Named.class).set("value", "test").build());
+        QualifierKey k3 = QualifierKey.of(new AnnotationBuilder<Named>(Named.class).set("value", "not-test").build());
+        Assert.assertSame(k1, k2);
+        Assert.assertNotSame(k1, k3);
+        Assert.assertFalse(k1.equals(k3));
+        Assert.assertEquals(Named.class, k1.getResolvedType());
+    }
+
     @Test
     public void testAnnotationClassMatch() {
         QualifierMatcher matcher = Qualifiers.match(Named.class);
@@ -81,4 +101,9 @@ public class QualifierMatcherTest {
         Collections.sort(ordered);
         Assert.assertEquals(expected, ordered);
     }
+
+    private static class Holder {
+        @Named("test")
+        private Object field;
+    }
 }
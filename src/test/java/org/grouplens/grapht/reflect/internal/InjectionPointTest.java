@@ -215,7 +215,30 @@ public class InjectionPointTest {
         
         Assert.assertEquals(expected, getInjectionPoints(SubType.class));
     }
-    
+
+    @Test
+    public void testMetadataShared() throws Exception {
+        // separately-looked-up members are equal but not identical
+        ConstructorParameterInjectionPoint c1 =
+                new ConstructorParameterInjectionPoint(CtorType.class.getConstructor(Object.class, String.class), 1);
+        ConstructorParameterInjectionPoint c2 =
+                new ConstructorParameterInjectionPoint(CtorType.class.getConstructor(Object.class, String.class), 1);
+        Assert.assertThat(InjectionPointMetadata.forParameter(c1.getMember(), 1),
+                          sameInstance(InjectionPointMetadata.forParameter(c2.getMember(), 1)));
+        Assert.assertThat(c1.getQualifier(), sameInstance(c2.getQualifier()));
+
+        SetterInjectionPoint s1 =
+                new SetterInjectionPoint(SetterType.class.getMethod("setMulti", Object.class, String.class), 1);
+        SetterInjectionPoint s2 =
+                new SetterInjectionPoint(SetterType.class.getMethod("setMulti", Object.class, String.class), 1);
+        Assert.assertThat(s1.getErasedType(), equalTo((Class) String.class));
+        Assert.assertTrue(s1.isNullable());
+        Assert.assertThat(InjectionPointMetadata.forParameter(s1.getMember(), 1),
+                          sameInstance(InjectionPointMetadata.forParameter(s2.getMember(), 1)));
+        Assert.assertThat(InjectionPointMetadata.forParameter(s1.getMember(), 0),
+                          not(sameInstance(InjectionPointMetadata.forParameter(s2.getMember(), 1))));
+    }
+
     private Set<InjectionPoint> getInjectionPoints(Class<?> types) {
         List<Desire> desires = ReflectionDesire.getDesires(types);
         Set<InjectionPoint> points = new HashSet<InjectionPoint>();
@@ -48,6 +48,26 @@ public class ReflectionDesireTest {
         Assert.assertEquals(inject, desire.getInjectionPoint());
     }
     
+    @Test
+    public void testDesiresCached() throws Exception {
+        List<Desire> desires = ReflectionDesire.getDesires(TypeC.class);
+        Assert.assertFalse(desires.isEmpty());
+        Assert.assertSame(desires, ReflectionDesire.getDesires(TypeC.class));
+        Assert.assertSame(desires, new ClassSatisfaction(TypeC.class).getDependencies());
+    }
+
+    @Test
+    public void testRestrictInterned() throws Exception {
+        InjectionPoint inject = new MockInjectionPoint(A.class, false);
+        ReflectionDesire desire = new ReflectionDesire(A.class, inject, null);
+        Desire r1 = desire.restrict(B.class);
+        Desire r2 = new ReflectionDesire(A.class, inject, null).restrict(B.class);
+        Assert.assertEquals(r1, r2);
+        Assert.assertSame(r1, r2);
+        Assert.assertSame(desire.restrict(new ClassSatisfaction(B.class)),
+                          r1.restrict(new ClassSatisfaction(B.class)));
+    }
+
     @Test
     public void testInheritedRoleDefault() throws Exception {
         // Test that the default desire for the setRoleE injection point in TypeC
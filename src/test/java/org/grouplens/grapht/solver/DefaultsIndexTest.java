@@ -0,0 +1,82 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DefaultsIndexTest {
+    @Test
+    public void testIndexAndPerTypeDefaults() throws IOException {
+        DefaultsIndex idx = DefaultsIndex.forClassLoader(getClass().getClassLoader());
+        assertThat(DefaultsIndex.forClassLoader(getClass().getClassLoader()), sameInstance(idx));
+
+        Map<String, String> indexed = idx.getDefaults("org.grouplens.grapht.types.dft.IIdxDftImpl");
+        assertThat(indexed, hasEntry("implementation", "org.grouplens.grapht.types.dft.CIdxDftImpl"));
+        assertThat(indexed, hasEntry("cachePolicy", "NEW_INSTANCE"));
+
+        Map<String, String> perType = idx.getDefaults("org.grouplens.grapht.types.dft.IPropDftImpl");
+        assertThat(perType, hasEntry("implementation", "org.grouplens.grapht.types.dft.CPropDftImplA"));
+
+        assertThat(idx.getDefaults("org.grouplens.grapht.types.dft.IDftImpl"), nullValue());
+        assertThat(idx.getDefaults(null), nullValue());
+    }
+
+    @Test
+    public void testAggregate() throws IOException, URISyntaxException {
+        URL res = getClass().getClassLoader().getResource(DefaultsIndex.PER_TYPE_PREFIX);
+        File dir = new File(res.toURI());
+        File out = File.createTempFile("grapht-defaults", "");
+        assertThat(out.delete(), equalTo(true));
+        assertThat(out.mkdir(), equalTo(true));
+        File index = new File(out, DefaultsIndex.INDEX_RESOURCE);
+        try {
+            DefaultsIndex.writeIndex(dir, index);
+            // isolated class loader that sees only the aggregated index
+            URLClassLoader loader = new URLClassLoader(new URL[]{out.toURI().toURL()}, null);
+            DefaultsIndex idx = DefaultsIndex.forClassLoader(loader);
+            assertThat(idx.getIndexedTypeCount(), equalTo(4));
+            Map<String, String> props = idx.getDefaults("org.grouplens.grapht.types.dft.IPropDftImplNoCache");
+            assertThat(props, hasEntry("implementation", "org.grouplens.grapht.types.dft.CPropDftImplNoCache"));
+            assertThat(props, hasEntry("cachePolicy", "NEW_INSTANCE"));
+            assertThat(idx.getDefaults("org.grouplens.grapht.types.dft.IPropDftProvider"),
+                       hasEntry("provider", "org.grouplens.grapht.types.dft.PPropDftProvider"));
+        } finally {
+            index.delete();
+            new File(out, "META-INF/grapht").delete();
+            new File(out, "META-INF").delete();
+            out.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMainRejectsBadArguments() throws IOException {
+        DefaultsIndex.main(new String[]{"only-one"});
+    }
+}
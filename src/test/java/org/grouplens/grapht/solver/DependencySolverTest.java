@@ -43,6 +43,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
@@ -133,6 +134,34 @@ public class DependencySolverTest {
         Assert.assertEquals(dep, rootNode.getOutgoingEdges().iterator().next().getTail().getLabel().getSatisfaction());
     }
 
+    @Test
+    public void testLeanGraphCompactsChains() throws Exception {
+        // Test that a lean graph keeps only the initial and final desires on each edge
+        Satisfaction dep = new MockSatisfaction(B.class);
+        Desire d1 = new MockDesire();
+        Desire d2 = new MockDesire();
+        Desire d3 = new MockDesire(dep);
+        Satisfaction root = new MockSatisfaction(A.class, Arrays.asList(d1));
+        Desire rootDesire = new MockDesire(root);
+
+        ImmutableListMultimap.Builder<ContextMatcher, BindRule> bindings = ImmutableListMultimap.builder();
+        bindings.putAll(ContextPattern.any(),
+                        new MockBindRule(d1, d2),
+                        new MockBindRule(d2, d3));
+        DependencySolver r = DependencySolver.newBuilder()
+                                             .addBindingFunction(new RuleBasedBindingFunction(bindings.build()))
+                                             .setLeanGraph(true)
+                                             .build();
+        r.resolve(rootDesire);
+        DAGNode<Component, Dependency> rootNode = getRoot(r, rootDesire);
+
+        Assert.assertEquals(1, rootNode.getOutgoingEdges().size());
+        DAGEdge<Component, Dependency> edge = rootNode.getOutgoingEdges().iterator().next();
+        Assert.assertEquals(dep, edge.getTail().getLabel().getSatisfaction());
+        assertThat(edge.getLabel().getDesireChain(), contains(d1, d3));
+        Assert.assertEquals(d1, edge.getLabel().getInitialDesire());
+    }
+
     @Test
     public void testSingleDependencyChainedDesiresSuccess() throws Exception {
         // Test resolving a satisfaction with a single dependency through multiple desires/bind rules
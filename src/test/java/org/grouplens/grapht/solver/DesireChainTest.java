@@ -59,4 +59,32 @@ public class DesireChainTest {
                    equalTo((List<Desire>) DesireChain.singleton(d1)));
         assertThat(chain, contains(d1, d2));
     }
+
+    @Test
+    public void testChainKeys() {
+        Desire d1 = new MockDesire(InputStream.class, null, null);
+        Desire d2 = new MockDesire(FileInputStream.class, null, null);
+        DesireChain c1 = DesireChain.singleton(d1);
+        DesireChain c2 = DesireChain.singleton(d1);
+        assertThat(c1, equalTo(c2));
+        // separately-created chains have distinct keys
+        assertThat(c1.getKey(), not(equalTo(c2.getKey())));
+        // extending a chain preserves its key
+        assertThat(c1.extend(d2).getKey(), equalTo(c1.getKey()));
+    }
+
+    @Test
+    public void testCompact() {
+        Desire d1 = new MockDesire(InputStream.class, null, null);
+        Desire d2 = new MockDesire(FileInputStream.class, null, null);
+        Desire d3 = new MockDesire(FileInputStream.class, null, null);
+        DesireChain two = DesireChain.singleton(d1).extend(d2);
+        assertThat(two.compact(), sameInstance(two));
+        DesireChain chain = two.extend(d3);
+        DesireChain compact = chain.compact();
+        assertThat(compact, contains(d1, d3));
+        assertThat(compact.getInitialDesire(), equalTo(d1));
+        assertThat(compact.getCurrentDesire(), equalTo(d3));
+        assertThat(compact.getKey(), equalTo(chain.getKey()));
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.InjectionException;
+import org.grouplens.grapht.InjectorBuilder;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.internal.types.CycleA;
+import org.grouplens.grapht.reflect.internal.types.TypeC;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class GraphCodecTest {
+    private static byte[] encode(DAGNode<Component, Dependency> graph,
+                                 SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> back) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphCodec.write(graph, back, out);
+        return out.toByteArray();
+    }
+
+    private static GraphCodec.Solution decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return GraphCodec.read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Summarize a graph as its set of (head label, edge label, tail label) triples.
+     */
+    private static Set<Pair<Component, Pair<Dependency, Component>>> edges(DAGNode<Component, Dependency> graph) {
+        Set<Pair<Component, Pair<Dependency, Component>>> edges = new HashSet<Pair<Component, Pair<Dependency, Component>>>();
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                edges.add(Pair.of(node.getLabel(), Pair.of(edge.getLabel(), edge.getTail().getLabel())));
+            }
+        }
+        return edges;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DefaultInjector inj = new DefaultInjector(DefaultDesireBindingFunction.create());
+        inj.getInstance(TypeC.class);
+        DAGNode<Component, Dependency> graph = inj.getSolver().getGraph();
+
+        byte[] bytes = encode(graph, inj.getSolver().getBackEdges());
+        GraphCodec.Solution read = decode(bytes);
+        DAGNode<Component, Dependency> copy = read.getGraph();
+        assertThat(copy.getReachableNodes(), hasSize(graph.getReachableNodes().size()));
+        assertThat(copy.getLabel(), equalTo(graph.getLabel()));
+        assertThat(read.getBackEdges().size(), equalTo(0));
+
+        // the graph matches the one read from Java serialization
+        DAGNode<Component, Dependency> javaCopy = SerializationUtils.clone(graph);
+        assertThat(edges(copy), equalTo(edges(javaCopy)));
+        assertThat(edges(copy), equalTo(edges(graph)));
+
+        // and is smaller
+        assertThat(bytes.length, lessThan(SerializationUtils.serialize(graph).length));
+    }
+
+    /**
+     * Add the desires of a graph's edges to a set.
+     */
+    private static void addDesires(DAGNode<Component, Dependency> graph, Set<Desire> desires) {
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                Iterables.addAll(desires, edge.getLabel().getDesireChain());
+            }
+        }
+    }
+
+    /**
+     * Solve and encode a graph, remembering its desires but nothing else.
+     */
+    private static byte[] encodeSolved(Set<Desire> desires) throws IOException, InjectionException {
+        DefaultInjector inj = new DefaultInjector(DefaultDesireBindingFunction.create());
+        inj.getInstance(TypeC.class);
+        addDesires(inj.getSolver().getGraph(), desires);
+        return encode(inj.getSolver().getGraph(), inj.getSolver().getBackEdges());
+    }
+
+    @Test
+    public void testDecodedDesiresInterned() throws Exception {
+        Set<Desire> desires = Sets.newIdentityHashSet();
+        byte[] bytes = encodeSolved(desires);
+        // let the solved dependencies be collected, so decoding cannot reuse them
+        System.gc();
+
+        Set<Desire> decoded = Sets.newIdentityHashSet();
+        addDesires(decode(bytes).getGraph(), decoded);
+        assertThat(decoded, not(empty()));
+        assertThat(desires, equalTo(decoded));
+    }
+
+    @Test
+    public void testBackEdges() throws Exception {
+        DefaultInjector inj = (DefaultInjector) InjectorBuilder.create()
+                                                               .setProviderInjectionEnabled(true)
+                                                               .build();
+        inj.getInstance(CycleA.class);
+        DependencySolver solver = inj.getSolver();
+        SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> back = solver.getBackEdges();
+        assertThat(back.size(), equalTo(1));
+        DAGEdge<Component, Dependency> edge = back.values().iterator().next();
+
+        GraphCodec.Solution read = decode(encode(solver.getGraph(), back));
+        assertThat(read.getBackEdges().size(), equalTo(1));
+        DAGEdge<Component, Dependency> readEdge = read.getBackEdges().values().iterator().next();
+        assertThat(readEdge.getLabel(), equalTo(edge.getLabel()));
+        assertThat(readEdge.getHead().getLabel(), equalTo(edge.getHead().getLabel()));
+        assertThat(readEdge.getTail().getLabel(), equalTo(edge.getTail().getLabel()));
+        assertThat(read.getGraph().getReachableNodes(),
+                   hasItems(readEdge.getHead(), readEdge.getTail()));
+        assertThat(read.getBackEdges().get(readEdge.getHead()), contains(readEdge));
+    }
+
+    @Test
+    public void testReadJavaSerialization() throws Exception {
+        DefaultInjector inj = new DefaultInjector(DefaultDesireBindingFunction.create());
+        inj.getInstance(TypeC.class);
+        DAGNode<Component, Dependency> graph = inj.getSolver().getGraph();
+
+        GraphCodec.Solution read = decode(SerializationUtils.serialize(graph));
+        assertThat(edges(read.getGraph()), equalTo(edges(graph)));
+        assertThat(read.getBackEdges().size(), equalTo(0));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testBadMagic() throws Exception {
+        decode(new byte[]{1, 2, 3, 4, 5, 6});
+    }
+
+    @Test
+    public void testVarInt() throws Exception {
+        int[] values = {0, 1, 127, 128, 300, 65535, Integer.MAX_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int v: values) {
+            GraphCodec.writeVarInt(out, v);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int v: values) {
+            assertThat(GraphCodec.readVarInt(in), equalTo(v));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class InjectionContextTest {
+    @Test
+    public void testSingletonInterned() {
+        Satisfaction sat = Satisfactions.type(Object.class);
+        InjectionContext c1 = InjectionContext.singleton(sat);
+        InjectionContext c2 = InjectionContext.singleton(Satisfactions.type(Object.class));
+        assertThat(c2, sameInstance(c1));
+        assertThat(c1.getLeading(), nullValue());
+    }
+
+    @Test
+    public void testExtendInterned() {
+        Satisfaction root = Satisfactions.type(Object.class);
+        Satisfaction sat = Satisfactions.type(Root.class);
+        InjectionContext base = InjectionContext.singleton(root);
+        InjectionContext c1 = base.extend(sat, base.getTailValue().getRight());
+        InjectionContext c2 = InjectionContext.singleton(root)
+                                              .extend(sat, base.getTailValue().getRight());
+        assertThat(c2, sameInstance(c1));
+        assertThat(c1.getLeading(), sameInstance(base));
+        assertThat(c1, hasSize(2));
+        assertThat(c1.get(1).getLeft(), equalTo(sat));
+    }
+
+    public static class Root {}
+}
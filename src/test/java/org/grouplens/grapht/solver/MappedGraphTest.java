@@ -0,0 +1,163 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.SetMultimap;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.InjectorBuilder;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.internal.types.CycleA;
+import org.grouplens.grapht.reflect.internal.types.TypeC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class MappedGraphTest {
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("grapht-graph", ".bin");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static Predicate<Dependency> desiresType(final Class<?> type) {
+        return new Predicate<Dependency>() {
+            @Override
+            public boolean apply(@Nullable Dependency input) {
+                return input != null && input.getInitialDesire().getDesiredType().equals(type);
+            }
+        };
+    }
+
+    @Test
+    public void testFullGraph() throws Exception {
+        DefaultInjector inj = new DefaultInjector(DefaultDesireBindingFunction.create());
+        inj.getInstance(TypeC.class);
+        DAGNode<Component, Dependency> graph = inj.getSolver().getGraph();
+        MappedGraph.write(graph, inj.getSolver().getBackEdges(), file);
+
+        MappedGraph mapped = MappedGraph.open(file);
+        assertThat(mapped.getMaterializedCount(), equalTo(0));
+        assertThat(mapped.getRootLabel(), equalTo(graph.getLabel()));
+        DAGNode<Component, Dependency> copy = mapped.getGraph();
+        assertThat(copy.getReachableNodes(), hasSize(graph.getReachableNodes().size()));
+        // materialized nodes are reused
+        assertThat(mapped.getGraph(), sameInstance(copy));
+
+        // the edges match the original graph
+        List<Dependency> labels = new ArrayList<Dependency>();
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                labels.add(edge.getLabel());
+            }
+        }
+        List<Dependency> copyLabels = new ArrayList<Dependency>();
+        for (DAGNode<Component, Dependency> node: copy.getReachableNodes()) {
+            for (DAGEdge<Component, Dependency> edge: node.getOutgoingEdges()) {
+                copyLabels.add(edge.getLabel());
+            }
+        }
+        assertThat(copyLabels, containsInAnyOrder(labels.toArray()));
+    }
+
+    @Test
+    public void testLazySubgraph() throws Exception {
+        DefaultInjector inj = new DefaultInjector(DefaultDesireBindingFunction.create());
+        inj.getInstance(TypeC.class);
+        inj.getInstance(Leaf.class);
+        DAGNode<Component, Dependency> graph = inj.getSolver().getGraph();
+        MappedGraph.write(graph, inj.getSolver().getBackEdges(), file);
+
+        MappedGraph mapped = MappedGraph.open(file);
+        List<Dependency> deps = mapped.getRootDependencies();
+        assertThat(deps, hasSize(2));
+        int labelCount = mapped.getMaterializedCount();
+
+        DAGNode<Component, Dependency> leaf = mapped.findDependency(desiresType(Leaf.class));
+        assertThat(leaf, notNullValue());
+        assertThat(leaf.getLabel().getSatisfaction().getErasedType(),
+                   equalTo((Class) Leaf.class));
+        assertThat(leaf.getOutgoingEdges(), hasSize(0));
+        // only the leaf node and its label were added
+        int leafCount = mapped.getMaterializedCount();
+        assertThat(leafCount, lessThan(labelCount + 5));
+
+        assertThat(mapped.findDependency(desiresType(String.class)), nullValue());
+
+        DAGNode<Component, Dependency> tc = mapped.findDependency(desiresType(TypeC.class));
+        assertThat(tc, notNullValue());
+        assertThat(tc.getOutgoingEdges(), hasSize(5));
+        assertThat(mapped.getMaterializedCount(), greaterThan(leafCount + 5));
+    }
+
+    @Test
+    public void testBackEdges() throws Exception {
+        DefaultInjector inj = (DefaultInjector) InjectorBuilder.create()
+                                                               .setProviderInjectionEnabled(true)
+                                                               .build();
+        inj.getInstance(CycleA.class);
+        DependencySolver solver = inj.getSolver();
+        MappedGraph.write(solver.getGraph(), solver.getBackEdges(), file);
+
+        MappedGraph mapped = MappedGraph.open(file);
+        SetMultimap<DAGNode<Component, Dependency>, DAGEdge<Component, Dependency>> back = mapped.getBackEdges();
+        assertThat(back.size(), equalTo(1));
+        DAGEdge<Component, Dependency> edge = back.values().iterator().next();
+        DAGEdge<Component, Dependency> original = solver.getBackEdges().values().iterator().next();
+        assertThat(edge.getLabel(), equalTo(original.getLabel()));
+        assertThat(edge.getTail().getLabel(), equalTo(original.getTail().getLabel()));
+        assertThat(mapped.getGraph().getReachableNodes(),
+                   hasItems(edge.getHead(), edge.getTail()));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testBadFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        MappedGraph.open(file);
+    }
+
+    public static class Leaf {}
+}
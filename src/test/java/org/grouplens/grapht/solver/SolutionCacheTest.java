@@ -0,0 +1,221 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.solver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.grouplens.grapht.BindingFunctionBuilder;
+import org.grouplens.grapht.BindingFunctionBuilder.RuleSet;
+import org.grouplens.grapht.CachePolicy;
+import org.grouplens.grapht.Injector;
+import org.grouplens.grapht.InjectorBuilder;
+import org.grouplens.grapht.reflect.internal.types.InterfaceA;
+import org.grouplens.grapht.reflect.internal.types.InterfaceB;
+import org.grouplens.grapht.reflect.internal.types.TypeA;
+import org.grouplens.grapht.reflect.internal.types.TypeB;
+import org.grouplens.grapht.reflect.internal.types.TypeC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author <a href="http://grouplens.org">GroupLens Research</a>
+ */
+public class SolutionCacheTest {
+    private File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = File.createTempFile("grapht-solutions", "");
+        dir.delete();
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private InjectorBuilder configure() {
+        InjectorBuilder bld = InjectorBuilder.create().setSolutionCacheDirectory(dir);
+        bld.bind(InterfaceA.class).to(TypeB.class);
+        return bld;
+    }
+
+    private static DependencySolver solver(Injector inj) {
+        return ((DefaultInjector) inj).getSolver();
+    }
+
+    private static void save(Injector inj) {
+        ((DefaultInjector) inj).saveSolution();
+    }
+
+    @Test
+    public void testReloadSolution() throws Exception {
+        Injector first = configure().build();
+        assertThat(solver(first).getGraph().getOutgoingEdges(), hasSize(0));
+        TypeC c = first.getInstance(TypeC.class);
+        assertThat(c.getInterfaceA(), instanceOf(TypeB.class));
+        // nothing is written until the solution is saved
+        assertThat(dir.exists(), equalTo(false));
+        save(first);
+        assertThat(dir.listFiles(), arrayWithSize(1));
+
+        Injector second = configure().build();
+        DependencySolver solver = solver(second);
+        // the graph is loaded before anything is requested
+        assertThat(solver.getGraph().getOutgoingEdges(), hasSize(1));
+        assertThat(solver.getGraph().getReachableNodes(),
+                   hasSize(solver(first).getGraph().getReachableNodes().size()));
+        TypeC c2 = second.getInstance(TypeC.class);
+        assertThat(c2.getInterfaceA(), instanceOf(TypeB.class));
+        assertThat(c2, not(sameInstance(c)));
+
+        // new desires are solved on top of the loaded graph and saved
+        second.getInstance(TypeA.class);
+        save(second);
+        assertThat(solver(configure().build()).getGraph().getOutgoingEdges(), hasSize(2));
+    }
+
+    @Test
+    public void testConfigurationChangesKey() throws Exception {
+        Injector first = configure().build();
+        first.getInstance(TypeC.class);
+        save(first);
+        InjectorBuilder bld = configure();
+        bld.bind(InterfaceA.class).to(TypeA.class);
+        Injector inj = bld.build();
+        assertThat(solver(inj).getGraph().getOutgoingEdges(), hasSize(0));
+    }
+
+    @Test
+    public void testCorruptSolutionFallsBack() throws Exception {
+        Injector first = configure().build();
+        first.getInstance(TypeC.class);
+        save(first);
+        File[] files = dir.listFiles();
+        assertThat(files, arrayWithSize(1));
+        FileOutputStream out = new FileOutputStream(files[0]);
+        try {
+            out.write(new byte[] { 1, 2, 3, 4, 5 });
+        } finally {
+            out.close();
+        }
+
+        Injector inj = configure().build();
+        assertThat(solver(inj).getGraph().getOutgoingEdges(), hasSize(0));
+        assertThat(inj.getInstance(TypeC.class).getInterfaceA(), instanceOf(TypeB.class));
+        save(inj);
+        // and the solution was rewritten
+        assertThat(solver(configure().build()).getGraph().getOutgoingEdges(), hasSize(1));
+    }
+
+    @Test
+    public void testInstanceBindingsNotCached() throws Exception {
+        InjectorBuilder bld = configure();
+        bld.bind(TypeA.class).to(new TypeA());
+        Injector inj = bld.build();
+        inj.getInstance(TypeC.class);
+        save(inj);
+        assertThat(dir.exists(), equalTo(false));
+    }
+
+    @Test
+    public void testChangedMetaInfDefaultsInvalidate() throws Exception {
+        File resources = new File(dir, "resources");
+        Injector first = InjectorBuilder.create(loader(resources)).setSolutionCacheDirectory(dir).build();
+        assertThat(first.getInstance(Base.class).getClass(), equalTo((Class) Base.class));
+        save(first);
+
+        // same configuration, but Base now has a META-INF default
+        File defaults = new File(resources, DefaultsIndex.PER_TYPE_PREFIX + Base.class.getCanonicalName() + ".properties");
+        assertThat(defaults.getParentFile().mkdirs(), equalTo(true));
+        Files.write("implementation=" + Sub.class.getName() + "\n", defaults, Charsets.UTF_8);
+        Injector second = InjectorBuilder.create(loader(resources)).setSolutionCacheDirectory(dir).build();
+        assertThat(solver(second).getGraph().getOutgoingEdges(), hasSize(0));
+        assertThat(second.getInstance(Base.class), instanceOf(Sub.class));
+    }
+
+    @Test
+    public void testChangedDigestInvalidates() throws Exception {
+        Injector first = configure().build();
+        first.getInstance(TypeC.class);
+        save(first);
+        // replace the stored digest, as if a default annotation had changed
+        File file = dir.listFiles()[0];
+        byte[] bytes = Files.toByteArray(file);
+        bytes[2] = (byte) (bytes[2] == '0' ? '1' : '0');
+        Files.write(bytes, file);
+
+        assertThat(solver(configure().build()).getGraph().getOutgoingEdges(), hasSize(0));
+    }
+
+    private static String key(boolean reversed) {
+        BindingFunctionBuilder config = new BindingFunctionBuilder();
+        for (int i = 0; i < 2; i++) {
+            if ((i == 0) != reversed) {
+                config.getRootContext().bind(InterfaceA.class).to(TypeB.class);
+                config.getRootContext().within(TypeC.class).bind(InterfaceA.class).to(TypeA.class);
+            } else {
+                config.getRootContext().bind(InterfaceB.class).to(TypeB.class);
+                config.getRootContext().within(TypeC.class).bind(InterfaceB.class).to(TypeB.class);
+            }
+        }
+        return SolutionCache.computeKey(CachePolicy.MEMOIZE, 100,
+                                        config.build(RuleSet.EXPLICIT),
+                                        config.build(RuleSet.INTERMEDIATE_TYPES),
+                                        config.build(RuleSet.SUPER_TYPES),
+                                        DefaultDesireBindingFunction.create());
+    }
+
+    @Test
+    public void testKeyIgnoresRuleOrder() {
+        String key = key(false);
+        assertThat(key, notNullValue());
+        assertThat(key(true), equalTo(key));
+    }
+
+    private static ClassLoader loader(File resources) throws IOException {
+        return new URLClassLoader(new URL[] { resources.toURI().toURL() },
+                                  SolutionCacheTest.class.getClassLoader());
+    }
+
+    public static class Base {}
+
+    public static class Sub extends Base {}
+}
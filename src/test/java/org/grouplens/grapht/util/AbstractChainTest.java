@@ -21,7 +21,11 @@ package org.grouplens.grapht.util;
 
 import org.junit.Test;
 
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import static org.hamcrest.Matchers.*;
@@ -125,4 +129,33 @@ public class AbstractChainTest {
         assertThat(base.equals(chend), equalTo(false));
         assertThat(base.equals(chstart), equalTo(false));
     }
+
+    @Test
+    public void testLongChainListBehavior() {
+        List<String> list = new ArrayList<String>();
+        TestChain chain = null;
+        for (int i = 0; i < 100; i++) {
+            String tok = Integer.toString(i);
+            list.add(tok);
+            chain = chain == null ? singleton(tok) : chain.extend(tok);
+            assertThat(chain.hashCode(), equalTo(list.hashCode()));
+        }
+        assertThat(chain, hasSize(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(chain.get(i), equalTo(list.get(i)));
+        }
+        assertThat(chain, contains(list.toArray()));
+        assertThat(chain.equals(list), equalTo(true));
+        assertThat(list.equals(chain), equalTo(true));
+    }
+
+    @Test
+    public void testSerializedChain() {
+        TestChain chain = chain("foo", "bar", "blatz", "bam", "wombat");
+        TestChain copy = SerializationUtils.clone(chain);
+        assertThat(copy, equalTo(chain));
+        assertThat(copy.hashCode(), equalTo(chain.hashCode()));
+        assertThat(copy.get(1), equalTo("bar"));
+        assertThat(copy.get(3), equalTo("bam"));
+    }
 }
@@ -20,6 +20,7 @@
 package org.grouplens.grapht.util;
 
 import com.sun.tools.javac.code.Attribute;
+import org.grouplens.grapht.Names;
 import org.grouplens.grapht.annotation.AnnotationBuilder;
 import org.grouplens.grapht.reflect.internal.types.InterfaceA;
 import org.junit.Assert;
@@ -205,6 +206,41 @@ public class AnnotationBuilderTest {
         Assert.assertFalse(jvmA3a1.hashCode() == notEqual.hashCode());
     }
     
+    @Test
+    public void testProxyEquality() {
+        // proxies compare their attribute values directly, including defaults and arrays
+        A3 explicit = new AnnotationBuilder<A3>(A3.class).set("value", "hello")
+                                                         .set("otherValue", new double[] { 1.0 })
+                                                         .build();
+        A3 defaulted = new AnnotationBuilder<A3>(A3.class).set("otherValue", new double[] { 1.0 })
+                                                          .build();
+        A3 different = new AnnotationBuilder<A3>(A3.class).set("otherValue", new double[] { 2.0 })
+                                                          .build();
+        Assert.assertTrue(explicit.equals(defaulted));
+        Assert.assertTrue(defaulted.equals(explicit));
+        Assert.assertEquals(explicit.hashCode(), defaulted.hashCode());
+        Assert.assertEquals(explicit.toString(), defaulted.toString());
+        Assert.assertFalse(explicit.equals(different));
+        Assert.assertFalse(different.equals(defaulted));
+        Assert.assertFalse(explicit.equals(new AnnotationBuilder<A1>(A1.class).build()));
+        Assert.assertFalse(explicit.equals(null));
+    }
+
+    @Test
+    public void testBuiltAnnotationsInterned() {
+        A3 a1 = new AnnotationBuilder<A3>(A3.class).set("otherValue", new double[] { 3.0 })
+                                                   .build();
+        A3 a2 = new AnnotationBuilder<A3>(A3.class).set("value", "hello")
+                                                   .set("otherValue", new double[] { 3.0 })
+                                                   .build();
+        A3 a3 = new AnnotationBuilder<A3>(A3.class).set("otherValue", new double[] { 4.0 })
+                                                   .build();
+        Assert.assertSame(a1, a2);
+        Assert.assertNotSame(a1, a3);
+        Assert.assertSame(Names.named("foo"), Names.named("foo"));
+        Assert.assertNotSame(Names.named("foo"), Names.named("bar"));
+    }
+
     @Test
     public void testAnnotationArrayAttribute() {
         // verify that an annotation with annotation arrays implements
@@ -19,14 +19,18 @@
  */
 package org.grouplens.grapht.util;
 
+import com.google.common.io.BaseEncoding;
 import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.List;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 @SuppressWarnings("rawtypes")
@@ -108,4 +112,70 @@ public class ClassProxyTest {
         // and test the hash code
         assertThat(equal.hashCode(), equalTo(proxy.hashCode()));
     }
+
+    @Test
+    public void testFingerprints() {
+        long string = ClassFingerprints.fingerprint(String.class);
+        assertThat(ClassFingerprints.fingerprint(String.class), equalTo(string));
+        assertThat(ClassFingerprints.fingerprint(String.class, ClassFingerprints.CURRENT_VERSION),
+                   equalTo(string));
+        assertThat(ClassFingerprints.fingerprint(List.class) == string, equalTo(false));
+        // version 0 is the original checksum
+        assertThat(ClassFingerprints.fingerprint(String.class, 0),
+                   equalTo(ClassFingerprints.legacyChecksum(String.class)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFingerprintVersion() {
+        ClassFingerprints.fingerprint(String.class, ClassFingerprints.CURRENT_VERSION + 1);
+    }
+
+    @Test
+    public void testFingerprintDiskCache() throws IOException {
+        File file = File.createTempFile("fingerprints", ".properties");
+        try {
+            assertThat(file.delete(), equalTo(true));
+            String key = ClassFingerprints.DiskCache.makeKey(ClassProxyTest.class);
+            assertThat(key, notNullValue());
+            // primitives have no class file, and JDK classes are not cached on disk
+            assertThat(ClassFingerprints.DiskCache.makeKey(int.class), nullValue());
+            assertThat(ClassFingerprints.DiskCache.makeKey(String.class), nullValue());
+
+            ClassFingerprints.DiskCache cache = ClassFingerprints.DiskCache.open(file.getPath());
+            assertThat(cache.get(key), nullValue());
+            cache.put(key, -42L);
+            cache.save();
+
+            ClassFingerprints.DiskCache reloaded = ClassFingerprints.DiskCache.open(file.getPath());
+            assertThat(reloaded.get(key), equalTo(-42L));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A {@link ClassProxy} of {@link LegacyTarget}, serialized by Grapht 0.10 (before checksums
+     * were versioned).
+     */
+    private static final String LEGACY_PROXY =
+            "rO0ABXNyACRvcmcuZ3JvdXBsZW5zLmdyYXBodC51dGlsLkNsYXNzUHJveHkAAAAAAAAAAQIAAkoACGNoZWNr"
+            + "c3VtTAAJY2xhc3NOYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7eHD8kT2XALOgFnQANW9yZy5ncm91cGxlbnMu"
+            + "Z3JhcGh0LnV0aWwuQ2xhc3NQcm94eVRlc3QkTGVnYWN5VGFyZ2V0";
+
+    @Test
+    public void testDeserializeVersion0Proxy() throws ClassNotFoundException {
+        byte[] bytes = BaseEncoding.base64().decode(LEGACY_PROXY);
+        ClassProxy proxy = (ClassProxy) SerializationUtils.deserialize(bytes);
+        assertThat(proxy.getClassName(), equalTo(LegacyTarget.class.getName()));
+        assertThat(proxy, equalTo(ClassProxy.of(LegacyTarget.class)));
+        // the stored checksum is verified with the version 0 algorithm
+        assertThat(proxy.resolve(), equalTo((Class) LegacyTarget.class));
+    }
+
+    /**
+     * A class with a stable member signature, for checking proxies serialized by old versions.
+     */
+    public static class LegacyTarget {
+        public void run() {}
+    }
 }
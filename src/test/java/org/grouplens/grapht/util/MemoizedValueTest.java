@@ -0,0 +1,227 @@
+/*
+ * Grapht, an open source dependency injector.
+ * Copyright 2014-2015 various contributors (see CONTRIBUTORS.txt)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.grouplens.grapht.util;
+
+import org.junit.Test;
+
+import javax.inject.Provider;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for lock-free memoized values.
+ * @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ */
+public class MemoizedValueTest {
+    @Test
+    public void testComputesOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        MemoizedValue<String> value = MemoizedValue.create(new Callable<String>() {
+            @Override
+            public String call() {
+                calls.incrementAndGet();
+                return "hello";
+            }
+        });
+        assertThat(value.isDone(), equalTo(false));
+        assertThat(value.get(), equalTo("hello"));
+        assertThat(value.get(), equalTo("hello"));
+        assertThat(value.isDone(), equalTo(true));
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void testMemoizesNull() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        MemoizedValue<String> value = MemoizedValue.create(new Callable<String>() {
+            @Override
+            public String call() {
+                calls.incrementAndGet();
+                return null;
+            }
+        });
+        assertThat(value.get(), nullValue());
+        assertThat(value.get(), nullValue());
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void testMemoizesFailure() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        MemoizedValue<String> value = MemoizedValue.create(new Callable<String>() {
+            @Override
+            public String call() {
+                calls.incrementAndGet();
+                throw new IllegalStateException("failed");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                value.get();
+                fail("memoized value should fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            }
+        }
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void testRetriesFailure() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        MemoizedValue<String> value = MemoizedValue.create(new Callable<String>() {
+            @Override
+            public String call() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failed");
+                }
+                return "hello";
+            }
+        }, MemoizedValue.WaitPolicy.BLOCK, true);
+        try {
+            value.get();
+            fail("first computation should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        assertThat(value.isDone(), equalTo(false));
+        assertThat(value.get(), equalTo("hello"));
+        assertThat(value.get(), equalTo("hello"));
+        assertThat(calls.get(), equalTo(2));
+    }
+
+    @Test
+    public void testProviderRetriesFailure() {
+        final AtomicInteger calls = new AtomicInteger();
+        MemoizingProvider<String> provider = new MemoizingProvider<String>(new Provider<String>() {
+            @Override
+            public String get() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failed");
+                }
+                return "hello";
+            }
+        });
+        try {
+            provider.get();
+            fail("first get should fail");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+        assertThat(provider.get(), equalTo("hello"));
+        assertThat(provider.get(), equalTo("hello"));
+        assertThat(calls.get(), equalTo(2));
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        checkWaitPolicy(MemoizedValue.WaitPolicy.FAIL_FAST, true);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        checkWaitPolicy(MemoizedValue.WaitPolicy.timeout(10, TimeUnit.MILLISECONDS), true);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        checkWaitPolicy(MemoizedValue.WaitPolicy.BLOCK, false);
+    }
+
+    /**
+     * Request a value while another thread is computing it.
+     * @param policy The wait policy.
+     * @param timesOut Whether the request should time out.
+     */
+    private void checkWaitPolicy(MemoizedValue.WaitPolicy policy, boolean timesOut) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MemoizedValue<String> value = MemoizedValue.create(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return "done";
+            }
+        }, policy);
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = exec.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return value.get();
+                }
+            });
+            started.await();
+            if (timesOut) {
+                try {
+                    value.get();
+                    fail("waiting should time out");
+                } catch (TimeoutException e) {
+                    /* expected */
+                }
+            } else {
+                Future<String> second = exec.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return value.get();
+                    }
+                });
+                release.countDown();
+                assertThat(second.get(), equalTo("done"));
+            }
+            release.countDown();
+            assertThat(first.get(), equalTo("done"));
+            assertThat(value.get(), equalTo("done"));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRecursionFails() throws Exception {
+        final MemoizedValue<?>[] holder = new MemoizedValue<?>[1];
+        MemoizedValue<Object> value = MemoizedValue.create(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return holder[0].get();
+            }
+        });
+        holder[0] = value;
+        try {
+            value.get();
+            fail("recursive computation should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -160,6 +161,20 @@ public class TypesTest {
                    equalTo(1));
     }
 
+    @Test
+    public void testShortestPathDistance() {
+        // ArrayList -> List -> Collection is shorter than going through AbstractCollection
+        assertThat(Types.getTypeDistance(ArrayList.class, Collection.class),
+                   equalTo(2));
+        assertThat(Types.getTypeDistance(ArrayList.class, Iterable.class),
+                   equalTo(3));
+        assertThat(Types.getTypeDistance(ArrayList.class, Object.class),
+                   equalTo(3));
+        // repeated lookups come from the cached table
+        assertThat(Types.getTypeDistance(ArrayList.class, Collection.class),
+                   equalTo(2));
+    }
+
     @Test
     public void testTypedProvider() {
         Provider<String> string = Providers.of("string");